@@ -0,0 +1,83 @@
+package com.berico.clavin.extractor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.berico.clavin.index.SampleData;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * ExtractionBenchmark.java
+ * 
+ *###################################################################*/
+
+/**
+ * Times extracting location names from the sample documents with
+ * {@link ApacheExtractor}.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ExtractionBenchmark {
+	
+	@Param({"Somalia-doc.txt", "SampleText.txt"})
+	String document;
+	
+	ApacheExtractor extractor;
+	String text;
+	
+	@Setup
+	public void loadExtractor() throws IOException {
+		extractor = new ApacheExtractor();
+		text = SampleData.readDocument(document);
+	}
+	
+	@Benchmark
+	public List<String> extractLocationNames() {
+		return extractor.extractLocationNames(text);
+	}
+	
+	@Benchmark
+	public List<LocationOccurrence> extractLocationOccurrences() {
+		return extractor.extractLocationOccurrences(text);
+	}
+}
@@ -0,0 +1,173 @@
+package com.berico.clavin.index;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+import com.berico.clavin.gazetteer.GeoName;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * SampleData.java
+ * 
+ *###################################################################*/
+
+/**
+ * Loads the sample gazetteer and documents bundled with CLAVIN, and
+ * builds indexes from them, for the benchmarks to run against.
+ * 
+ */
+public class SampleData {
+	
+	// sample gazetteer records, and the supplementary gazetteer
+	// shipped with CLAVIN itself
+	public static final String SAMPLE_GAZETTEER = "/gazetteers/GeoNamesSampleSet.txt";
+	public static final String SUPPLEMENTARY_GAZETTEER = "/SupplementaryGazetteer.txt";
+	
+	// sample documents
+	public static final String SAMPLE_DOCS = "/sample-docs/";
+	
+	/**
+	 * No need to build these, it's all static.
+	 */
+	private SampleData() {}
+	
+	/**
+	 * Reads the lines of a text resource.
+	 * 
+	 * @param resource		classpath resource name
+	 * @return				lines of the resource
+	 * @throws IOException
+	 */
+	public static List<String> readLines(String resource) throws IOException {
+		InputStream in = SampleData.class.getResourceAsStream(resource);
+		if (in == null)
+			throw new IOException("Resource not found: " + resource);
+		
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+	
+	/**
+	 * Reads one of the sample documents.
+	 * 
+	 * @param name			file name of the document
+	 * @return				contents of the document
+	 * @throws IOException
+	 */
+	public static String readDocument(String name) throws IOException {
+		StringBuilder document = new StringBuilder();
+		for (String line : readLines(SAMPLE_DOCS + name))
+			document.append(line).append('\n');
+		return document.toString();
+	}
+	
+	/**
+	 * Reads the records of the sample and supplementary gazetteers.
+	 * 
+	 * @return				gazetteer records, one per line
+	 * @throws IOException
+	 */
+	public static List<String> gazetteerRecords() throws IOException {
+		List<String> records = new ArrayList<String>(readLines(SAMPLE_GAZETTEER));
+		records.addAll(readLines(SUPPLEMENTARY_GAZETTEER));
+		return records;
+	}
+	
+	/**
+	 * Indexes gazetteer records into the given directory, the same way
+	 * {@link IndexDirectoryBuilder} does.
+	 * 
+	 * @param index			directory to hold the index
+	 * @param records		gazetteer records, one per line
+	 * @return				number of documents added
+	 * @throws IOException
+	 */
+	public static int buildIndex(Directory index, List<String> records) throws IOException {
+		IndexWriter indexWriter = new IndexWriter(index,
+				new IndexWriterConfig(Version.LUCENE_40, new WhitespaceLowerCaseAnalyzer()));
+		int docs = 0;
+		try {
+			for (String record : records)
+				docs += IndexDirectoryBuilder.addToIndex(indexWriter, GeoName.parseFromGeoNamesRecord(record));
+		} finally {
+			indexWriter.close();
+		}
+		return docs;
+	}
+	
+	/**
+	 * Builds an index from the sample and supplementary gazetteers, in
+	 * a fresh temporary directory.
+	 * 
+	 * @return				directory holding the new index
+	 * @throws IOException
+	 */
+	public static File buildIndex() throws IOException {
+		File indexDir = File.createTempFile("clavin-index", "");
+		if (!indexDir.delete() || !indexDir.mkdir())
+			throw new IOException("Unable to create " + indexDir);
+		
+		FSDirectory index = FSDirectory.open(indexDir);
+		try {
+			buildIndex(index, gazetteerRecords());
+		} finally {
+			index.close();
+		}
+		return indexDir;
+	}
+	
+	/**
+	 * Deletes an index built by {@link SampleData#buildIndex()}.
+	 * 
+	 * @param indexDir		directory holding the index
+	 */
+	public static void deleteIndex(File indexDir) {
+		File[] files = indexDir.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		indexDir.delete();
+	}
+}
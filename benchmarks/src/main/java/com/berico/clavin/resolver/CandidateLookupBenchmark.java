@@ -0,0 +1,101 @@
+package com.berico.clavin.resolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.berico.clavin.index.SampleData;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * CandidateLookupBenchmark.java
+ * 
+ *###################################################################*/
+
+/**
+ * Times looking up candidate matches for location names in an index
+ * built from the sample gazetteer, with
+ * {@link LocationResolver#getCandidateMatches(List, boolean, String[])}.
+ * 
+ * The candidate cache is turned off, so every name is looked up in
+ * the index every time.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CandidateLookupBenchmark {
+	
+	// names in the sample gazetteer, spelled as they are there
+	static final List<String> exactNames = Arrays.asList("Reston", "Boston", "Gun Barrel City",
+			"Stra\u00dfenhaus", "Chihuahua Desert", "Murray Canyon", "United States", "No Man's Land");
+	
+	// the same names, misspelled so they need fuzzy matching
+	static final List<String> misspelledNames = Arrays.asList("Restn", "Bostn", "Gun Barrel Cty",
+			"Strassenhause", "Chihuahua Dessert", "Murray Canyn", "United Stats", "No Man's Lnd");
+	
+	File indexDir;
+	LocationResolver resolver;
+	
+	@Setup
+	public void buildIndex() throws IOException, ParseException {
+		indexDir = SampleData.buildIndex();
+		resolver = new LocationResolver(indexDir, 5, 5);
+		resolver.setCandidateCache(null);
+	}
+	
+	@TearDown
+	public void deleteIndex() {
+		SampleData.deleteIndex(indexDir);
+	}
+	
+	@Benchmark
+	public List<List<ResolvedLocation>> exactMatches() throws IOException {
+		return resolver.getCandidateMatches(exactNames, false, new String[exactNames.size()]);
+	}
+	
+	@Benchmark
+	public List<List<ResolvedLocation>> fuzzyMatches() throws IOException {
+		return resolver.getCandidateMatches(misspelledNames, true, new String[misspelledNames.size()]);
+	}
+}
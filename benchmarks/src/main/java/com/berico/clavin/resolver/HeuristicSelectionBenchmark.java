@@ -0,0 +1,127 @@
+package com.berico.clavin.resolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.berico.clavin.gazetteer.GeoName;
+import com.berico.clavin.index.SampleData;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * HeuristicSelectionBenchmark.java
+ * 
+ *###################################################################*/
+
+/**
+ * Times choosing the best combination of candidate matches with
+ * {@link LocationResolver#pickBestCandidates(List, int[])}, for
+ * context windows of different sizes.
+ * 
+ * Candidates are made up, with country & admin1 codes drawn from a
+ * handful of each so that there's plenty of overlap between them, as
+ * in a typical document.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeuristicSelectionBenchmark {
+	
+	@Param({"3", "5", "8"})
+	int contextWindow;
+	
+	// number of candidate matches for each location name
+	@Param({"5"})
+	int maxHitDepth;
+	
+	static final String[] countries = {"US", "GB", "CA", "DE", "FR"};
+	static final String[] admin1s = {"MA", "IL", "MO", "ENG", "08", "TX"};
+	
+	File indexDir;
+	LocationResolver resolver;
+	List<List<ResolvedLocation>> allCandidates;
+	int[] mentionCounts;
+	
+	@Setup
+	public void buildCandidates() throws IOException, ParseException {
+		indexDir = SampleData.buildIndex();
+		resolver = new LocationResolver(indexDir, maxHitDepth, contextWindow);
+		
+		Random random = new Random(42);
+		int geonameID = 1;
+		allCandidates = new ArrayList<List<ResolvedLocation>>();
+		mentionCounts = new int[contextWindow];
+		for (int i = 0; i < contextWindow; i++) {
+			List<ResolvedLocation> candidates = new ArrayList<ResolvedLocation>();
+			for (int j = 0; j < maxHitDepth; j++)
+				candidates.add(buildLocation(geonameID++,
+						countries[random.nextInt(countries.length)],
+						admin1s[random.nextInt(admin1s.length)]));
+			allCandidates.add(candidates);
+			mentionCounts[i] = 1 + random.nextInt(3);
+		}
+	}
+	
+	@TearDown
+	public void deleteIndex() {
+		SampleData.deleteIndex(indexDir);
+	}
+	
+	@Benchmark
+	public int[] pickBestCandidates() {
+		return resolver.pickBestCandidates(allCandidates, mentionCounts);
+	}
+	
+	/**
+	 * Builds a {@link ResolvedLocation} from a minimal GeoNames record.
+	 */
+	static ResolvedLocation buildLocation(int geonameID, String countryCode, String admin1Code) {
+		String name = "Place" + geonameID;
+		String record = geonameID + "\t" + name + "\t" + name + "\t\t0.0\t0.0\tP\tPPL\t"
+				+ countryCode + "\t\t" + admin1Code + "\t\t\t\t1000\t\t0\tUTC\t2012-01-01";
+		return new ResolvedLocation(GeoName.parseFromGeoNamesRecord(record), name, name, false);
+	}
+}
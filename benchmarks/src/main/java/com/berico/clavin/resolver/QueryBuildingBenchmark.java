@@ -0,0 +1,92 @@
+package com.berico.clavin.resolver;
+
+import static org.apache.lucene.queryparser.classic.QueryParserBase.escape;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.analyzing.AnalyzingQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.berico.clavin.index.WhitespaceLowerCaseAnalyzer;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * QueryBuildingBenchmark.java
+ * 
+ *###################################################################*/
+
+/**
+ * Compares building the exact & fuzzy lookup queries for a location
+ * name with {@link LocationQueryBuilder} against escaping the name and
+ * parsing it with a new {@link AnalyzingQueryParser} each time, as the
+ * resolver used to.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuildingBenchmark {
+	
+	@Param({"Reston", "Gun Barrel City", "Washington, D.C."})
+	String name;
+	
+	Analyzer analyzer = new WhitespaceLowerCaseAnalyzer();
+	LocationQueryBuilder builder = new LocationQueryBuilder("indexName", analyzer);
+	
+	@Benchmark
+	public void queryParser(Blackhole blackhole) throws ParseException {
+		String escaped = escape(name.toLowerCase());
+		blackhole.consume(new AnalyzingQueryParser(Version.LUCENE_40, "indexName", analyzer)
+				.parse("\"" + escaped + "\""));
+		blackhole.consume(new AnalyzingQueryParser(Version.LUCENE_40, "indexName", analyzer)
+				.parse(escaped + "~"));
+	}
+	
+	@Benchmark
+	public void queryBuilder(Blackhole blackhole) throws IOException {
+		List<String> tokens = builder.analyze(name);
+		blackhole.consume(builder.buildKeyQuery(builder.normalize(tokens)));
+		blackhole.consume(builder.buildExactQuery(tokens));
+		blackhole.consume(builder.buildFuzzyQuery(tokens));
+	}
+}
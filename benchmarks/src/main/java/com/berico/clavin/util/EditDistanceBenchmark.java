@@ -0,0 +1,139 @@
+package com.berico.clavin.util;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * EditDistanceBenchmark.java
+ * 
+ *###################################################################*/
+
+/**
+ * Compares the {@link DamerauLevenshtein} edit distance functions, on
+ * pairs of location names like those compared for fuzzy matches,
+ * against the original matrix-based implementation.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditDistanceBenchmark {
+	
+	// location names & the gazetteer names they were fuzzy-matched to
+	String[][] pairs = {
+			{"mogadishu", "mogadisho"},
+			{"springfeild", "springfield"},
+			{"gun barel city", "gun barrel city"},
+			{"kismayo", "kismaayo"},
+			{"strassenhaus", "strassenhaus airport"}};
+	
+	@Benchmark
+	public void originalDistance(Blackhole blackhole) {
+		for (String[] pair : pairs)
+			blackhole.consume(originalDamerauLevenshteinDistance(pair[0], pair[1]));
+	}
+	
+	@Benchmark
+	public void distance(Blackhole blackhole) {
+		for (String[] pair : pairs)
+			blackhole.consume(DamerauLevenshtein.damerauLevenshteinDistance(pair[0], pair[1]));
+	}
+	
+	@Benchmark
+	public void boundedDistance(Blackhole blackhole) {
+		for (String[] pair : pairs)
+			blackhole.consume(DamerauLevenshtein.damerauLevenshteinDistance(pair[0], pair[1], 2));
+	}
+	
+	@Benchmark
+	public void isEditDistance1(Blackhole blackhole) {
+		for (String[] pair : pairs)
+			blackhole.consume(DamerauLevenshtein.isEditDistance1(pair[0], pair[1]));
+	}
+	
+	/**
+	 * The original implementation, splitting the strings into String
+	 * arrays and filling in the whole edit matrix.
+	 */
+	static int originalDamerauLevenshteinDistance(String str1, String str2) {
+		String[] stringArray1 = str1.split("");
+		String[] stringArray2 = str2.split("");
+		
+		int[][] matrix = new int[stringArray1.length + 2][stringArray2.length + 2];
+		int bound = stringArray1.length + stringArray2.length;
+		matrix[0][0] = bound;
+		for (int i = 0; i <= stringArray1.length; i++) {
+			matrix[i + 1][1] = i;
+			matrix[i + 1][0] = bound;
+		}
+		for (int j = 0; j <= stringArray2.length; j++) {
+			matrix[1][j + 1] = j;
+			matrix[0][j + 1] = bound;
+		}
+		
+		SortedMap<String, Integer> dictionary = new TreeMap<String, Integer>();
+		for (String letter : (str1 + str2).split("")) {
+			if (!dictionary.containsKey(letter)) {
+				dictionary.put(letter, 0);
+			}
+		}
+		
+		for (int i = 1; i <= stringArray1.length; i++) {
+			int index = 0;
+			for (int j = 1; j <= stringArray2.length; j++) {
+				int i1 = dictionary.get(stringArray2[j - 1]);
+				int j1 = index;
+				if (stringArray1[i - 1].equals(stringArray2[j - 1])) {
+					matrix[i + 1][j + 1] = matrix[i][j];
+					index = j;
+				} else {
+					matrix[i + 1][j + 1] = Math.min(matrix[i][j], Math.min(matrix[i + 1][j], matrix[i][j + 1])) + 1;
+				}
+				
+				matrix[i + 1][j + 1] = Math.min(matrix[i + 1][j + 1], matrix[i1][j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+			}
+			
+			dictionary.put(stringArray1[i - 1], i);
+		}
+		
+		return matrix[stringArray1.length + 1][stringArray2.length + 1];
+	}
+}
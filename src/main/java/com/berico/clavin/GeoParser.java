@@ -3,12 +3,26 @@ package com.berico.clavin;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.queryparser.classic.ParseException;
 
 import com.berico.clavin.extractor.ApacheExtractor;
 import com.berico.clavin.extractor.LocationExtractor;
+import com.berico.clavin.metrics.GeoParserMetrics;
+import com.berico.clavin.metrics.GeoParserMetrics.Counter;
+import com.berico.clavin.metrics.HistogramMetrics;
+import com.berico.clavin.resolver.IndexWarmer;
 import com.berico.clavin.resolver.LocationResolver;
 import com.berico.clavin.resolver.ResolvedLocation;
 
@@ -47,6 +61,10 @@ import com.berico.clavin.resolver.ResolvedLocation;
  * 
  * Main API entry point for CLAVIN -- simply instantiate this class and
  * call the {@link GeoParser#parse} method on your text string.
+ * 
+ * Once built, a {@link GeoParser} using the default
+ * {@link ApacheExtractor} may be shared by many threads, so there's no
+ * need to build (and load the NER models for) one per thread.
  *
  */
 public class GeoParser {
@@ -59,12 +77,27 @@ public class GeoParser {
 	// resolver to match location names against gazetteer records
 	private LocationResolver resolver;
 	
-	// location of Lucene index built from gazetteer
-	private String pathToLuceneIndex = "./IndexDirectory";
+	// default location of Lucene index built from gazetteer
+	public static final String DEFAULT_INDEX_PATH = "./IndexDirectory";
 	
 	// switch controlling use of fuzzy matching
 	private final boolean fuzzy;
 	
+	// reasonable default for the number of documents parseAsync() may
+	// have on the go at once
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+	
+	// threads running the extraction & resolution stages of
+	// parseAsync() (created on first use, unless supplied)
+	private Executor extractionExecutor;
+	private Executor resolutionExecutor;
+	
+	// permits for documents in progress in parseAsync()
+	private volatile Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+	
+	// where latencies & counts for each stage are recorded
+	private volatile GeoParserMetrics metrics;
+	
 	/**
 	 * Default constructor for {@link GeoParser}.
 	 * 
@@ -103,7 +136,8 @@ public class GeoParser {
 	 * {@link LocationExtractor}.
 	 * 
 	 * Instantiates a {@link LocationResolver} with the specified
-	 * options.
+	 * options, using the Lucene index in
+	 * {@link GeoParser#DEFAULT_INDEX_PATH}.
 	 * 
 	 * Use this constructor directly if you want to plug-in a different
 	 * entity extractor (one that implements the
@@ -118,13 +152,49 @@ public class GeoParser {
 	 * @throws IOException 
 	 */
 	public GeoParser(LocationExtractor extractor, int maxHitDepth, int maxContextWindow, boolean fuzzy) throws IOException, ParseException {
+		// instantiate resolver with given parameters
+		this(extractor, new LocationResolver(new File(DEFAULT_INDEX_PATH), maxHitDepth, maxContextWindow), fuzzy);
+	}
+	
+	/**
+	 * Builds a {@link GeoParser} from an existing
+	 * {@link LocationExtractor} and {@link LocationResolver}.
+	 * 
+	 * Use this constructor directly to load the Lucene index from
+	 * somewhere other than {@link GeoParser#DEFAULT_INDEX_PATH}, or to
+	 * choose how it's loaded (see
+	 * {@link com.berico.clavin.index.DirectoryStrategy}).
+	 * 
+	 * Metrics already attached to the resolver or extractor (e.g., by
+	 * another {@link GeoParser} sharing them) are left in place and
+	 * reported by this one too; otherwise a new
+	 * {@link HistogramMetrics} is attached.
+	 * 
+	 * @param extractor			existing {@link LocationExtractor}
+	 * @param resolver			existing {@link LocationResolver}
+	 * @param fuzzy				switch controlling use of fuzzy matching
+	 */
+	public GeoParser(LocationExtractor extractor, LocationResolver resolver, boolean fuzzy) {
 		logger.debug("Initializing GeoParser; please wait...");
 		
 		this.extractor = extractor;
+		this.resolver = resolver;
 		this.fuzzy = fuzzy;
 		
-		// instantiate resolver with given parameters
-		resolver = new LocationResolver(new File(pathToLuceneIndex), maxHitDepth, maxContextWindow);
+		// adopt whatever metrics are already attached, rather than
+		// taking them over from someone else; otherwise keep metrics
+		// by default, they're cheap enough
+		GeoParserMetrics extractorMetrics = (extractor instanceof ApacheExtractor)
+				? ((ApacheExtractor)extractor).getMetrics() : GeoParserMetrics.NONE;
+		metrics = resolver.getMetrics();
+		if (metrics == GeoParserMetrics.NONE)
+			metrics = extractorMetrics;
+		if (metrics == GeoParserMetrics.NONE)
+			metrics = new HistogramMetrics();
+		if (resolver.getMetrics() == GeoParserMetrics.NONE)
+			resolver.setMetrics(metrics);
+		if (extractor instanceof ApacheExtractor && extractorMetrics == GeoParserMetrics.NONE)
+			((ApacheExtractor)extractor).setMetrics(metrics);
 		
 		logger.debug("GeoParser intialization complete; ready for action!");
 	}
@@ -143,6 +213,7 @@ public class GeoParser {
 	public List<ResolvedLocation> parse(String inputText) throws IOException, ParseException {
 		// first, extract location names from the text
 		List<String> locationNames = extractor.extractLocationNames(inputText);
+		metrics.increment(Counter.NAMES_EXTRACTED, locationNames.size());
 		
 		// then, resolve the extracted location names against a
 		// gazetteer to produce geographic entities representing the
@@ -154,4 +225,199 @@ public class GeoParser {
 		return resolvedLocations;
 	}
 	
+	/**
+	 * Geoparses a document in the background, returning right away
+	 * with a {@link Future} for the results.
+	 * 
+	 * Extraction and resolution run as separate stages, on the
+	 * executors given to {@link GeoParser#setAsyncExecutors} (or on
+	 * default thread pools with a thread per core). At most
+	 * {@link GeoParser#setMaxInFlight} documents may be in progress at
+	 * once; beyond that, this method blocks until one of them is done,
+	 * so a slow index pushes back on the caller rather than letting
+	 * work pile up.
+	 * 
+	 * Any problem extracting or resolving location names is reported
+	 * by the {@link Future}, wrapped in an ExecutionException.
+	 * 
+	 * @param inputText		unstructured text to be processed
+	 * @return				pending list of geo entities resolved from text
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	public Future<List<ResolvedLocation>> parseAsync(final String inputText) throws InterruptedException {
+		// wait our turn
+		final Semaphore permits = inFlight;
+		permits.acquire();
+		
+		// location names found by the extraction stage...
+		final AtomicReference<List<String>> locationNames = new AtomicReference<List<String>>();
+		
+		// ...to be resolved by the second stage, once they're ready
+		final ParseTask resolution = new ParseTask(new Callable<List<ResolvedLocation>>() {
+			public List<ResolvedLocation> call() throws IOException, ParseException {
+				// resolve the extracted location names against a
+				// gazetteer to produce geographic entities representing
+				// the locations mentioned in the original text
+				return resolver.resolveLocations(locationNames.get(), fuzzy);
+			}
+		}, permits);
+		
+		try {
+			getExtractionExecutor().execute(new Runnable() {
+				public void run() {
+					// nobody's waiting for the results anymore
+					if (resolution.isCancelled())
+						return;
+					try {
+						// first, extract location names from the text
+						List<String> names = extractor.extractLocationNames(inputText);
+						metrics.increment(Counter.NAMES_EXTRACTED, names.size());
+						locationNames.set(names);
+						getResolutionExecutor().execute(resolution);
+					} catch (Throwable t) {
+						resolution.fail(t);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// couldn't even get started (e.g., executor shut down)
+			permits.release();
+			throw e;
+		}
+		
+		return resolution;
+	}
+	
+	/**
+	 * Sets the threads used for the extraction and resolution stages
+	 * of {@link GeoParser#parseAsync}. They may be the same, and may be
+	 * shared with other work; they aren't shut down by the
+	 * {@link GeoParser}.
+	 * 
+	 * Since several documents may be processed at once, the
+	 * {@link LocationExtractor} in use must be thread-safe (as the
+	 * {@link ApacheExtractor} is).
+	 * 
+	 * @param extractionExecutor	runs the extraction of location names
+	 * @param resolutionExecutor	runs the resolution of extracted names
+	 */
+	public synchronized void setAsyncExecutors(Executor extractionExecutor, Executor resolutionExecutor) {
+		if (extractionExecutor == null || resolutionExecutor == null)
+			throw new IllegalArgumentException("executors must not be null");
+		this.extractionExecutor = extractionExecutor;
+		this.resolutionExecutor = resolutionExecutor;
+	}
+	
+	/**
+	 * Sets how many documents {@link GeoParser#parseAsync} may have in
+	 * progress at once. Documents already in progress aren't affected.
+	 * 
+	 * @param maxInFlight	max number of documents in progress
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight must be greater than zero");
+		inFlight = new Semaphore(maxInFlight);
+	}
+	
+	/**
+	 * Sets where the latencies of each stage of geoparsing (tokenizing,
+	 * NER, searching the index, loading & decoding matches, and picking
+	 * the best ones) are recorded, along with counts of names extracted,
+	 * fuzzy fallbacks, unmatched names and combinations evaluated.
+	 * 
+	 * By default, they're kept wherever the resolver's already are, or
+	 * else in a new {@link HistogramMetrics}. Stage
+	 * latencies for extraction are only recorded by the
+	 * {@link ApacheExtractor}; other extractors are left alone.
+	 * 
+	 * @param metrics	metrics to record to, or null to stop recording
+	 */
+	public void setMetrics(GeoParserMetrics metrics) {
+		if (metrics == null)
+			metrics = GeoParserMetrics.NONE;
+		this.metrics = metrics;
+		resolver.setMetrics(metrics);
+		if (extractor instanceof ApacheExtractor)
+			((ApacheExtractor)extractor).setMetrics(metrics);
+	}
+	
+	/**
+	 * Gets where the latencies & counts for each stage of geoparsing
+	 * are recorded, e.g., to report on them.
+	 * 
+	 * @return	metrics recorded to
+	 */
+	public GeoParserMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Builds an {@link IndexWarmer} for this parser's resolver, looking
+	 * up names with the same fuzzy matching setting, to warm it up
+	 * before it takes real traffic.
+	 * 
+	 * @return	warmer for this parser's resolver
+	 */
+	public IndexWarmer createIndexWarmer() {
+		IndexWarmer warmer = new IndexWarmer(resolver);
+		warmer.setFuzzy(fuzzy);
+		return warmer;
+	}
+	
+	private synchronized Executor getExtractionExecutor() {
+		if (extractionExecutor == null)
+			extractionExecutor = newDefaultExecutor("clavin-extraction");
+		return extractionExecutor;
+	}
+	
+	private synchronized Executor getResolutionExecutor() {
+		if (resolutionExecutor == null)
+			resolutionExecutor = newDefaultExecutor("clavin-resolution");
+		return resolutionExecutor;
+	}
+	
+	/**
+	 * Builds a thread pool with a thread per core. The threads are
+	 * daemons, so they won't keep the JVM running once we're done.
+	 * 
+	 * @param name		prefix for the thread names
+	 * @return			new thread pool
+	 */
+	private static ExecutorService newDefaultExecutor(final String name) {
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger();
+			
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Resolution stage of {@link GeoParser#parseAsync}, doubling as the
+	 * {@link Future} handed back to the caller. Gives back its in-flight
+	 * permit once it's done, one way or another.
+	 */
+	private static class ParseTask extends FutureTask<List<ResolvedLocation>> {
+		
+		private final Semaphore permits;
+		
+		ParseTask(Callable<List<ResolvedLocation>> resolution, Semaphore permits) {
+			super(resolution);
+			this.permits = permits;
+		}
+		
+		// for failures in the extraction stage
+		void fail(Throwable t) {
+			setException(t);
+		}
+		
+		@Override
+		protected void done() {
+			permits.release();
+		}
+	}
 }
@@ -1,6 +1,9 @@
 package com.berico.clavin.extractor;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,6 +13,9 @@ import opennlp.tools.tokenize.TokenizerME;
 import opennlp.tools.tokenize.TokenizerModel;
 import opennlp.tools.util.Span;
 
+import com.berico.clavin.metrics.GeoParserMetrics;
+import com.berico.clavin.metrics.GeoParserMetrics.Stage;
+
 /*#####################################################################
  * 
  * CLAVIN (Cartographic Location And Vicinity INdexer)
@@ -41,29 +47,161 @@ import opennlp.tools.util.Span;
 /**
  * Extracts location names from unstructured text documents using a
  * named entity recognizer (Apache OpenNLP Name Finder).
- *
+ * 
+ * The OpenNLP models are loaded just once and shared, but the Name
+ * Finder and Tokenizer themselves aren't thread-safe, so each thread
+ * gets its own. A single {@link ApacheExtractor} may therefore be used
+ * by many threads at once.
+ * 
  */
 public class ApacheExtractor implements LocationExtractor {
     
-	// the actual named entity recognizer (NER) object
-	private NameFinderME nameFinder;
-	
-	// used to tokenize plain text into the OpenNLP format
-	private TokenizerME tokenizer;
-	
 	// resource files used by Apache OpenNLP Name Finder
 	private static final String pathToNERModel = "/en-ner-location.bin";
 	private static final String pathToTokenizerModel = "/en-token.bin";
 	
+	// default models, loaded on first use and shared by every
+	// ApacheExtractor (they're big, and read-only once loaded)
+	private static TokenNameFinderModel defaultNERModel;
+	private static TokenizerModel defaultTokenizerModel;
+	
+	// models for the named entity recognizer (NER) & tokenizer
+	private final TokenNameFinderModel nerModel;
+	private final TokenizerModel tokenizerModel;
+	
+	// the actual named entity recognizer (NER) objects, one per thread
+	private final ThreadLocal<NameFinderME> nameFinders = new ThreadLocal<NameFinderME>() {
+		@Override
+		protected NameFinderME initialValue() {
+			return new NameFinderME(nerModel);
+		}
+	};
+	
+	// default number of chars of text tagged at once
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+	
+	// number of tokens at the end of each window that are held back
+	// and tagged again at the start of the next one, so that names
+	// spanning the window boundary are seen whole and in context
+	private static final int overlapTokens = 32;
+	
+	// number of chars of text tagged at once
+	private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+	
+	// where tokenizer & Name Finder latencies are recorded
+	private volatile GeoParserMetrics metrics = GeoParserMetrics.NONE;
+	
+	// used to tokenize plain text into the OpenNLP format, one per thread
+	private final ThreadLocal<TokenizerME> tokenizers = new ThreadLocal<TokenizerME>() {
+		@Override
+		protected TokenizerME initialValue() {
+			return new TokenizerME(tokenizerModel);
+		}
+	};
+	
 	/**
-	 * Builds an {@link ApacheExtractor} by instantiating the OpenNLP
-	 * Name Finder and Tokenizer.
+	 * Builds an {@link ApacheExtractor} using the default OpenNLP Name
+	 * Finder and Tokenizer models, loading them if no other instance
+	 * has done so yet.
 	 * 
 	 * @throws IOException 
 	 */
 	public ApacheExtractor() throws IOException {
-		nameFinder = new NameFinderME(new TokenNameFinderModel(ApacheExtractor.class.getResourceAsStream(pathToNERModel)));
-		tokenizer = new TokenizerME(new TokenizerModel(ApacheExtractor.class.getResourceAsStream(pathToTokenizerModel)));
+		this(getDefaultNERModel(), getDefaultTokenizerModel());
+	}
+	
+	/**
+	 * Builds an {@link ApacheExtractor} using already-loaded OpenNLP
+	 * Name Finder and Tokenizer models.
+	 * 
+	 * @param nerModel			model for the named entity recognizer
+	 * @param tokenizerModel	model for the tokenizer
+	 */
+	public ApacheExtractor(TokenNameFinderModel nerModel, TokenizerModel tokenizerModel) {
+		this.nerModel = nerModel;
+		this.tokenizerModel = tokenizerModel;
+	}
+	
+	/**
+	 * Loads the default Name Finder model, unless it's already loaded.
+	 * 
+	 * @return	model for the named entity recognizer
+	 * @throws IOException
+	 */
+	private static synchronized TokenNameFinderModel getDefaultNERModel() throws IOException {
+		if (defaultNERModel == null) {
+			InputStream in = ApacheExtractor.class.getResourceAsStream(pathToNERModel);
+			try {
+				defaultNERModel = new TokenNameFinderModel(in);
+			} finally {
+				if (in != null)
+					in.close();
+			}
+		}
+		return defaultNERModel;
+	}
+	
+	/**
+	 * Loads the default Tokenizer model, unless it's already loaded.
+	 * 
+	 * @return	model for the tokenizer
+	 * @throws IOException
+	 */
+	private static synchronized TokenizerModel getDefaultTokenizerModel() throws IOException {
+		if (defaultTokenizerModel == null) {
+			InputStream in = ApacheExtractor.class.getResourceAsStream(pathToTokenizerModel);
+			try {
+				defaultTokenizerModel = new TokenizerModel(in);
+			} finally {
+				if (in != null)
+					in.close();
+			}
+		}
+		return defaultTokenizerModel;
+	}
+	
+	/**
+	 * Sets the number of chars of text the Name Finder is run over at
+	 * once. Larger documents are tagged one window at a time, so the
+	 * memory needed is proportional to the window size rather than to
+	 * the size of the document.
+	 * 
+	 * @param windowSize	number of chars per window
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize < 1)
+			throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+		this.windowSize = windowSize;
+	}
+	
+	/**
+	 * Gets the number of chars of text the Name Finder is run over at
+	 * once.
+	 * 
+	 * @return	number of chars per window
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+	
+	/**
+	 * Sets where the time spent tokenizing text and finding names in
+	 * it is recorded.
+	 * 
+	 * @param metrics	metrics to record to, or null to stop recording
+	 */
+	public void setMetrics(GeoParserMetrics metrics) {
+		this.metrics = (metrics == null) ? GeoParserMetrics.NONE : metrics;
+	}
+	
+	/**
+	 * Gets where the time spent tokenizing text and finding names in
+	 * it is recorded.
+	 * 
+	 * @return	metrics recorded to
+	 */
+	public GeoParserMetrics getMetrics() {
+		return metrics;
 	}
 	
 	/**
@@ -71,34 +209,260 @@ public class ApacheExtractor implements LocationExtractor {
 	 * entity recognizer (NER) feature provided by the Apache OpenNLP
 	 * Name Finder.
 	 * 
+	 * Text longer than the window size is tagged in chunks, as with
+	 * {@link #extractLocationNames(Reader)}.
+	 * 
 	 * @param plainText		Contents of text document
 	 * @return				List of location name Strings
 	 */
 	public List<String> extractLocationNames(String plainText) {
-		// tokenize the text into the required OpenNLP format
-		String[] tokens = tokenizer.tokenize(plainText);
+		return namesOf(extractLocationOccurrences(plainText));
+	}
+	
+	/**
+	 * Extracts location names from unstructured text read from the
+	 * given {@link Reader}, without holding the whole document in
+	 * memory.
+	 * 
+	 * See {@link #extractLocationOccurrences(Reader)}.
+	 * 
+	 * @param reader		source of the text document
+	 * @return				List of location name Strings
+	 * @throws IOException	if the text can't be read
+	 */
+	public List<String> extractLocationNames(Reader reader) throws IOException {
+		return namesOf(extractLocationOccurrences(reader));
+	}
+	
+	/**
+	 * Extracts every mention of a location name from unstructured text,
+	 * along with its char offsets and token indexes in the text.
+	 * 
+	 * @param plainText		Contents of text document
+	 * @return				mentions of location names, in the order they appear
+	 */
+	public List<LocationOccurrence> extractLocationOccurrences(String plainText) {
+		// most documents fit in a single window, so tag them as they
+		// are, rather than copying them through a window buffer
+		if (plainText.length() <= windowSize)
+			return extractFromWholeText(plainText);
 		
-		// find the location names in the tokenized text
-		Span nameSpans[] = nameFinder.find(tokens);
+		try {
+			return extractLocationOccurrences(new StringReader(plainText));
+		} catch (IOException e) {
+			// can't happen, StringReader doesn't do any I/O
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Extracts every mention of a location name from unstructured text
+	 * read from the given {@link Reader}, without holding the whole
+	 * document in memory.
+	 * 
+	 * The text is tagged one window at a time. The last few tokens of
+	 * each window are only used as context: they're tagged again at
+	 * the start of the next window, as is any name that runs up to the
+	 * end of a window, so names straddling a window boundary are still
+	 * found whole. Documents that fit in a single window give exactly
+	 * the same results as tagging the whole text at once.
+	 * 
+	 * Offsets and token indexes are relative to the start of the whole
+	 * text, not of the window it was found in. The reader is not closed.
+	 * 
+	 * @param reader		source of the text document
+	 * @return				mentions of location names, in the order they appear
+	 * @throws IOException	if the text can't be read
+	 */
+	public List<LocationOccurrence> extractLocationOccurrences(Reader reader) throws IOException {
+		// this thread's own NER & tokenizer
+		NameFinderME nameFinder = nameFinders.get();
+		TokenizerME tokenizer = tokenizers.get();
+		GeoParserMetrics metrics = this.metrics;
 		
 		// create the return object
-		List<String> nerResults = new ArrayList<String>();
+		List<LocationOccurrence> occurrences = new ArrayList<LocationOccurrence>();
 		
-		// extract the location names found in the text and add them to
-		// the return object
-		for (Span span : nameSpans) {
-			String locationName = "";
-			for (int i = span.getStart(); i < span.getEnd(); i++)
-				locationName = locationName + tokens[i] + " ";
-			locationName = locationName.trim();
-			nerResults.add(locationName);
+		char[] window = new char[windowSize];
+		int length = 0;
+		boolean endOfText = false;
+		
+		// position of the current window in the whole text
+		int windowOffset = 0;
+		int windowToken = 0;
+		
+		try {
+			while (!endOfText) {
+				// top up the window, after whatever was carried over
+				while (length < window.length) {
+					int read = reader.read(window, length, window.length - length);
+					if (read < 0) {
+						endOfText = true;
+						break;
+					}
+					length += read;
+				}
+				
+				String text = new String(window, 0, length);
+				
+				// tokenize the text into the required OpenNLP format
+				long started = System.nanoTime();
+				Span[] tokenSpans = tokenizer.tokenizePos(text);
+				String[] tokens = Span.spansToStrings(tokenSpans, text);
+				long tokenized = System.nanoTime();
+				metrics.recordLatency(Stage.TOKENIZE, tokenized - started);
+				
+				// find the location names in the tokenized text
+				Span[] nameSpans = nameFinder.find(tokens);
+				metrics.recordLatency(Stage.NER, System.nanoTime() - tokenized);
+				
+				// tokens before this one belong to this window, the rest
+				// are tagged again as part of the next one
+				int commit = tokens.length;
+				if (!endOfText) {
+					commit = Math.max(tokens.length - overlapTokens, 1);
+					
+					// the last token may be cut short by the end of the
+					// window, so any name reaching it waits for the next
+					// window too
+					for (Span span : nameSpans) {
+						if (span.getStart() < commit && span.getEnd() >= tokens.length) {
+							commit = span.getStart();
+							break;
+						}
+					}
+					
+					// the carried over text must leave room to make
+					// progress, otherwise just take the window as is
+					if (commit == 0)
+						commit = tokens.length;
+				}
+				
+				// record the location names found in this window's text
+				addOccurrences(text, tokenSpans, nameSpans, commit, windowOffset, windowToken, occurrences);
+				
+				// carry the held back text over to the next window
+				int carryFrom = (commit < tokens.length) ? tokenSpans[commit].getStart() : length;
+				length -= carryFrom;
+				System.arraycopy(window, carryFrom, window, 0, length);
+				windowOffset += carryFrom;
+				windowToken += Math.min(commit, tokens.length);
+			}
+		} finally {
+			// this is necessary to maintain consistent results across
+			// multiple runs on the same data, which is what we want
+			nameFinder.clearAdaptiveData();
 		}
 		
-		// this is necessary to maintain consistent results across
-		// multiple runs on the same data, which is what we want
-		nameFinder.clearAdaptiveData();
+		return occurrences;
+	}
+	
+	/**
+	 * Tags a text that fits in a single window all at once, straight
+	 * from the String.
+	 * 
+	 * @param text		Contents of text document
+	 * @return			mentions of location names, in the order they appear
+	 */
+	private List<LocationOccurrence> extractFromWholeText(String text) {
+		// this thread's own NER & tokenizer
+		NameFinderME nameFinder = nameFinders.get();
+		TokenizerME tokenizer = tokenizers.get();
+		GeoParserMetrics metrics = this.metrics;
+		
+		try {
+			// tokenize the text into the required OpenNLP format
+			long started = System.nanoTime();
+			Span[] tokenSpans = tokenizer.tokenizePos(text);
+			String[] tokens = Span.spansToStrings(tokenSpans, text);
+			long tokenized = System.nanoTime();
+			metrics.recordLatency(Stage.TOKENIZE, tokenized - started);
+			
+			// find the location names in the tokenized text
+			Span[] nameSpans = nameFinder.find(tokens);
+			metrics.recordLatency(Stage.NER, System.nanoTime() - tokenized);
+			
+			List<LocationOccurrence> occurrences = new ArrayList<LocationOccurrence>(nameSpans.length);
+			addOccurrences(text, tokenSpans, nameSpans, tokens.length, 0, 0, occurrences);
+			return occurrences;
+		} finally {
+			// this is necessary to maintain consistent results across
+			// multiple runs on the same data, which is what we want
+			nameFinder.clearAdaptiveData();
+		}
+	}
+	
+	/**
+	 * Records the location names found in a window of text, up to the
+	 * given token.
+	 * 
+	 * @param text			text of the window
+	 * @param tokenSpans	positions of the tokens in the window
+	 * @param nameSpans		tokens making up each name found
+	 * @param commit		index of the first token left for the next window
+	 * @param windowOffset	offset of the window in the whole text
+	 * @param windowToken	index of the window's first token in the whole text
+	 * @param occurrences	where the mentions of location names go
+	 */
+	private static void addOccurrences(String text, Span[] tokenSpans, Span[] nameSpans, int commit,
+			int windowOffset, int windowToken, List<LocationOccurrence> occurrences) {
+		for (Span span : nameSpans) {
+			if (span.getStart() >= commit)
+				break;
+			int start = tokenSpans[span.getStart()].getStart();
+			int end = tokenSpans[span.getEnd() - 1].getEnd();
+			occurrences.add(new LocationOccurrence(joinTokens(text, tokenSpans, span, start, end),
+					windowOffset + start, windowOffset + end,
+					windowToken + span.getStart(), windowToken + span.getEnd()));
+		}
+	}
+	
+	/**
+	 * Gets the name covered by a span of tokens, with its tokens
+	 * separated by single spaces.
+	 * 
+	 * Names are usually written that way already, in which case the
+	 * text is used as is.
+	 * 
+	 * @param text			text the tokens were found in
+	 * @param tokenSpans	positions of the tokens in the text
+	 * @param nameSpan		tokens making up the name
+	 * @param start			offset of the name's first char
+	 * @param end			offset just past the name's last char
+	 * @return				the name
+	 */
+	private static String joinTokens(String text, Span[] tokenSpans, Span nameSpan, int start, int end) {
+		boolean singleSpaced = true;
+		for (int i = nameSpan.getStart() + 1; i < nameSpan.getEnd(); i++) {
+			int gapStart = tokenSpans[i - 1].getEnd();
+			if (tokenSpans[i].getStart() != gapStart + 1 || text.charAt(gapStart) != ' ') {
+				singleSpaced = false;
+				break;
+			}
+		}
+		if (singleSpaced)
+			return text.substring(start, end);
 		
-		return nerResults;
+		StringBuilder name = new StringBuilder(end - start);
+		for (int i = nameSpan.getStart(); i < nameSpan.getEnd(); i++) {
+			if (i > nameSpan.getStart())
+				name.append(' ');
+			name.append(text, tokenSpans[i].getStart(), tokenSpans[i].getEnd());
+		}
+		return name.toString();
+	}
+	
+	/**
+	 * Gets the location names of a list of mentions.
+	 * 
+	 * @param occurrences	mentions of location names
+	 * @return				List of location name Strings
+	 */
+	private static List<String> namesOf(List<LocationOccurrence> occurrences) {
+		List<String> names = new ArrayList<String>(occurrences.size());
+		for (LocationOccurrence occurrence : occurrences)
+			names.add(occurrence.name);
+		return names;
 	}
 
 }
@@ -0,0 +1,106 @@
+package com.berico.clavin.extractor;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * LocationOccurrence.java
+ * 
+ *###################################################################*/
+
+/**
+ * A single mention of a location name in a text document, as found by
+ * an {@link ApacheExtractor}.
+ * 
+ * Along with the name itself, records where the mention was found,
+ * both as char offsets into the text and as token indexes, so that
+ * repeated mentions of a name can be told apart.
+ * 
+ */
+public class LocationOccurrence {
+	
+	// location name, with its tokens separated by single spaces
+	public final String name;
+	
+	// offset of the first char of the mention in the text
+	public final int startOffset;
+	
+	// offset just past the last char of the mention in the text
+	public final int endOffset;
+	
+	// index of the first token of the mention
+	public final int startToken;
+	
+	// index just past the last token of the mention
+	public final int endToken;
+	
+	/**
+	 * Sole constructor for {@link LocationOccurrence} class.
+	 * 
+	 * @param name			location name
+	 * @param startOffset	offset of the first char of the mention
+	 * @param endOffset		offset just past the last char of the mention
+	 * @param startToken	index of the first token of the mention
+	 * @param endToken		index just past the last token of the mention
+	 */
+	public LocationOccurrence(String name, int startOffset, int endOffset, int startToken, int endToken) {
+		this.name = name;
+		this.startOffset = startOffset;
+		this.endOffset = endOffset;
+		this.startToken = startToken;
+		this.endToken = endToken;
+	}
+	
+	/**
+	 * Tests equivalence between {@link LocationOccurrence} objects.
+	 * 
+	 * @param obj	the other object being compared against
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (obj == null) return false;
+		
+		// only a LocationOccurrence can equal a LocationOccurrence
+		if (this.getClass() != obj.getClass()) return false;
+		
+		LocationOccurrence other = (LocationOccurrence)obj;
+		return name.equals(other.name)
+				&& startOffset == other.startOffset && endOffset == other.endOffset
+				&& startToken == other.startToken && endToken == other.endToken;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * name.hashCode() + startOffset;
+	}
+	
+	/**
+	 * For pretty-printing.
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return name + " [" + startOffset + ", " + endOffset + ")";
+	}
+}
@@ -1,9 +1,5 @@
 package com.berico.clavin.gazetteer;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
@@ -118,6 +114,14 @@ public class GeoName {
 	// longitude, population, elevation, digitalElevationModel)
 	public static final int OUT_OF_BOUNDS = -9999999;
 	
+	// parsers hold scratch buffers, so each thread gets its own
+	private static final ThreadLocal<GeoNamesRecordParser> parsers = new ThreadLocal<GeoNamesRecordParser>() {
+		@Override
+		protected GeoNamesRecordParser initialValue() {
+			return new GeoNamesRecordParser();
+		}
+	};
+	
 	/**
 	 * Sole constructor for {@link GeoName} class.
 	 * 
@@ -188,117 +192,13 @@ public class GeoName {
 	 * Builds a {@link GeoName} object based on a single gazetteer
 	 * record in the GeoNames geographical database.
 	 * 
+	 * Uses a {@link GeoNamesRecordParser} kept for the calling thread.
+	 * 
 	 * @param inputLine		single line of tab-delimited text representing one record from the GeoNames gazetteer
 	 * @return				new GeoName object
 	 */
 	public static GeoName parseFromGeoNamesRecord(String inputLine) {
-		
-		// GeoNames gazetteer entries are tab-delimited
-		String[] tokens = inputLine.split("\t");
-		
-		// initialize each field with the corresponding token
-		int geonameID = Integer.parseInt(tokens[0]);
-		String name = tokens[1];
-		String asciiName = tokens[2];
-		
-		List<String> alternateNames;
-		if (tokens[3].length() > 0) {
-			// better to pass empty array than array containing empty String ""
-			alternateNames = Arrays.asList(tokens[3].split(","));
-		} else alternateNames = new ArrayList<String>();
-		
-		double latitude;
-		try {
-			latitude = Double.parseDouble(tokens[4]);
-		} catch (NumberFormatException e) {
-			latitude = OUT_OF_BOUNDS;
-		}
-		
-		double longitude;
-		try {
-			longitude = Double.parseDouble(tokens[5]);
-		} catch (NumberFormatException e) {
-			longitude = OUT_OF_BOUNDS;
-		}
-		
-		FeatureClass featureClass;
-		if (tokens[6].length() > 0) {
-			featureClass = FeatureClass.valueOf(tokens[6]);
-		} else featureClass = FeatureClass.NULL; // not available
-		
-		FeatureCode featureCode;
-		if (tokens[7].length() > 0) {
-			featureCode = FeatureCode.valueOf(tokens[7]);
-		} else featureCode = FeatureCode.NULL; // not available
-		
-		CountryCode primaryCountryCode;
-		if (tokens[8].length() > 0) {
-			primaryCountryCode = CountryCode.valueOf(tokens[8]);
-		} else primaryCountryCode = CountryCode.NULL; // No Man's Land
-		
-		List<CountryCode> alternateCountryCodes = new ArrayList<CountryCode>();
-		if (tokens[9].length() > 0) {
-			// don't pass list only containing empty String ""
-			for (String code : tokens[9].split(",")) {
-				if (code.length() > 0) // check for malformed data
-					alternateCountryCodes.add(CountryCode.valueOf(code));
-			}
-		}
-		
-		String admin1Code = tokens[10];
-		String admin2Code = tokens[11];
-		
-		String admin3Code;
-		String admin4Code;
-		long population;
-		int elevation;
-		int digitalElevationModel;
-		TimeZone timezone;
-		Date modificationDate;
-		
-		// check for dirty data...
-		if (tokens.length < 19) {
-			// GeoNames record format is corrupted, don't trust any
-			// data after this point
-			admin3Code = "";
-			admin4Code = "";
-			population = OUT_OF_BOUNDS;
-			elevation = OUT_OF_BOUNDS;
-			digitalElevationModel = OUT_OF_BOUNDS;
-			timezone = null;
-			modificationDate = new Date(0);
-		} else { // everything looks ok, soldiering on...
-			admin3Code = tokens[12];
-			admin4Code = tokens[13];
-			try {
-				population = Long.parseLong(tokens[14]);
-			} catch (NumberFormatException e) {
-				population = OUT_OF_BOUNDS;
-			}
-			try {
-				elevation = Integer.parseInt(tokens[15]);
-			} catch (NumberFormatException e) {
-				elevation = OUT_OF_BOUNDS;
-			}
-			try {
-				digitalElevationModel = Integer.parseInt(tokens[16]);
-			} catch (NumberFormatException e) {
-				digitalElevationModel = OUT_OF_BOUNDS;
-			}
-			timezone = TimeZone.getTimeZone(tokens[17]);
-			try {
-				modificationDate = new SimpleDateFormat("yyyy-MM-dd").parse(tokens[18]);
-			} catch (ParseException e) {
-				modificationDate = new Date(0);
-			}
-		}
-		
-		return new GeoName(geonameID, name, asciiName, alternateNames,
-				latitude, longitude, featureClass, featureCode,
-				primaryCountryCode, alternateCountryCodes, admin1Code,
-				admin2Code, admin3Code, admin4Code, population,
-				elevation, digitalElevationModel, timezone,
-				modificationDate);
+		return parsers.get().parse(inputLine);
 	}
 	
 	/**
@@ -0,0 +1,325 @@
+package com.berico.clavin.gazetteer;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoNameSerializer.java
+ * 
+ *###################################################################*/
+
+/**
+ * Compact binary encoding of {@link GeoName} objects, used as the
+ * payload stored in the Lucene index.
+ * 
+ * Compared to storing the raw GeoNames gazetteer record, this skips
+ * the (often huge) list of alternate names unless asked for, and can
+ * be decoded without any String splitting, number parsing or date
+ * formatting.
+ * 
+ * Integers are written as variable-length quantities (zig-zag encoded
+ * where they may be negative), enums as their ordinals, lat/lon as
+ * fixed-width doubles, and Strings as a length followed by UTF-8
+ * bytes. Since enums are stored by ordinal, an index must be rebuilt
+ * whenever {@link FeatureClass}, {@link FeatureCode} or
+ * {@link CountryCode} change.
+ * 
+ */
+public class GeoNameSerializer {
+	
+	// bumped whenever the layout below changes
+	public static final byte FORMAT_VERSION = 1;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// enum values by ordinal, so we don't copy values() per record
+	private static final FeatureClass[] featureClasses = FeatureClass.values();
+	private static final FeatureCode[] featureCodes = FeatureCode.values();
+	private static final CountryCode[] countryCodes = CountryCode.values();
+	
+	// TimeZone.getTimeZone() is synchronized and returns a fresh copy
+	// every time, so look up each id just once
+	private static final ConcurrentMap<String, TimeZone> timezones = new ConcurrentHashMap<String, TimeZone>();
+	
+	/**
+	 * Static methods only; not to be instantiated.
+	 */
+	private GeoNameSerializer() {}
+	
+	/**
+	 * Encodes a {@link GeoName} into its compact binary form.
+	 * 
+	 * @param geoname					the object to be encoded
+	 * @param includeAlternateNames		whether to keep the alternate names
+	 * @return							binary payload
+	 */
+	public static byte[] serialize(GeoName geoname, boolean includeAlternateNames) {
+		Output out = new Output();
+		out.writeByte(FORMAT_VERSION);
+		out.writeVInt(geoname.geonameID);
+		out.writeString(geoname.name);
+		out.writeString(geoname.asciiName);
+		
+		if (includeAlternateNames && geoname.alternateNames != null) {
+			out.writeVInt(geoname.alternateNames.size());
+			for (String alternateName : geoname.alternateNames)
+				out.writeString(alternateName);
+		} else out.writeVInt(0);
+		
+		out.writeLong(Double.doubleToLongBits(geoname.latitude));
+		out.writeLong(Double.doubleToLongBits(geoname.longitude));
+		out.writeVInt(geoname.featureClass.ordinal());
+		out.writeVInt(geoname.featureCode.ordinal());
+		out.writeVInt(geoname.primaryCountryCode.ordinal());
+		
+		out.writeVInt(geoname.alternateCountryCodes.size());
+		for (CountryCode code : geoname.alternateCountryCodes)
+			out.writeVInt(code.ordinal());
+		
+		out.writeString(geoname.admin1Code);
+		out.writeString(geoname.admin2Code);
+		out.writeString(geoname.admin3Code);
+		out.writeString(geoname.admin4Code);
+		out.writeZLong(geoname.population);
+		out.writeZLong(geoname.elevation);
+		out.writeZLong(geoname.digitalElevationModel);
+		out.writeString(geoname.timezone == null ? null : geoname.timezone.getID());
+		out.writeZLong(geoname.modificationDate == null ? 0 : geoname.modificationDate.getTime());
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decodes a {@link GeoName} from its compact binary form.
+	 * 
+	 * @param bytes		buffer holding the binary payload
+	 * @param offset	start of the payload in the buffer
+	 * @param length	length of the payload
+	 * @return			new GeoName object
+	 */
+	public static GeoName deserialize(byte[] bytes, int offset, int length) {
+		Input in = new Input(bytes, offset, length);
+		
+		byte version = in.readByte();
+		if (version != FORMAT_VERSION)
+			throw new IllegalArgumentException("Unsupported GeoName format version: " + version
+					+ " (expected " + FORMAT_VERSION + "); please rebuild the index");
+		
+		int geonameID = in.readVInt();
+		String name = in.readString();
+		String asciiName = in.readString();
+		
+		List<String> alternateNames;
+		int alternateNameCount = in.readVInt();
+		if (alternateNameCount > 0) {
+			String[] names = new String[alternateNameCount];
+			for (int i = 0; i < alternateNameCount; i++)
+				names[i] = in.readString();
+			alternateNames = Arrays.asList(names);
+		} else alternateNames = Collections.emptyList();
+		
+		double latitude = Double.longBitsToDouble(in.readLong());
+		double longitude = Double.longBitsToDouble(in.readLong());
+		FeatureClass featureClass = featureClasses[in.readVInt()];
+		FeatureCode featureCode = featureCodes[in.readVInt()];
+		CountryCode primaryCountryCode = countryCodes[in.readVInt()];
+		
+		int alternateCountryCodeCount = in.readVInt();
+		List<CountryCode> alternateCountryCodes = new ArrayList<CountryCode>(alternateCountryCodeCount);
+		for (int i = 0; i < alternateCountryCodeCount; i++)
+			alternateCountryCodes.add(countryCodes[in.readVInt()]);
+		
+		String admin1Code = in.readString();
+		String admin2Code = in.readString();
+		String admin3Code = in.readString();
+		String admin4Code = in.readString();
+		long population = in.readZLong();
+		int elevation = (int)in.readZLong();
+		int digitalElevationModel = (int)in.readZLong();
+		TimeZone timezone = lookupTimeZone(in.readString());
+		Date modificationDate = new Date(in.readZLong());
+		
+		return new GeoName(geonameID, name, asciiName, alternateNames,
+				latitude, longitude, featureClass, featureCode,
+				primaryCountryCode, alternateCountryCodes, admin1Code,
+				admin2Code, admin3Code, admin4Code, population,
+				elevation, digitalElevationModel, timezone,
+				modificationDate);
+	}
+	
+	/**
+	 * Convenience method for decoding a whole byte array.
+	 * 
+	 * @param bytes		binary payload
+	 * @return			new GeoName object
+	 */
+	public static GeoName deserialize(byte[] bytes) {
+		return deserialize(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Cached equivalent of {@link TimeZone#getTimeZone(String)}.
+	 * 
+	 * @param id	timezone id, e.g., "America/New_York"
+	 * @return		the matching TimeZone, or null if id is null
+	 */
+	static TimeZone lookupTimeZone(String id) {
+		if (id == null)
+			return null;
+		TimeZone timezone = timezones.get(id);
+		if (timezone == null) {
+			timezone = TimeZone.getTimeZone(id);
+			timezones.putIfAbsent(id, timezone);
+		}
+		return timezone;
+	}
+	
+	/**
+	 * Growable byte buffer with variable-length encodings.
+	 */
+	private static class Output {
+		
+		private byte[] buffer = new byte[128];
+		private int length = 0;
+		
+		private void ensureCapacity(int extra) {
+			if (length + extra > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+		}
+		
+		void writeByte(byte b) {
+			ensureCapacity(1);
+			buffer[length++] = b;
+		}
+		
+		void writeVInt(int i) {
+			writeVLong(i & 0xFFFFFFFFL);
+		}
+		
+		void writeVLong(long l) {
+			ensureCapacity(10);
+			while ((l & ~0x7FL) != 0) {
+				buffer[length++] = (byte)((l & 0x7F) | 0x80);
+				l >>>= 7;
+			}
+			buffer[length++] = (byte)l;
+		}
+		
+		// zig-zag encoding keeps small negative numbers small
+		void writeZLong(long l) {
+			writeVLong((l << 1) ^ (l >> 63));
+		}
+		
+		void writeLong(long l) {
+			ensureCapacity(8);
+			for (int shift = 56; shift >= 0; shift -= 8)
+				buffer[length++] = (byte)(l >>> shift);
+		}
+		
+		// length is written off by one, so that zero can mean null
+		void writeString(String s) {
+			if (s == null) {
+				writeVInt(0);
+				return;
+			}
+			byte[] bytes = s.getBytes(UTF8);
+			writeVInt(bytes.length + 1);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+		}
+		
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, length);
+		}
+	}
+	
+	/**
+	 * Reads back what {@link Output} wrote.
+	 */
+	private static class Input {
+		
+		private final byte[] buffer;
+		private final int end;
+		private int position;
+		
+		Input(byte[] buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.position = offset;
+			this.end = offset + length;
+		}
+		
+		byte readByte() {
+			if (position >= end)
+				throw new IllegalArgumentException("Truncated GeoName payload");
+			return buffer[position++];
+		}
+		
+		int readVInt() {
+			return (int)readVLong();
+		}
+		
+		long readVLong() {
+			long value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = readByte();
+				value |= (long)(b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+		}
+		
+		long readZLong() {
+			long l = readVLong();
+			return (l >>> 1) ^ -(l & 1);
+		}
+		
+		long readLong() {
+			long value = 0;
+			for (int i = 0; i < 8; i++)
+				value = (value << 8) | (readByte() & 0xFF);
+			return value;
+		}
+		
+		String readString() {
+			int length = readVInt() - 1;
+			if (length < 0)
+				return null;
+			if (position + length > end)
+				throw new IllegalArgumentException("Truncated GeoName payload");
+			String s = new String(buffer, position, length, UTF8);
+			position += length;
+			return s;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package com.berico.clavin.gazetteer;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoNamesRecordParser.java
+ * 
+ *###################################################################*/
+
+/**
+ * Reusable parser for records in the GeoNames gazetteer, building the
+ * same {@link GeoName} objects as
+ * {@link GeoName#parseFromGeoNamesRecord(String)} used to, only a good
+ * deal faster.
+ * 
+ * Rather than splitting each record into an array of Strings, fields
+ * are scanned in place and parsed straight from the characters of the
+ * record. Numbers, enums and dates are decoded without creating any
+ * intermediate objects, and TimeZones are looked up just once per id.
+ * The only objects created are those making up the GeoName itself.
+ * 
+ * Parsers hold scratch buffers, and so are <b>not</b> thread-safe;
+ * give each thread its own.
+ * 
+ */
+public class GeoNamesRecordParser {
+	
+	// columns in a GeoNames gazetteer record
+	private static final int GEONAME_ID = 0;
+	private static final int NAME = 1;
+	private static final int ASCII_NAME = 2;
+	private static final int ALTERNATE_NAMES = 3;
+	private static final int LATITUDE = 4;
+	private static final int LONGITUDE = 5;
+	private static final int FEATURE_CLASS = 6;
+	private static final int FEATURE_CODE = 7;
+	private static final int PRIMARY_COUNTRY_CODE = 8;
+	private static final int ALTERNATE_COUNTRY_CODES = 9;
+	private static final int ADMIN1_CODE = 10;
+	private static final int ADMIN2_CODE = 11;
+	private static final int ADMIN3_CODE = 12;
+	private static final int ADMIN4_CODE = 13;
+	private static final int POPULATION = 14;
+	private static final int ELEVATION = 15;
+	private static final int DIGITAL_ELEVATION_MODEL = 16;
+	private static final int TIMEZONE = 17;
+	private static final int MODIFICATION_DATE = 18;
+	private static final int FIELD_COUNT = 19;
+	
+	// enum values by name, so we can look them up without a String
+	private static final EnumTable<FeatureClass> featureClasses = new EnumTable<FeatureClass>(FeatureClass.values());
+	private static final EnumTable<FeatureCode> featureCodes = new EnumTable<FeatureCode>(FeatureCode.values());
+	private static final EnumTable<CountryCode> countryCodes = new EnumTable<CountryCode>(CountryCode.values());
+	
+	// powers of ten that are exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = new double[16];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+	
+	// copy of the current record, when not given a char[] to begin with
+	private char[] buffer = new char[1024];
+	
+	// where each field of the current record starts and ends
+	private final int[] fieldStarts = new int[FIELD_COUNT];
+	private final int[] fieldEnds = new int[FIELD_COUNT];
+	
+	// number of fields in the current record, not counting any empty
+	// fields at the end (same as String.split() would give us)
+	private int fieldCount;
+	
+	// for the (odd) dates we can't handle ourselves
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+	
+	// same calendar the date format would use, for the ones we can
+	private final Calendar calendar = (Calendar)dateFormat.getCalendar().clone();
+	
+	/**
+	 * Builds a {@link GeoName} object based on a single gazetteer
+	 * record in the GeoNames geographical database.
+	 * 
+	 * @param inputLine		single line of tab-delimited text representing one record from the GeoNames gazetteer
+	 * @return				new GeoName object
+	 */
+	public GeoName parse(CharSequence inputLine) {
+		int length = inputLine.length();
+		if (buffer.length < length)
+			buffer = new char[Math.max(length, buffer.length * 2)];
+		
+		if (inputLine instanceof String)
+			((String)inputLine).getChars(0, length, buffer, 0);
+		else for (int i = 0; i < length; i++)
+			buffer[i] = inputLine.charAt(i);
+		
+		return parse(buffer, 0, length);
+	}
+	
+	/**
+	 * Builds a {@link GeoName} object based on a single gazetteer
+	 * record held in a window of a char array (e.g., a buffer holding
+	 * many lines read from the gazetteer file).
+	 * 
+	 * @param chars		buffer holding the record
+	 * @param offset	start of the record in the buffer
+	 * @param length	length of the record, not counting the line break
+	 * @return			new GeoName object
+	 */
+	public GeoName parse(char[] chars, int offset, int length) {
+		
+		// find where each field starts & ends
+		splitFields(chars, offset, offset + length);
+		
+		// initialize each field with the corresponding token
+		long id = parseLong(chars, GEONAME_ID, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE);
+		if (id == Long.MIN_VALUE)
+			throw new NumberFormatException("For input string: \"" + string(chars, GEONAME_ID) + "\"");
+		int geonameID = (int)id;
+		String name = string(chars, NAME);
+		String asciiName = string(chars, ASCII_NAME);
+		
+		List<String> alternateNames;
+		if (!isEmpty(ALTERNATE_NAMES)) {
+			alternateNames = Arrays.asList(splitNames(chars, fieldStarts[ALTERNATE_NAMES], fieldEnds[ALTERNATE_NAMES]));
+		} else alternateNames = new ArrayList<String>();
+		
+		double latitude = parseDouble(chars, LATITUDE);
+		double longitude = parseDouble(chars, LONGITUDE);
+		
+		FeatureClass featureClass;
+		if (!isEmpty(FEATURE_CLASS)) {
+			featureClass = lookup(featureClasses, chars, FEATURE_CLASS);
+		} else featureClass = FeatureClass.NULL; // not available
+		
+		FeatureCode featureCode;
+		if (!isEmpty(FEATURE_CODE)) {
+			featureCode = lookup(featureCodes, chars, FEATURE_CODE);
+		} else featureCode = FeatureCode.NULL; // not available
+		
+		CountryCode primaryCountryCode;
+		if (!isEmpty(PRIMARY_COUNTRY_CODE)) {
+			primaryCountryCode = lookup(countryCodes, chars, PRIMARY_COUNTRY_CODE);
+		} else primaryCountryCode = CountryCode.NULL; // No Man's Land
+		
+		List<CountryCode> alternateCountryCodes = new ArrayList<CountryCode>();
+		int start = fieldStarts[ALTERNATE_COUNTRY_CODES];
+		int end = fieldEnds[ALTERNATE_COUNTRY_CODES];
+		for (int i = start; i <= end; i++) {
+			if (i == end || chars[i] == ',') {
+				if (i > start) { // check for malformed data
+					CountryCode code = countryCodes.get(chars, start, i);
+					if (code == null)
+						throw noSuchConstant(CountryCode.class, chars, start, i);
+					alternateCountryCodes.add(code);
+				}
+				start = i + 1;
+			}
+		}
+		
+		String admin1Code = string(chars, ADMIN1_CODE);
+		String admin2Code = string(chars, ADMIN2_CODE);
+		
+		String admin3Code;
+		String admin4Code;
+		long population;
+		int elevation;
+		int digitalElevationModel;
+		TimeZone timezone;
+		Date modificationDate;
+		
+		// check for dirty data...
+		if (fieldCount < FIELD_COUNT) {
+			// GeoNames record format is corrupted, don't trust any
+			// data after this point
+			admin3Code = "";
+			admin4Code = "";
+			population = GeoName.OUT_OF_BOUNDS;
+			elevation = GeoName.OUT_OF_BOUNDS;
+			digitalElevationModel = GeoName.OUT_OF_BOUNDS;
+			timezone = null;
+			modificationDate = new Date(0);
+		} else { // everything looks ok, soldiering on...
+			admin3Code = string(chars, ADMIN3_CODE);
+			admin4Code = string(chars, ADMIN4_CODE);
+			population = parseLong(chars, POPULATION, Long.MIN_VALUE, Long.MAX_VALUE, GeoName.OUT_OF_BOUNDS);
+			elevation = (int)parseLong(chars, ELEVATION, Integer.MIN_VALUE, Integer.MAX_VALUE, GeoName.OUT_OF_BOUNDS);
+			digitalElevationModel = (int)parseLong(chars, DIGITAL_ELEVATION_MODEL, Integer.MIN_VALUE, Integer.MAX_VALUE, GeoName.OUT_OF_BOUNDS);
+			timezone = GeoNameSerializer.lookupTimeZone(string(chars, TIMEZONE));
+			modificationDate = parseDate(chars, fieldStarts[MODIFICATION_DATE], fieldEnds[MODIFICATION_DATE]);
+		}
+		
+		return new GeoName(geonameID, name, asciiName, alternateNames,
+				latitude, longitude, featureClass, featureCode,
+				primaryCountryCode, alternateCountryCodes, admin1Code,
+				admin2Code, admin3Code, admin4Code, population,
+				elevation, digitalElevationModel, timezone,
+				modificationDate);
+	}
+	
+	/**
+	 * Gets just the population of a single gazetteer record, exactly as
+	 * {@link GeoNamesRecordParser#parse(char[], int, int)} would, without
+	 * building the rest of the {@link GeoName}. Never throws; records
+	 * that are too broken to parse get {@link GeoName#OUT_OF_BOUNDS}.
+	 * 
+	 * @param chars		buffer holding the record
+	 * @param offset	start of the record in the buffer
+	 * @param length	length of the record, not counting the line break
+	 * @return			number of inhabitants
+	 */
+	public long parsePopulation(char[] chars, int offset, int length) {
+		splitFields(chars, offset, offset + length);
+		
+		// same check for dirty data as parse() makes
+		if (fieldCount < FIELD_COUNT)
+			return GeoName.OUT_OF_BOUNDS;
+		return parseLong(chars, POPULATION, Long.MIN_VALUE, Long.MAX_VALUE, GeoName.OUT_OF_BOUNDS);
+	}
+	
+	/**
+	 * Finds the start & end of each tab-delimited field in a record.
+	 * Any fields missing from the record are left empty.
+	 */
+	private void splitFields(char[] chars, int start, int end) {
+		Arrays.fill(fieldStarts, start);
+		Arrays.fill(fieldEnds, start);
+		fieldCount = 0;
+		
+		int field = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || chars[i] == '\t') {
+				if (field < FIELD_COUNT) {
+					fieldStarts[field] = fieldStart;
+					fieldEnds[field] = i;
+				}
+				// String.split() drops empty fields at the end
+				if (i > fieldStart)
+					fieldCount = field + 1;
+				field++;
+				fieldStart = i + 1;
+			}
+		}
+	}
+	
+	private boolean isEmpty(int field) {
+		return fieldStarts[field] == fieldEnds[field];
+	}
+	
+	private String string(char[] chars, int field) {
+		return new String(chars, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+	}
+	
+	/**
+	 * Splits a comma-separated list of names, dropping any empty names
+	 * at the end (same as String.split() would).
+	 */
+	private static String[] splitNames(char[] chars, int start, int end) {
+		
+		// first pass: count the names we'll be keeping
+		int count = 0;
+		int nameCount = 0;
+		int nameStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || chars[i] == ',') {
+				nameCount++;
+				if (i > nameStart)
+					count = nameCount;
+				nameStart = i + 1;
+			}
+		}
+		
+		// second pass: build them
+		String[] names = new String[count];
+		nameStart = start;
+		for (int i = start, n = 0; n < count; i++) {
+			if (i == end || chars[i] == ',') {
+				names[n++] = new String(chars, nameStart, i - nameStart);
+				nameStart = i + 1;
+			}
+		}
+		return names;
+	}
+	
+	private <E extends Enum<E>> E lookup(EnumTable<E> table, char[] chars, int field) {
+		E value = table.get(chars, fieldStarts[field], fieldEnds[field]);
+		if (value == null)
+			throw noSuchConstant(table.type, chars, fieldStarts[field], fieldEnds[field]);
+		return value;
+	}
+	
+	// same complaint Enum.valueOf() would make
+	private static IllegalArgumentException noSuchConstant(Class<?> type, char[] chars, int start, int end) {
+		return new IllegalArgumentException("No enum constant " + type.getCanonicalName()
+				+ "." + new String(chars, start, end - start));
+	}
+	
+	/**
+	 * Parses a base-10 integer field the way Long.parseLong() does, but
+	 * hands back a default value rather than throwing an exception when
+	 * the field is empty, malformed, or out of range.
+	 */
+	private long parseLong(char[] chars, int field, long min, long max, long defaultValue) {
+		int i = fieldStarts[field];
+		int end = fieldEnds[field];
+		if (i == end)
+			return defaultValue;
+		
+		boolean negative = false;
+		if (chars[i] == '-' || chars[i] == '+') {
+			negative = chars[i] == '-';
+			if (++i == end)
+				return defaultValue;
+		}
+		
+		// accumulate negatively, since there's one more negative number
+		// than positive ones
+		long limit = negative ? min : -max;
+		long multiplyLimit = limit / 10;
+		long result = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(chars[i], 10);
+			if (digit < 0 || result < multiplyLimit)
+				return defaultValue;
+			result *= 10;
+			if (result < limit + digit)
+				return defaultValue;
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
+	
+	/**
+	 * Parses a decimal field, e.g., latitude or longitude.
+	 * 
+	 * Plain decimals with up to 15 digits (which covers every lat/lon
+	 * in the gazetteer) are exact as a long, and dividing by an exact
+	 * power of ten gives a correctly rounded result, so there's no need
+	 * for Double.parseDouble() unless we see anything fancier.
+	 */
+	private double parseDouble(char[] chars, int field) {
+		int start = fieldStarts[field];
+		int end = fieldEnds[field];
+		if (start == end)
+			return GeoName.OUT_OF_BOUNDS;
+		
+		int i = start;
+		boolean negative = false;
+		if (chars[i] == '-' || chars[i] == '+') {
+			negative = chars[i] == '-';
+			i++;
+		}
+		
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean decimalPoint = false;
+		boolean simple = i < end;
+		for (; simple && i < end; i++) {
+			char c = chars[i];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (decimalPoint)
+					fractionDigits++;
+			} else if (c == '.' && !decimalPoint) {
+				decimalPoint = true;
+			} else simple = false;
+		}
+		
+		if (simple && digits > 0 && digits < POWERS_OF_TEN.length) {
+			double value = mantissa / POWERS_OF_TEN[fractionDigits];
+			return negative ? -value : value;
+		}
+		
+		try {
+			return Double.parseDouble(new String(chars, start, end - start));
+		} catch (NumberFormatException e) {
+			return GeoName.OUT_OF_BOUNDS;
+		}
+	}
+	
+	/**
+	 * Parses a yyyy-MM-dd date, using the same (lenient) calendar
+	 * SimpleDateFormat would.
+	 */
+	private Date parseDate(char[] chars, int start, int end) {
+		if (end - start == 10 && chars[start + 4] == '-' && chars[start + 7] == '-') {
+			int year = parseDigits(chars, start, start + 4);
+			int month = parseDigits(chars, start + 5, start + 7);
+			int day = parseDigits(chars, start + 8, start + 10);
+			if (year >= 0 && month >= 0 && day >= 0) {
+				calendar.clear();
+				calendar.set(year, month - 1, day);
+				return calendar.getTime();
+			}
+		}
+		
+		// leave anything unusual to the experts
+		try {
+			return dateFormat.parse(new String(chars, start, end - start));
+		} catch (ParseException e) {
+			return new Date(0);
+		}
+	}
+	
+	// -1 unless every char is an ASCII digit
+	private static int parseDigits(char[] chars, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = chars[i];
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+	
+	/**
+	 * Open-addressing hash table for looking up enum values by name,
+	 * straight from a window of a char array.
+	 */
+	private static class EnumTable<E extends Enum<E>> {
+		
+		private final Class<E> type;
+		private final Object[] table;
+		private final int mask;
+		
+		EnumTable(E[] values) {
+			type = values[0].getDeclaringClass();
+			
+			// keep it at most a quarter full, so probes stay short
+			int size = 1;
+			while (size < values.length * 4)
+				size <<= 1;
+			table = new Object[size];
+			mask = size - 1;
+			
+			for (E value : values) {
+				int slot = mix(value.name().hashCode()) & mask;
+				while (table[slot] != null)
+					slot = (slot + 1) & mask;
+				table[slot] = value;
+			}
+		}
+		
+		@SuppressWarnings("unchecked")
+		E get(char[] chars, int start, int end) {
+			// same hash as String.hashCode()
+			int hash = 0;
+			for (int i = start; i < end; i++)
+				hash = 31 * hash + chars[i];
+			
+			for (int slot = mix(hash) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+				E value = (E)table[slot];
+				if (matches(value.name(), chars, start, end))
+					return value;
+			}
+			return null;
+		}
+		
+		private static int mix(int hash) {
+			return hash ^ (hash >>> 16);
+		}
+		
+		private static boolean matches(String name, char[] chars, int start, int end) {
+			if (name.length() != end - start)
+				return false;
+			for (int i = 0; i < name.length(); i++) {
+				if (name.charAt(i) != chars[start + i])
+					return false;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.berico.clavin.index;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * DirectoryStrategy.java
+ * 
+ *###################################################################*/
+
+/**
+ * Ways of opening the Lucene index built from the gazetteer, trading
+ * off startup time, heap usage and off-heap (mapped) memory.
+ * 
+ * With a memory-limited container, the choice matters: memory-mapped
+ * index files don't count against the Java heap but do count against
+ * the container's page cache, while a RAM-resident copy lives entirely
+ * on the heap.
+ * 
+ */
+public enum DirectoryStrategy {
+	
+	/**
+	 * Lets Lucene pick the best implementation for the platform (i.e.,
+	 * memory-mapped files on 64-bit JVMs).
+	 */
+	DEFAULT {
+		@Override
+		public Directory open(File indexDir) throws IOException {
+			return FSDirectory.open(indexDir);
+		}
+	},
+	
+	/**
+	 * Memory-maps the index files, paging them in as they're read.
+	 */
+	MMAP {
+		@Override
+		public Directory open(File indexDir) throws IOException {
+			return new MMapDirectory(indexDir);
+		}
+	},
+	
+	/**
+	 * Memory-maps the index files, and reads each of them through once
+	 * up front, so they're paged in before the first search.
+	 */
+	MMAP_PRELOAD {
+		@Override
+		public Directory open(File indexDir) throws IOException {
+			Directory directory = new MMapDirectory(indexDir);
+			preload(directory);
+			return directory;
+		}
+	},
+	
+	/**
+	 * Reads the index files with positional NIO reads, leaving caching
+	 * to the OS; nothing is mapped.
+	 */
+	NIO {
+		@Override
+		public Directory open(File indexDir) throws IOException {
+			return new NIOFSDirectory(indexDir);
+		}
+	},
+	
+	/**
+	 * Copies the whole index onto the Java heap; only sensible for
+	 * small gazetteers.
+	 */
+	RAM {
+		@Override
+		public Directory open(File indexDir) throws IOException {
+			Directory source = FSDirectory.open(indexDir);
+			try {
+				return new RAMDirectory(source, IOContext.READ);
+			} finally {
+				source.close();
+			}
+		}
+	};
+	
+	// size of the buffer index files are read through when preloading
+	private static final int preloadBufferSize = 64 * 1024;
+	
+	/**
+	 * Opens the Lucene index in the given directory.
+	 * 
+	 * @param indexDir		Lucene index directory on disk
+	 * @return				the opened index directory
+	 * @throws IOException
+	 */
+	public abstract Directory open(File indexDir) throws IOException;
+	
+	/**
+	 * Reads every file in an index directory from start to finish,
+	 * pulling it into the OS page cache (and, for an MMapDirectory,
+	 * touching every mapped page).
+	 * 
+	 * @param directory		index directory to be preloaded
+	 * @return				number of bytes read
+	 * @throws IOException
+	 */
+	public static long preload(Directory directory) throws IOException {
+		byte[] buffer = new byte[preloadBufferSize];
+		long bytesRead = 0;
+		
+		for (String fileName : directory.listAll()) {
+			IndexInput in;
+			try {
+				in = directory.openInput(fileName, IOContext.READONCE);
+			} catch (FileNotFoundException e) {
+				// deleted since it was listed (e.g., a lock file)
+				continue;
+			}
+			try {
+				long length = in.length();
+				for (long position = 0; position < length; position += buffer.length) {
+					int chunk = (int)Math.min(buffer.length, length - position);
+					in.readBytes(buffer, 0, chunk);
+				}
+				bytesRead += length;
+			} finally {
+				in.close();
+			}
+		}
+		
+		return bytesRead;
+	}
+}
@@ -0,0 +1,138 @@
+package com.berico.clavin.index;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import com.berico.clavin.gazetteer.GeoName;
+import com.berico.clavin.gazetteer.GeoNameSerializer;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GeoNameRecords.java
+ *
+ *###################################################################*/
+
+/**
+ * Finds the stored {@link GeoName} for a document matched in the
+ * Lucene index built by {@link IndexDirectoryBuilder}.
+ *
+ * Each gazetteer record is indexed as a contiguous block of
+ * documents: one name-only document for every name the location goes
+ * by, followed by a single record document holding the GeoName
+ * payload. This way the (sizeable) payload is stored once per
+ * geonameID rather than once per name, and finding the record for a
+ * matched name is just a matter of finding the next record document
+ * in the same segment.
+ *
+ * Indexes built by older versions of CLAVIN, which stored the payload
+ * on every document, are still supported.
+ *
+ */
+public class GeoNameRecords {
+
+	// marks the document holding the payload for a gazetteer record
+	public static final Term RECORD_TERM = new Term("docType", "record");
+
+	// segments of the index, in docID order
+	private final List<AtomicReaderContext> leaves;
+
+	// record documents in each segment (null for segments using the
+	// older, one-payload-per-document layout)
+	private final FixedBitSet[] recordDocs;
+
+	/**
+	 * Finds all the record documents in the given index up front, so
+	 * that locating a record later on doesn't touch the disk.
+	 *
+	 * @param reader	reader for an index built by {@link IndexDirectoryBuilder}
+	 * @throws IOException
+	 */
+	public GeoNameRecords(IndexReader reader) throws IOException {
+		leaves = reader.getContext().leaves();
+		recordDocs = new FixedBitSet[leaves.size()];
+
+		for (int i = 0; i < leaves.size(); i++) {
+			AtomicReader segment = leaves.get(i).reader();
+			DocsEnum docs = segment.termDocsEnum(RECORD_TERM);
+			if (docs == null)
+				continue; // older index layout
+
+			recordDocs[i] = new FixedBitSet(segment.maxDoc());
+			int doc;
+			while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+				recordDocs[i].set(doc);
+		}
+	}
+
+	/**
+	 * Finds the record document holding the payload for a matched
+	 * name document.
+	 *
+	 * @param docID		(top-level) docID of a matched name document
+	 * @return			docID of the corresponding record document
+	 */
+	public int recordDocFor(int docID) {
+		int leaf = ReaderUtil.subIndex(docID, leaves);
+		if (recordDocs[leaf] == null)
+			return docID; // older index layout, payload is right here
+
+		int docBase = leaves.get(leaf).docBase;
+		int recordDoc = recordDocs[leaf].nextSetBit(docID - docBase);
+		if (recordDoc < 0)
+			throw new IllegalStateException("No gazetteer record found for document " + docID);
+		return recordDoc + docBase;
+	}
+
+	/**
+	 * Decodes the {@link GeoName} stored in a record document, either
+	 * in its compact binary form or as a raw GeoNames gazetteer record.
+	 *
+	 * @param recordDoc		document from Lucene index holding a gazetteer record
+	 * @return				GeoName stored in the document
+	 * @throws IllegalArgumentException	if the document holds no gazetteer
+	 * 									record (e.g., a name document)
+	 */
+	public static GeoName decodeGeoName(Document recordDoc) {
+		BytesRef payload = recordDoc.getBinaryValue("geoname");
+		if (payload != null)
+			return GeoNameSerializer.deserialize(payload.bytes, payload.offset, payload.length);
+
+		String record = recordDoc.get("geoname");
+		if (record == null)
+			throw new IllegalArgumentException("No gazetteer record stored in document");
+		return GeoName.parseFromGeoNamesRecord(record);
+	}
+}
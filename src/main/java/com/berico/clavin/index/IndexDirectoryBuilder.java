@@ -2,14 +2,35 @@ package com.berico.clavin.index;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -18,13 +39,19 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.LongField;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import com.berico.clavin.gazetteer.GeoName;
+import com.berico.clavin.gazetteer.GeoNamesRecordParser;
+import com.berico.clavin.gazetteer.GeoNameSerializer;
 
 /*#####################################################################
  * 
@@ -67,57 +94,173 @@ public class IndexDirectoryBuilder {
 	
 	// the GeoNames gazetteer file to be loaded
 	static String pathToGazetteer = "./allCountries.txt";
-
+	
+	// whether to keep alternate names in the stored GeoName payload
+	// (they're indexed for matching either way, but they take up a
+	// lot of room and are rarely needed once a match has been made)
+	static boolean storeAlternateNames = false;
+	
+	// number of threads parsing & indexing gazetteer records
+	static int threadCount = Runtime.getRuntime().availableProcessors();
+	
+	// how much memory the IndexWriter may use before flushing to disk
+	static double ramBufferSizeMB = 256;
+	
+	// approximate size (in bytes) of the chunks of gazetteer file
+	// handed to a worker thread at a time
+	static final int regionSize = MappedGazetteerReader.DEFAULT_REGION_SIZE;
+	
+	// how often to report progress, in seconds
+	static final long progressInterval = 10;
+	
+	// whether to add the gazetteer records in order of descending
+	// population, so that searches needn't sort their hits by it
+	static boolean sortByPopulation = true;
+	
+	// number of records (in population order) a worker thread parses
+	// at a time
+	static final int sortedBatchSize = 1024;
+	
+	// commit user data marking an index whose documents are in order
+	// of descending population (see isSortedByPopulation())
+	public static final String SORT_ORDER_KEY = "sortOrder";
+	public static final String POPULATION_ORDER = "population";
+	
+	// bits of a sort key holding a record's number, the rest hold its
+	// population rank
+	private static final int recordBits = 27;
+	
+	// bits of a record position holding its length in bytes, the rest
+	// hold its offset
+	private static final int lengthBits = 24;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
 	/**
 	 * Turns a GeoNames gazetteer file into a Lucene index, and adds
 	 * some supplementary gazetteer records at the end.
 	 * 
-	 * @param args				not used
+	 * The gazetteer files are split into regions, which are handed off
+	 * to a pool of worker threads. Each worker maps its region into
+	 * memory, parses the records in it, and feeds them to the
+	 * (thread-safe) {@link IndexWriter}.
+	 * 
+	 * Unless told otherwise, the records are added in order of
+	 * descending population (see
+	 * {@link IndexDirectoryBuilder#indexRecordsByPopulation}), which
+	 * takes a second pass over the gazetteer but spares every search
+	 * from sorting its hits by population later on.
+	 * 
+	 * @param args				optional arguments:
+	 * 							"--alternate-names" to keep alternate names in the stored payload,
+	 * 							"--unsorted" to add records in whatever order they're parsed,
+	 * 							"--threads=N" to use N worker threads (default: one per core),
+	 * 							"--ram-buffer-mb=N" to buffer up to N MB of documents in memory before flushing
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException {
 		
-		logger.info("Indexing... please wait.");
+		for (String arg : args) {
+			if (arg.equals("--alternate-names"))
+				storeAlternateNames = true;
+			else if (arg.equals("--unsorted"))
+				sortByPopulation = false;
+			else if (arg.startsWith("--threads="))
+				threadCount = Integer.parseInt(arg.substring("--threads=".length()));
+			else if (arg.startsWith("--ram-buffer-mb="))
+				ramBufferSizeMB = Double.parseDouble(arg.substring("--ram-buffer-mb=".length()));
+			else logger.warn("Ignoring unknown argument: " + arg);
+		}
+		
+		logger.info("Indexing with " + threadCount + " threads... please wait.");
 		
 		// Create a new index file on disk, allowing Lucene to choose
 		// the best FSDirectory implementation given the environment.
-		// TODO: delete this directory first, if it exists
+		// Any index already there is replaced (see OpenMode.CREATE).
 		FSDirectory index = FSDirectory.open(new File("./IndexDirectory"));
 		
 		// indexing by lower-casing & tokenizing on whitespace
 		Analyzer indexAnalyzer = new WhitespaceLowerCaseAnalyzer();
 		
+		// let each worker thread fill its own in-memory segment, and
+		// flush segments once they've used up the RAM buffer
+		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_40, indexAnalyzer);
+		config.setRAMBufferSizeMB(ramBufferSizeMB);
+		config.setMaxThreadStates(threadCount);
+		
+		// start from scratch, rather than adding a second copy of the
+		// gazetteer to whatever index is already in the directory
+		config.setOpenMode(OpenMode.CREATE);
+		
+		// only merge neighbouring segments, so documents stay in the
+		// order they were added
+		if (sortByPopulation)
+			config.setMergePolicy(new LogByteSizeMergePolicy());
+		
 		// create the object that will actually build the Lucene index
-		IndexWriter indexWriter = new IndexWriter(index, new IndexWriterConfig(Version.LUCENE_40, indexAnalyzer));
+		IndexWriter indexWriter = new IndexWriter(index, config);
 		
-		// open the gazetteer files to be loaded
-		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(new File(pathToGazetteer)), "UTF-8"));
-		BufferedReader r2 = new BufferedReader(new InputStreamReader(new FileInputStream(new File("./src/main/resources/SupplementaryGazetteer.txt")), "UTF-8"));
+		// the gazetteer files to be loaded
+		File gazetteer = new File(pathToGazetteer);
+		File supplementaryGazetteer = new File("./src/main/resources/SupplementaryGazetteer.txt");
 		
-		String line;
+		// worker threads parsing & indexing regions of the gazetteer;
+		// when they fall behind, the main thread pitches in rather
+		// than queueing up more work
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(threadCount, threadCount,
+				0L, MILLISECONDS, new ArrayBlockingQueue<Runnable>(threadCount * 2),
+				new ThreadPoolExecutor.CallerRunsPolicy());
 		
 		// let's see how long this takes...
 		Date start = new Date();
+		final IndexingProgress progress = new IndexingProgress(start.getTime());
 		
-		// load GeoNames gazetteer into Lucene index
-		while ((line = r.readLine()) != null)
-			addToIndex(indexWriter, line);
+		// periodically report how things are going
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				logger.info(progress);
+			}
+		}, progressInterval, progressInterval, TimeUnit.SECONDS);
 		
-		// add supplementary gazetteer records to index
-		while ((line = r2.readLine()) != null)
-			addToIndex(indexWriter, line);
+		try {
+			if (sortByPopulation) {
+				// load GeoNames & supplementary gazetteer records into
+				// Lucene index together, most populous first
+				indexRecordsByPopulation(Arrays.asList(gazetteer, supplementaryGazetteer),
+						indexWriter, workers, progress);
+			} else {
+				// load GeoNames gazetteer into Lucene index, split into
+				// regions that can be read independently
+				indexRecords(MappedGazetteerReader.split(gazetteer, regionSize), indexWriter, workers, progress);
+				
+				// add supplementary gazetteer records to index
+				indexRecords(MappedGazetteerReader.split(supplementaryGazetteer, regionSize), indexWriter, workers, progress);
+			}
+			
+			// wait for the workers to finish up
+			workers.shutdown();
+			while (!workers.awaitTermination(progressInterval, TimeUnit.SECONDS))
+				logger.debug("Waiting for indexing threads to finish...");
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while indexing", e);
+		} finally {
+			workers.shutdownNow();
+			reporter.shutdownNow();
+		}
+		
+		// bail out if any of the workers hit a problem
+		progress.checkFailure();
 		
 		// that wasn't so long, was it?
 		Date stop = new Date();
 		
 		logger.info("[DONE]");
-		logger.info(indexWriter.maxDoc() + " geonames added to index.");
+		logger.info(progress);
 		logger.info("Merging indices... please wait.");
 		
 		indexWriter.close();
 		index.close();
-		r.close();
-		r2.close();
 		
 		logger.info("[DONE]");
 		
@@ -127,32 +270,434 @@ public class IndexDirectoryBuilder {
 				+ "; elapsed time: " + MILLISECONDS.toSeconds(elapsed_MILLIS) + " seconds.");
 	}
 	
+	/**
+	 * Hands off regions of a gazetteer file to be added to the Lucene
+	 * index by the worker threads.
+	 * 
+	 * @param regions		regions of the gazetteer file, one record per line
+	 * @param indexWriter	the object that actually builds the Lucene index
+	 * @param workers		threads doing the parsing & indexing
+	 * @param progress		keeps track of how much has been indexed
+	 * @throws IOException
+	 */
+	private static void indexRecords(List<MappedGazetteerReader.Region> regions, IndexWriter indexWriter,
+			ExecutorService workers, IndexingProgress progress) throws IOException {
+		
+		for (MappedGazetteerReader.Region region : regions) {
+			// no sense going any further if a worker has failed
+			progress.checkFailure();
+			workers.execute(new IndexingTask(region, indexWriter, progress));
+		}
+	}
+	
+	/**
+	 * Adds the records of the given gazetteer files to the Lucene index
+	 * in order of descending population (records with the same
+	 * population staying in file order), and marks the index as such.
+	 * 
+	 * As long as the segments of the index are only merged with their
+	 * neighbours (e.g., by a {@link LogByteSizeMergePolicy}), docID
+	 * order is then population order, so the hits of a search sorted
+	 * by score and then population are simply its top hits by score,
+	 * and when every hit scores the same, its first hits.
+	 * 
+	 * Takes two passes over the gazetteers. The first finds the
+	 * population and position of every record, with the worker
+	 * threads each scanning a region of a file; the records are then
+	 * sorted by population. The second reads & parses the records in
+	 * sorted order, in batches spread across the worker threads, while
+	 * the calling thread adds the batches to the index one by one.
+	 * 
+	 * The index is only marked as sorted if it was empty to begin with,
+	 * since documents already in it come before the sorted ones.
+	 * 
+	 * @param gazetteers	gazetteer files, one record per line
+	 * @param indexWriter	the object that actually builds the Lucene index
+	 * @param workers		threads doing the parsing
+	 * @param progress		keeps track of how much has been indexed
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	static void indexRecordsByPopulation(List<File> gazetteers, IndexWriter indexWriter,
+			ExecutorService workers, IndexingProgress progress) throws IOException, InterruptedException {
+		
+		// only an index that starts out empty ends up in population order
+		boolean startedEmpty = (indexWriter.maxDoc() == 0);
+		
+		// first pass: find every record, treating the gazetteer files
+		// as if they were one long file
+		long[] fileStarts = new long[gazetteers.size()];
+		long totalSize = 0;
+		List<Future<PopulationScan>> scans = new ArrayList<Future<PopulationScan>>();
+		for (int i = 0; i < gazetteers.size(); i++) {
+			fileStarts[i] = totalSize;
+			for (MappedGazetteerReader.Region region : MappedGazetteerReader.split(gazetteers.get(i), regionSize))
+				scans.add(workers.submit(new PopulationScan(region, totalSize)));
+			totalSize += gazetteers.get(i).length();
+		}
+		
+		int recordCount = 0;
+		for (Future<PopulationScan> scan : scans)
+			recordCount += getResult(scan).count;
+		if (recordCount >= 1 << recordBits)
+			throw new IOException("Too many gazetteer records to sort: " + recordCount);
+		
+		// number the records in file order, and sort them by population
+		long[] positions = new long[recordCount];
+		long[] sortKeys = new long[recordCount];
+		int record = 0;
+		for (Future<PopulationScan> scan : scans) {
+			PopulationScan region = getResult(scan);
+			for (int i = 0; i < region.count; i++, record++) {
+				positions[record] = region.positions[i];
+				sortKeys[record] = (populationRank(region.populations[i]) << recordBits) | record;
+			}
+		}
+		scans = null;
+		Arrays.sort(sortKeys);
+		logger.info("Sorted " + recordCount + " gazetteer records by population.");
+		
+		// second pass: parse the records in sorted order on the worker
+		// threads, and add them to the index strictly in that order
+		FileInputStream[] files = new FileInputStream[gazetteers.size()];
+		try {
+			FileChannel[] channels = new FileChannel[gazetteers.size()];
+			for (int i = 0; i < gazetteers.size(); i++) {
+				files[i] = new FileInputStream(gazetteers.get(i));
+				channels[i] = files[i].getChannel();
+			}
+			
+			LinkedList<Future<List<List<Document>>>> batches = new LinkedList<Future<List<List<Document>>>>();
+			for (int start = 0; start < recordCount; start += sortedBatchSize) {
+				// no sense going any further if something's gone wrong
+				progress.checkFailure();
+				
+				long[] batch = new long[Math.min(sortedBatchSize, recordCount - start)];
+				for (int i = 0; i < batch.length; i++)
+					batch[i] = positions[(int)(sortKeys[start + i] & ((1 << recordBits) - 1))];
+				batches.add(workers.submit(new SortedBatchTask(batch, fileStarts, channels)));
+				
+				// don't let the parsing get too far ahead of the index
+				while (batches.size() > threadCount * 2)
+					addBatch(indexWriter, getResult(batches.removeFirst()), progress);
+			}
+			while (!batches.isEmpty())
+				addBatch(indexWriter, getResult(batches.removeFirst()), progress);
+		} finally {
+			for (FileInputStream file : files) {
+				if (file != null)
+					file.close();
+			}
+		}
+		
+		// let the LocationResolver know it can skip sorting; otherwise
+		// replace the user data outright, as a plain commit would keep
+		// any marker left by an earlier commit
+		Map<String, String> userData = new HashMap<String, String>();
+		if (startedEmpty)
+			userData.put(SORT_ORDER_KEY, POPULATION_ORDER);
+		else logger.warn("Index wasn't empty to begin with, so it isn't marked as sorted by population.");
+		indexWriter.commit(userData);
+	}
+	
+	/**
+	 * Checks whether an index was built with its documents in order of
+	 * descending population, by
+	 * {@link IndexDirectoryBuilder#indexRecordsByPopulation}.
+	 * 
+	 * @param reader	reader for an index built by {@link IndexDirectoryBuilder}
+	 * @return			true if docID order is population order
+	 * @throws IOException
+	 */
+	public static boolean isSortedByPopulation(DirectoryReader reader) throws IOException {
+		return POPULATION_ORDER.equals(reader.getIndexCommit().getUserData().get(SORT_ORDER_KEY));
+	}
+	
+	/**
+	 * Ranks populations in descending order, in a form that fits in
+	 * the bits of a sort key above the record number. Populations too
+	 * large (or small) for that are clamped.
+	 */
+	private static long populationRank(long population) {
+		long limit = (1L << (62 - recordBits)) - 1;
+		return limit - Math.max(-limit, Math.min(limit, population));
+	}
+	
+	/**
+	 * Adds a batch of parsed records to the index, in order.
+	 */
+	private static void addBatch(IndexWriter indexWriter, List<List<Document>> batch,
+			IndexingProgress progress) throws IOException {
+		for (List<Document> block : batch) {
+			if (!block.isEmpty())
+				indexWriter.addDocuments(block);
+			progress.recordAdded(block.size());
+		}
+	}
+	
+	/**
+	 * Waits for a task run by the worker threads, passing along any
+	 * problem it had.
+	 */
+	private static <T> T getResult(Future<T> task) throws IOException, InterruptedException {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Indexing failed", e.getCause());
+		}
+	}
+	
+	/**
+	 * Finds the population and position of each record in a region of
+	 * a gazetteer file, on a worker thread.
+	 */
+	private static class PopulationScan implements Callable<PopulationScan>, MappedGazetteerReader.PositionedLineHandler {
+		
+		private final MappedGazetteerReader.Region region;
+		private final long fileStart;
+		private final GeoNamesRecordParser parser = new GeoNamesRecordParser();
+		
+		// offset & length of each record, packed into a long, and its
+		// population
+		long[] positions = new long[1024];
+		long[] populations = new long[1024];
+		int count;
+		
+		PopulationScan(MappedGazetteerReader.Region region, long fileStart) {
+			this.region = region;
+			this.fileStart = fileStart;
+		}
+		
+		public PopulationScan call() throws IOException {
+			region.readPositioned(this);
+			return this;
+		}
+		
+		public boolean line(char[] chars, int offset, int length, long position, int byteLength) throws IOException {
+			if (byteLength >= 1 << lengthBits)
+				throw new IOException("Gazetteer record too long: " + byteLength + " bytes at " + position);
+			
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, count * 2);
+				populations = Arrays.copyOf(populations, count * 2);
+			}
+			positions[count] = ((fileStart + position) << lengthBits) | byteLength;
+			populations[count] = parser.parsePopulation(chars, offset, length);
+			count++;
+			return true;
+		}
+	}
+	
+	/**
+	 * Reads & parses a batch of records from the gazetteer files, and
+	 * builds their index documents, on a worker thread.
+	 */
+	private static class SortedBatchTask implements Callable<List<List<Document>>> {
+		
+		private final long[] positions;
+		private final long[] fileStarts;
+		private final FileChannel[] channels;
+		
+		SortedBatchTask(long[] positions, long[] fileStarts, FileChannel[] channels) {
+			this.positions = positions;
+			this.fileStarts = fileStarts;
+			this.channels = channels;
+		}
+		
+		public List<List<Document>> call() throws IOException {
+			List<List<Document>> blocks = new ArrayList<List<Document>>(positions.length);
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			
+			for (long packed : positions) {
+				long position = packed >>> lengthBits;
+				int length = (int)(packed & ((1 << lengthBits) - 1));
+				
+				// find the file holding this record
+				int file = fileStarts.length - 1;
+				while (fileStarts[file] > position)
+					file--;
+				
+				if (buffer.capacity() < length)
+					buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+				buffer.clear().limit(length);
+				long filePosition = position - fileStarts[file];
+				while (buffer.hasRemaining()) {
+					if (channels[file].read(buffer, filePosition + buffer.position()) < 0)
+						throw new EOFException("Gazetteer record cut short at " + filePosition);
+				}
+				
+				String line = new String(buffer.array(), 0, length, UTF8);
+				try {
+					blocks.add(buildBlock(GeoName.parseFromGeoNamesRecord(line)));
+				} catch (RuntimeException e) {
+					logger.error("Error indexing gazetteer record: " + line, e);
+					throw e;
+				}
+			}
+			return blocks;
+		}
+	}
+	
+	/**
+	 * Parses & indexes a region of a gazetteer file on a worker thread.
+	 */
+	private static class IndexingTask implements Runnable, MappedGazetteerReader.LineHandler {
+		
+		private final MappedGazetteerReader.Region region;
+		private final IndexWriter indexWriter;
+		private final IndexingProgress progress;
+		private final GeoNamesRecordParser parser = new GeoNamesRecordParser();
+		
+		IndexingTask(MappedGazetteerReader.Region region, IndexWriter indexWriter, IndexingProgress progress) {
+			this.region = region;
+			this.indexWriter = indexWriter;
+			this.progress = progress;
+		}
+		
+		public void run() {
+			// don't pile on once something's gone wrong
+			if (progress.failed())
+				return;
+			try {
+				region.read(this);
+			} catch (Exception e) {
+				logger.error("Error reading gazetteer region: " + region, e);
+				progress.fail(e);
+			}
+		}
+		
+		public boolean line(char[] chars, int offset, int length) {
+			if (progress.failed())
+				return false;
+			try {
+				progress.recordAdded(addToIndex(indexWriter, parser.parse(chars, offset, length)));
+				return true;
+			} catch (Exception e) {
+				logger.error("Error indexing gazetteer record: " + new String(chars, offset, length), e);
+				progress.fail(e);
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Thread-safe counters tracking how the indexing is going.
+	 */
+	static class IndexingProgress {
+		
+		private final long startMillis;
+		private final AtomicLong records = new AtomicLong();
+		private final AtomicLong documents = new AtomicLong();
+		private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		
+		IndexingProgress(long startMillis) {
+			this.startMillis = startMillis;
+		}
+		
+		void recordAdded(int documentsAdded) {
+			records.incrementAndGet();
+			documents.addAndGet(documentsAdded);
+		}
+		
+		void fail(Exception e) {
+			failure.compareAndSet(null, e);
+		}
+		
+		boolean failed() {
+			return failure.get() != null;
+		}
+		
+		void checkFailure() throws IOException {
+			Exception e = failure.get();
+			if (e != null)
+				throw new IOException("Indexing failed", e);
+		}
+		
+		@Override
+		public String toString() {
+			long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+			long documentCount = documents.get();
+			return records.get() + " geonames (" + documentCount + " documents) added to index; "
+					+ (documentCount * 1000 / elapsedMillis) + " docs/sec.";
+		}
+	}
+	
 	/**
 	 * Adds entries to the Lucene index for each unique name associated
-	 * with a {@link GeoName} object.
+	 * with a {@link GeoName} object, followed by a single entry holding
+	 * the {@link GeoName} itself.
+	 * 
+	 * All of these are added as one contiguous block of documents, so
+	 * the record entry can be found from any of the name entries (see
+	 * {@link GeoNameRecords}).
 	 * 
 	 * @param indexWriter	the object that actually builds the Lucene index
-	 * @param geonameEntry	single record from GeoNames gazetteer
+	 * @param geoname		parsed record from GeoNames gazetteer
+	 * @return				number of documents added
 	 * @throws IOException
 	 */
-  	private static void addToIndex(IndexWriter indexWriter, String geonameEntry) throws IOException {
+  	static int addToIndex(IndexWriter indexWriter, GeoName geoname) throws IOException {
+  		List<Document> block = buildBlock(geoname);
+  		if (!block.isEmpty())
+  			indexWriter.addDocuments(block);
+  		return block.size();
+  	}
+  	
+  	/**
+  	 * Builds the block of documents to be added to the Lucene index for
+  	 * a {@link GeoName} object: an entry for each unique name, followed
+  	 * by an entry holding the {@link GeoName} itself.
+  	 * 
+  	 * @param geoname		parsed record from GeoNames gazetteer
+  	 * @return				documents to be added, or an empty list if there
+  	 * 						are no names to match against
+  	 */
+  	static List<Document> buildBlock(GeoName geoname) {
+  		
+  		// name entries first, record entry last
+  		List<Document> block = new ArrayList<Document>();
   		
-  		// create a GeoName object from a single gazetteer record
-  		GeoName geoname = GeoName.parseFromGeoNamesRecord(geonameEntry);
+  		// keys of the names added so far: names differing only in case,
+  		// spacing or accents (e.g., "Zurich" with or without its umlaut)
+  		// share a key, and would otherwise each match as a separate hit
+  		Set<String> keys = new HashSet<String>();
   		
   		// add the primary (UTF-8) name for this location
-  		if (geoname.name.length() > 0)
-		    indexWriter.addDocument(buildDoc(geoname.name, geonameEntry, geoname.geonameID, geoname.population));
+  		addNameDoc(block, keys, geoname.name, geoname);
   		
   		// add the ASCII name if it's different from the primary name
-  		if (geoname.asciiName.length() > 0 && !geoname.asciiName.equals(geoname.name))
-  			indexWriter.addDocument(buildDoc(geoname.asciiName, geonameEntry, geoname.geonameID, geoname.population));
+  		addNameDoc(block, keys, geoname.asciiName, geoname);
   		
-  		// add alternate names (if any) if they differ from the primary
-  		// and alternate names
+  		// add alternate names (if any) if they differ from the names
+  		// added already
   		for (String altName : geoname.alternateNames)
-  			if (altName.length() > 0 && !altName.equals(geoname.name) && !altName.equals(geoname.name))
-  				indexWriter.addDocument(buildDoc(altName, geonameEntry, geoname.geonameID, geoname.population));
+  			addNameDoc(block, keys, altName, geoname);
+  		
+  		// nothing to match against, so don't bother storing the record
+  		if (block.isEmpty())
+  			return block;
+  		
+  		// compact binary form of the GeoName, stored just once
+  		block.add(buildRecordDoc(GeoNameSerializer.serialize(geoname, storeAlternateNames), geoname.geonameID));
+  		
+  		return block;
+  	}
+  	
+  	/**
+  	 * Adds a name entry for a location to a block of documents, unless
+  	 * the name is empty or has the same key as a name already added.
+  	 * 
+  	 * @param block			documents for the location
+  	 * @param keys			keys of the names already added
+  	 * @param name			name of the location
+  	 * @param geoname		the location
+  	 */
+  	private static void addNameDoc(List<Document> block, Set<String> keys, String name, GeoName geoname) {
+  		if (name.length() == 0)
+  			return;
+  		String key = NameKeys.normalize(name);
+  		if (keys.add(key))
+  			block.add(buildDoc(name, key, geoname.geonameID, geoname.population));
   	}
   	
   	/**
@@ -161,12 +706,12 @@ public class IndexDirectoryBuilder {
   	 * {@link GeoName} object.
   	 * 
   	 * @param name			name to serve as index key
-  	 * @param geonameEntry	string from GeoNames gazetteer
+  	 * @param key			normalized form of the name (see {@link NameKeys})
   	 * @param geonameID		unique identifier (for quick look-up)
   	 * @param population	number of inhabitants (used for scoring)
   	 * @return
   	 */
-  	private static Document buildDoc(String name, String geonameEntry, int geonameID, Long population) {
+  	private static Document buildDoc(String name, String key, int geonameID, Long population) {
   		
   		// in case you're wondering, yes, this is a non-standard use of
   		// the Lucene Document construct
@@ -176,20 +721,44 @@ public class IndexDirectoryBuilder {
 	    // names against
 	    doc.add(new TextField("indexName", name, Field.Store.YES));
 	    
-	    // this is the payload we'll return when matching location
-	    // names to gazetteer records
-	    doc.add(new StoredField("geoname", geonameEntry));
+	    // normalized form of the name, matched as a single term for
+	    // exact matches
+	    doc.add(new StringField(NameKeys.FIELD, key, Field.Store.NO));
 	    
 	    // TODO: use geonameID to link administrative subdivisions to
 	    //		 each other
-	    doc.add(new IntField("geonameID", geonameID, Field.Store.YES));
+	    doc.add(new IntField("geonameID", geonameID, Field.Store.NO));
 	    
 	    // we'll initially sort match results based on population
-	    doc.add(new LongField("population", population, Field.Store.YES));
+	    doc.add(new LongField("population", population, Field.Store.NO));
 	    
 	    logger.debug("Adding to index: " + name);
 	    
 	    return doc;
   	}
+  	
+  	/**
+  	 * Builds the Lucene document holding the payload for a gazetteer
+  	 * record, shared by all the name entries for that record.
+  	 * 
+  	 * @param payload		binary GeoName from {@link GeoNameSerializer}
+  	 * @param geonameID		unique identifier (for quick look-up)
+  	 * @return
+  	 */
+  	private static Document buildRecordDoc(byte[] payload, int geonameID) {
+  		
+	    Document doc = new Document();
+	    
+	    // lets us tell record entries apart from name entries
+	    doc.add(new StringField(GeoNameRecords.RECORD_TERM.field(), GeoNameRecords.RECORD_TERM.text(), Field.Store.NO));
+	    
+	    // this is the payload we'll return when matching location
+	    // names to gazetteer records
+	    doc.add(new StoredField("geoname", payload));
+	    
+	    doc.add(new IntField("geonameID", geonameID, Field.Store.YES));
+	    
+	    return doc;
+  	}
 
 }
@@ -0,0 +1,328 @@
+package com.berico.clavin.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * MappedGazetteerReader.java
+ * 
+ *###################################################################*/
+
+/**
+ * Reads a (huge) gazetteer file through memory-mapped regions, rather
+ * than a single BufferedReader.
+ * 
+ * The file is split into regions of roughly equal size, each ending
+ * on a line break. Since a line break is a single byte in UTF-8 and
+ * never part of a multi-byte character, every region can be mapped,
+ * decoded, and scanned for lines on its own, so several threads can
+ * work through the file at once. Lines are handed over as windows of
+ * a char buffer, so no String is created for any of them.
+ * 
+ */
+public class MappedGazetteerReader {
+	
+	// reasonable default for the size of a region, in bytes
+	public static final int DEFAULT_REGION_SIZE = 8 * 1024 * 1024;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// decoder & char buffer, reused for every region a thread reads
+	private static final ThreadLocal<DecodingState> decodingStates = new ThreadLocal<DecodingState>() {
+		@Override
+		protected DecodingState initialValue() {
+			return new DecodingState();
+		}
+	};
+	
+	/**
+	 * Receives the lines of a region, one at a time.
+	 */
+	public interface LineHandler {
+		
+		/**
+		 * Handles a single line, which is only valid until this method
+		 * returns (the buffer holding it will be reused).
+		 * 
+		 * @param chars		buffer holding the line
+		 * @param offset	start of the line in the buffer
+		 * @param length	length of the line, not counting the line break
+		 * @return			true to keep reading, false to stop
+		 * @throws IOException
+		 */
+		public boolean line(char[] chars, int offset, int length) throws IOException;
+	}
+	
+	/**
+	 * Receives the lines of a region, one at a time, along with where
+	 * each of them is in the file.
+	 */
+	public interface PositionedLineHandler {
+		
+		/**
+		 * Handles a single line, which is only valid until this method
+		 * returns (the buffer holding it will be reused).
+		 * 
+		 * @param chars			buffer holding the line
+		 * @param offset		start of the line in the buffer
+		 * @param length		length of the line, not counting the line break
+		 * @param position		offset of the line's first byte in the file
+		 * @param byteLength	number of bytes in the line, not counting the line break
+		 * @return				true to keep reading, false to stop
+		 * @throws IOException
+		 */
+		public boolean line(char[] chars, int offset, int length, long position, int byteLength) throws IOException;
+	}
+	
+	/**
+	 * Static methods only; not to be instantiated.
+	 */
+	private MappedGazetteerReader() {}
+	
+	/**
+	 * Splits a file into regions of roughly the given size, each
+	 * ending just after a line break (or at the end of the file).
+	 * 
+	 * @param file			UTF-8 encoded file, one record per line
+	 * @param regionSize	approximate size of each region, in bytes
+	 * @return				regions covering the whole file, in order
+	 * @throws IOException
+	 */
+	public static List<Region> split(File file, int regionSize) throws IOException {
+		if (regionSize < 1)
+			throw new IllegalArgumentException("regionSize must be greater than zero");
+		
+		List<Region> regions = new ArrayList<Region>();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			
+			ByteBuffer scratch = ByteBuffer.allocate(4096);
+			long start = 0;
+			while (start < size) {
+				long end = Math.min(start + regionSize, size);
+				if (end < size)
+					end = nextLineStart(channel, end - 1, scratch);
+				regions.add(new Region(file, start, end));
+				start = end;
+			}
+		} finally {
+			in.close();
+		}
+		return regions;
+	}
+	
+	/**
+	 * Finds the start of the line following the first line break at or
+	 * after the given position, or the end of the file if none.
+	 */
+	private static long nextLineStart(FileChannel channel, long position, ByteBuffer scratch) throws IOException {
+		long size = channel.size();
+		while (position < size) {
+			scratch.clear();
+			int read = channel.read(scratch, position);
+			if (read < 0)
+				break;
+			for (int i = 0; i < read; i++) {
+				if (scratch.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += read;
+		}
+		return size;
+	}
+	
+	/**
+	 * Contiguous run of complete lines in a gazetteer file.
+	 */
+	public static class Region {
+		
+		private final File file;
+		private final long start;
+		private final long end;
+		
+		Region(File file, long start, long end) {
+			if (end - start > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Region too large to map: " + (end - start) + " bytes");
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+		
+		/**
+		 * @return	offset of the first byte of this region in the file
+		 */
+		public long getStart() {
+			return start;
+		}
+		
+		/**
+		 * @return	offset just past the last byte of this region in the file
+		 */
+		public long getEnd() {
+			return end;
+		}
+		
+		/**
+		 * Maps this region into memory, decodes it, and hands each of
+		 * its lines to the given handler. Lines are split the same way
+		 * BufferedReader.readLine() would split them, and malformed
+		 * UTF-8 is replaced just like InputStreamReader would.
+		 * 
+		 * @param handler	receives each line in turn
+		 * @throws IOException
+		 */
+		public void read(LineHandler handler) throws IOException {
+			if (start == end)
+				return;
+			
+			CharBuffer chars = decodingStates.get().decode(map());
+			char[] buffer = chars.array();
+			int length = chars.position();
+			
+			int lineStart = 0;
+			for (int i = 0; i < length; i++) {
+				char c = buffer[i];
+				if (c == '\n' || c == '\r') {
+					if (!handler.line(buffer, lineStart, i - lineStart))
+						return;
+					// treat \r\n as a single line break
+					if (c == '\r' && i + 1 < length && buffer[i + 1] == '\n')
+						i++;
+					lineStart = i + 1;
+				}
+			}
+			
+			// last line may not have a line break
+			if (lineStart < length)
+				handler.line(buffer, lineStart, length - lineStart);
+		}
+		
+		/**
+		 * Maps this region into memory, and hands each of its lines to
+		 * the given handler along with its position in the file, so it
+		 * can be read again later on its own. Lines are split just as
+		 * {@link Region#read} splits them, but are decoded one at a time.
+		 * 
+		 * @param handler	receives each line in turn
+		 * @throws IOException
+		 */
+		public void readPositioned(PositionedLineHandler handler) throws IOException {
+			if (start == end)
+				return;
+			
+			MappedByteBuffer bytes = map();
+			DecodingState decodingState = decodingStates.get();
+			int length = bytes.limit();
+			
+			// line breaks are single bytes in UTF-8, and never part of
+			// a multi-byte char, so lines can be split before decoding
+			int lineStart = 0;
+			for (int i = 0; i <= length; i++) {
+				byte b = (i < length) ? bytes.get(i) : (byte)'\n';
+				if (b == '\n' || b == '\r') {
+					// last line may not have a line break
+					if (i == length && lineStart == length)
+						break;
+					
+					ByteBuffer line = bytes.duplicate();
+					line.position(lineStart).limit(i);
+					CharBuffer chars = decodingState.decode(line);
+					if (!handler.line(chars.array(), 0, chars.position(), start + lineStart, i - lineStart))
+						return;
+					// treat \r\n as a single line break
+					if (b == '\r' && i + 1 < length && bytes.get(i + 1) == '\n')
+						i++;
+					lineStart = i + 1;
+				}
+			}
+		}
+		
+		/**
+		 * Maps this region of the file into memory.
+		 */
+		private MappedByteBuffer map() throws IOException {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				return in.getChannel().map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			} finally {
+				// the mapping stays valid once the channel is closed
+				in.close();
+			}
+		}
+		
+		/**
+		 * For pretty-printing.
+		 * 
+		 */
+		@Override
+		public String toString() {
+			return file.getName() + " [" + start + ", " + end + ")";
+		}
+	}
+	
+	/**
+	 * Per-thread UTF-8 decoder, and a char buffer that grows to fit the
+	 * largest region seen so far.
+	 */
+	private static class DecodingState {
+		
+		private final CharsetDecoder decoder = UTF8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		private CharBuffer chars = CharBuffer.allocate(0);
+		
+		CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException {
+			// UTF-8 never takes fewer bytes than chars
+			if (chars.capacity() < bytes.remaining())
+				chars = CharBuffer.allocate(bytes.remaining());
+			chars.clear();
+			
+			decoder.reset();
+			CoderResult result = decoder.decode(bytes, chars, true);
+			if (!result.isUnderflow())
+				result.throwException();
+			result = decoder.flush(chars);
+			if (!result.isUnderflow())
+				result.throwException();
+			return chars;
+		}
+	}
+}
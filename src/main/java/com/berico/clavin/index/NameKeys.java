@@ -0,0 +1,102 @@
+package com.berico.clavin.index;
+
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * NameKeys.java
+ * 
+ *###################################################################*/
+
+/**
+ * Normalized keys for location names, stored untokenized in the
+ * index alongside each name so that exact matches can be looked up
+ * with a single term rather than a phrase.
+ * 
+ * A key is the name lowercased and split on whitespace the same way
+ * {@link WhitespaceLowerCaseAnalyzer} does, with its words joined by
+ * single spaces, then folded to ASCII (e.g., "Straßenhaus" becomes
+ * "strassenhaus").
+ * 
+ */
+public class NameKeys {
+	
+	// name of the index field holding the key for each name entry
+	public static final String FIELD = "indexKey";
+	
+	/**
+	 * No need to build these, it's all static.
+	 */
+	private NameKeys() {}
+	
+	/**
+	 * Builds the key for a location name.
+	 * 
+	 * @param name		location name, as given
+	 * @return			normalized key for the name
+	 */
+	public static String normalize(String name) {
+		StringBuilder key = new StringBuilder(name.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < name.length(); ) {
+			int c = name.codePointAt(i);
+			i += Character.charCount(c);
+			if (Character.isWhitespace(c)) {
+				pendingSpace = key.length() > 0;
+			} else {
+				if (pendingSpace) {
+					key.append(' ');
+					pendingSpace = false;
+				}
+				key.appendCodePoint(Character.toLowerCase(c));
+			}
+		}
+		return fold(key.toString());
+	}
+	
+	/**
+	 * Builds the key for a location name that's already been
+	 * lowercased and had its words joined by single spaces, e.g., by
+	 * {@link com.berico.clavin.resolver.LocationQueryBuilder#normalize(java.util.List)}.
+	 * 
+	 * @param normalizedName	lowercased, single-spaced location name
+	 * @return					normalized key for the name
+	 */
+	public static String fold(String normalizedName) {
+		// plain ASCII is left as is, which is most names
+		int length = normalizedName.length();
+		int i = 0;
+		while (i < length && normalizedName.charAt(i) < 0x80)
+			i++;
+		if (i == length)
+			return normalizedName;
+		
+		// a single char folds to at most four
+		char[] input = normalizedName.toCharArray();
+		char[] output = new char[length * 4];
+		int end = ASCIIFoldingFilter.foldToASCII(input, 0, output, 0, length);
+		return new String(output, 0, end);
+	}
+}
@@ -0,0 +1,101 @@
+package com.berico.clavin.metrics;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoParserMetrics.java
+ * 
+ *###################################################################*/
+
+/**
+ * Receives latency measurements and counts from the stages of
+ * geoparsing, so you can tell where the time goes in a slow
+ * {@link com.berico.clavin.GeoParser#parse} call.
+ * 
+ * Implementations are called on the hot path, from many threads at
+ * once, so they must be thread-safe and shouldn't allocate or block.
+ * {@link HistogramMetrics} keeps a latency histogram for each stage;
+ * {@link GeoParserMetrics#NONE} throws everything away.
+ * 
+ */
+public interface GeoParserMetrics {
+	
+	/**
+	 * Stages of geoparsing that are timed.
+	 */
+	public enum Stage {
+		// splitting text into tokens for the Name Finder
+		TOKENIZE,
+		// finding location names among the tokens
+		NER,
+		// looking up a location name in the index, exactly
+		EXACT_SEARCH,
+		// looking up a location name in the index, fuzzily
+		FUZZY_SEARCH,
+		// loading a matching document's stored fields
+		STORED_DOC_LOAD,
+		// decoding a GeoName from its stored gazetteer record
+		GEONAME_DECODE,
+		// picking the best combination of candidate matches
+		HEURISTIC_SELECTION
+	}
+	
+	/**
+	 * Things that are counted.
+	 */
+	public enum Counter {
+		// location names extracted from documents
+		NAMES_EXTRACTED,
+		// location names that fell back to fuzzy matching
+		FUZZY_FALLBACKS,
+		// location names not matched at all
+		EMPTY_RESULTS,
+		// (partial) combinations of candidates scored by the heuristic
+		COMBOS_EVALUATED
+	}
+	
+	/**
+	 * Metrics that aren't kept anywhere.
+	 */
+	public static final GeoParserMetrics NONE = new GeoParserMetrics() {
+		public void recordLatency(Stage stage, long nanos) {}
+		public void increment(Counter counter, long delta) {}
+	};
+	
+	/**
+	 * Records how long a single run of a stage took.
+	 * 
+	 * @param stage		stage that was run
+	 * @param nanos		time taken, in nanoseconds
+	 */
+	public void recordLatency(Stage stage, long nanos);
+	
+	/**
+	 * Adds to a counter.
+	 * 
+	 * @param counter	counter to add to
+	 * @param delta		amount to add
+	 */
+	public void increment(Counter counter, long delta);
+}
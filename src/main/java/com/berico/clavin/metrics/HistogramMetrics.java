@@ -0,0 +1,110 @@
+package com.berico.clavin.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * HistogramMetrics.java
+ * 
+ *###################################################################*/
+
+/**
+ * Default {@link GeoParserMetrics}, keeping a {@link LatencyHistogram}
+ * for each stage and a running total for each counter.
+ * 
+ * Everything is allocated up front, so recording doesn't allocate,
+ * and costs a handful of atomic increments -- cheap enough to leave
+ * on all the time.
+ * 
+ */
+public class HistogramMetrics implements GeoParserMetrics {
+	
+	// latencies for each stage, by ordinal
+	private final LatencyHistogram[] latencies;
+	
+	// totals for each counter, by ordinal
+	private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+	
+	/**
+	 * Builds a {@link HistogramMetrics} with nothing recorded yet.
+	 */
+	public HistogramMetrics() {
+		latencies = new LatencyHistogram[Stage.values().length];
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new LatencyHistogram();
+	}
+	
+	public void recordLatency(Stage stage, long nanos) {
+		latencies[stage.ordinal()].record(nanos);
+	}
+	
+	public void increment(Counter counter, long delta) {
+		counters.addAndGet(counter.ordinal(), delta);
+	}
+	
+	/**
+	 * Gets the latencies recorded for a stage, in nanoseconds.
+	 * 
+	 * @param stage		stage of geoparsing
+	 * @return			histogram of its latencies
+	 */
+	public LatencyHistogram getLatencies(Stage stage) {
+		return latencies[stage.ordinal()];
+	}
+	
+	/**
+	 * Gets the running total of a counter.
+	 * 
+	 * @param counter	thing being counted
+	 * @return			its total so far
+	 */
+	public long getCount(Counter counter) {
+		return counters.get(counter.ordinal());
+	}
+	
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : latencies)
+			histogram.reset();
+		for (int i = 0; i < counters.length(); i++)
+			counters.set(i, 0);
+	}
+	
+	/**
+	 * For pretty-printing; latencies are in nanoseconds.
+	 * 
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder("HistogramMetrics");
+		for (Stage stage : Stage.values())
+			report.append("\n  ").append(stage).append(": ").append(getLatencies(stage));
+		for (Counter counter : Counter.values())
+			report.append("\n  ").append(counter).append(": ").append(getCount(counter));
+		return report.toString();
+	}
+}
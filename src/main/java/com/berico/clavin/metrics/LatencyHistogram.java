@@ -0,0 +1,200 @@
+package com.berico.clavin.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * LatencyHistogram.java
+ * 
+ *###################################################################*/
+
+/**
+ * Thread-safe histogram of latencies (or any other non-negative longs),
+ * along the lines of HdrHistogram.
+ * 
+ * Values are counted in buckets of roughly equal relative width:
+ * values below 128 get a bucket each, and above that each power of two
+ * is split into 64 buckets, so any value is reported to within 1/64
+ * (about 1.6%) of what was recorded. That's enough buckets to cover
+ * every long in under 30KB, all allocated up front, so recording a
+ * value is just a few bit twiddles and atomic increments.
+ * 
+ */
+public class LatencyHistogram {
+	
+	// number of buckets each power of two is split into
+	private static final int subBucketBits = 6;
+	private static final int subBucketCount = 1 << subBucketBits;
+	
+	// values below this get a bucket to themselves
+	private static final int linearLimit = subBucketCount << 1;
+	
+	// enough buckets for any non-negative long
+	private static final int bucketCount = linearLimit + (62 - subBucketBits) * subBucketCount;
+	
+	// number of values recorded in each bucket
+	private final AtomicLongArray counts = new AtomicLongArray(bucketCount);
+	
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+	
+	/**
+	 * Records a value. Negative values (e.g., from a clock going
+	 * backwards) are recorded as zero.
+	 * 
+	 * @param value		value to be recorded
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		
+		counts.incrementAndGet(bucketFor(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		
+		long max = maxValue.get();
+		while (value > max && !maxValue.compareAndSet(max, value))
+			max = maxValue.get();
+	}
+	
+	/**
+	 * @return	number of values recorded
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+	
+	/**
+	 * @return	sum of the values recorded
+	 */
+	public long getTotal() {
+		return totalValue.get();
+	}
+	
+	/**
+	 * @return	largest value recorded, or zero if none were
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+	
+	/**
+	 * @return	mean of the values recorded, or zero if none were
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double)getTotal() / count;
+	}
+	
+	/**
+	 * Gets the value at a given percentile of the values recorded,
+	 * i.e., the smallest value that at least that percentage of values
+	 * is less than or equal to (to within a bucket's width).
+	 * 
+	 * Values recorded while this runs may or may not be taken into
+	 * account.
+	 * 
+	 * @param percentile	percentile wanted, from 0 to 100
+	 * @return				value at that percentile, or zero if no
+	 * 						values were recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+		
+		long count = getCount();
+		if (count == 0)
+			return 0;
+		
+		// rank of the value we're after
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+		
+		long seen = 0;
+		for (int bucket = 0; bucket < bucketCount; bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= rank)
+				return Math.min(highestValueIn(bucket), getMax());
+		}
+		
+		// still being recorded, so the counts don't add up yet
+		return getMax();
+	}
+	
+	/**
+	 * Forgets every value recorded so far. Values recorded while this
+	 * runs may or may not be forgotten.
+	 */
+	public void reset() {
+		for (int bucket = 0; bucket < bucketCount; bucket++)
+			counts.set(bucket, 0);
+		totalCount.set(0);
+		totalValue.set(0);
+		maxValue.set(0);
+	}
+	
+	/**
+	 * For pretty-printing.
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return "[count: " + getCount() + ", mean: " + Math.round(getMean()) + ", p50: "
+				+ getValueAtPercentile(50) + ", p99: " + getValueAtPercentile(99) + ", max: " + getMax() + "]";
+	}
+	
+	/**
+	 * Finds the bucket a value is counted in.
+	 * 
+	 * @param value		non-negative value
+	 * @return			index of its bucket
+	 */
+	static int bucketFor(long value) {
+		if (value < linearLimit)
+			return (int)value;
+		
+		// keep the top (subBucketBits + 1) bits of the value; the
+		// highest one is always set, the rest pick the sub-bucket
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - subBucketBits;
+		int subBucket = (int)(value >>> shift) - subBucketCount;
+		return linearLimit + (shift - 1) * subBucketCount + subBucket;
+	}
+	
+	/**
+	 * Finds the largest value counted in a bucket.
+	 * 
+	 * @param bucket	index of the bucket
+	 * @return			largest value counted in it
+	 */
+	static long highestValueIn(int bucket) {
+		if (bucket < linearLimit)
+			return bucket;
+		
+		int shift = (bucket - linearLimit) / subBucketCount + 1;
+		long subBucket = (bucket - linearLimit) % subBucketCount + subBucketCount;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,628 @@
+package com.berico.clavin.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import com.berico.clavin.GeoParser;
+import com.berico.clavin.extractor.ApacheExtractor;
+import com.berico.clavin.extractor.LocationExtractor;
+import com.berico.clavin.resolver.LocationResolver;
+import com.berico.clavin.resolver.ResolvedLocation;
+import com.berico.clavin.util.TextUtils;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoParsingPipeline.java
+ * 
+ *###################################################################*/
+
+/**
+ * Geoparses a whole corpus of documents, streaming them through
+ * separate extraction and resolution stages, and writing the results
+ * out as JSON Lines as soon as each document is done.
+ * 
+ * Documents are found on the calling thread, then handed through
+ * bounded queues to a pool of extraction threads, a pool of resolution
+ * threads, and finally a single writer thread. Files are only read by
+ * the extraction threads, which stream them through the
+ * {@link ApacheExtractor} a window at a time (other extractors get
+ * each file as a String), so from there on only the location names
+ * of each document are queued. Each stage works on
+ * different documents at the same time, and the bounded queues keep
+ * memory use flat however big the corpus is: a slow stage simply
+ * makes the ones ahead of it wait.
+ * 
+ * Resolution threads take whatever documents are waiting (up to
+ * {@link GeoParsingPipeline#setResolutionBatchSize}) and resolve them
+ * in one go with {@link LocationResolver#resolveLocationsBatch}, so
+ * names mentioned in several of them are only looked up once.
+ * 
+ * Results are written in the order documents finish, which isn't
+ * necessarily the order they were read; each line carries the id of
+ * its document. The {@link LocationExtractor} must be thread-safe (as
+ * the {@link ApacheExtractor} is).
+ * 
+ */
+public class GeoParsingPipeline {
+	
+	private final static Logger logger = Logger.getLogger(GeoParsingPipeline.class);
+	
+	// marks the end of the documents flowing through a queue
+	private static final WorkItem END = new WorkItem(null, null);
+	
+	// entity extractor to find location names in text
+	private final LocationExtractor extractor;
+	
+	// resolver to match location names against gazetteer records
+	private final LocationResolver resolver;
+	
+	// switch controlling use of fuzzy matching
+	private final boolean fuzzy;
+	
+	// number of threads in each stage
+	private int extractionThreads = Runtime.getRuntime().availableProcessors();
+	private int resolutionThreads = Runtime.getRuntime().availableProcessors();
+	
+	// number of documents each queue between stages may hold
+	private int queueCapacity = 256;
+	
+	// max number of documents resolved together
+	private int resolutionBatchSize = 32;
+	
+	/**
+	 * Builds a {@link GeoParsingPipeline} around an existing
+	 * {@link LocationExtractor} and {@link LocationResolver}.
+	 * 
+	 * @param extractor		finds location names in text (must be thread-safe)
+	 * @param resolver		matches location names against the gazetteer
+	 * @param fuzzy			switch controlling use of fuzzy matching
+	 */
+	public GeoParsingPipeline(LocationExtractor extractor, LocationResolver resolver, boolean fuzzy) {
+		this.extractor = extractor;
+		this.resolver = resolver;
+		this.fuzzy = fuzzy;
+	}
+	
+	/**
+	 * @param extractionThreads		number of threads extracting location names
+	 */
+	public void setExtractionThreads(int extractionThreads) {
+		if (extractionThreads < 1)
+			throw new IllegalArgumentException("extractionThreads must be greater than zero");
+		this.extractionThreads = extractionThreads;
+	}
+	
+	/**
+	 * @param resolutionThreads		number of threads resolving location names
+	 */
+	public void setResolutionThreads(int resolutionThreads) {
+		if (resolutionThreads < 1)
+			throw new IllegalArgumentException("resolutionThreads must be greater than zero");
+		this.resolutionThreads = resolutionThreads;
+	}
+	
+	/**
+	 * @param queueCapacity		number of documents each queue between stages may hold
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be greater than zero");
+		this.queueCapacity = queueCapacity;
+	}
+	
+	/**
+	 * @param resolutionBatchSize	max number of documents resolved together
+	 */
+	public void setResolutionBatchSize(int resolutionBatchSize) {
+		if (resolutionBatchSize < 1)
+			throw new IllegalArgumentException("resolutionBatchSize must be greater than zero");
+		this.resolutionBatchSize = resolutionBatchSize;
+	}
+	
+	/**
+	 * Geoparses every file under a directory (however deeply nested),
+	 * treating each file as a single document identified by its path.
+	 * 
+	 * @param directory		root of the corpus
+	 * @param out			destination for the JSON Lines
+	 * @return				number of documents processed
+	 * @throws IOException
+	 */
+	public long run(File directory, Writer out) throws IOException {
+		final List<File> pending = new ArrayList<File>();
+		pending.add(directory);
+		
+		return run(new DocumentSource() {
+			public WorkItem next() throws IOException {
+				// walk the directory tree depth-first, in name order
+				while (!pending.isEmpty()) {
+					File file = pending.remove(pending.size() - 1);
+					if (file.isDirectory()) {
+						File[] children = file.listFiles();
+						if (children == null)
+							throw new IOException("Unable to list " + file);
+						Arrays.sort(children);
+						for (int i = children.length - 1; i >= 0; i--)
+							pending.add(children[i]);
+					} else if (file.isFile()) {
+						// read by the extraction stage, not here
+						WorkItem item = new WorkItem(file.getPath(), null);
+						item.file = file;
+						return item;
+					}
+				}
+				return null;
+			}
+		}, out);
+	}
+	
+	/**
+	 * Geoparses a line-delimited stream of documents, treating each
+	 * line as a single document identified by its line number.
+	 * 
+	 * @param in			source of documents, one per line
+	 * @param out			destination for the JSON Lines
+	 * @return				number of documents processed
+	 * @throws IOException
+	 */
+	public long run(final BufferedReader in, Writer out) throws IOException {
+		return run(new DocumentSource() {
+			private long lineNumber = 0;
+			
+			public WorkItem next() throws IOException {
+				String line = in.readLine();
+				if (line == null)
+					return null;
+				return new WorkItem(String.valueOf(++lineNumber), line);
+			}
+		}, out);
+	}
+	
+	/**
+	 * Streams documents from the given source through the pipeline.
+	 */
+	private long run(DocumentSource source, Writer out) throws IOException {
+		
+		// queues connecting the stages
+		BlockingQueue<WorkItem> toExtract = new ArrayBlockingQueue<WorkItem>(queueCapacity);
+		BlockingQueue<WorkItem> toResolve = new ArrayBlockingQueue<WorkItem>(queueCapacity);
+		BlockingQueue<WorkItem> toWrite = new ArrayBlockingQueue<WorkItem>(queueCapacity);
+		
+		// first thing to go wrong that stops the whole pipeline
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		// let's see how long this takes...
+		long start = System.currentTimeMillis();
+		Progress progress = new Progress();
+		
+		ExecutorService threads = Executors.newFixedThreadPool(extractionThreads + resolutionThreads + 1);
+		try {
+			AtomicInteger extractors = new AtomicInteger(extractionThreads);
+			for (int i = 0; i < extractionThreads; i++)
+				threads.execute(new ExtractionStage(toExtract, toResolve, extractors, failure));
+			
+			AtomicInteger resolvers = new AtomicInteger(resolutionThreads);
+			for (int i = 0; i < resolutionThreads; i++)
+				threads.execute(new ResolutionStage(toResolve, toWrite, resolvers, failure));
+			
+			threads.execute(new WritingStage(toWrite, new JsonLinesWriter(out), progress, failure));
+			
+			// feed the pipeline, unless something's already broken
+			try {
+				WorkItem item;
+				while (failure.get() == null && (item = source.next()) != null) {
+					toExtract.put(item);
+					progress.documentsRead.incrementAndGet();
+				}
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			} catch (RuntimeException e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				// whatever happened, let the stages wind down
+				toExtract.put(END);
+			}
+			
+			threads.shutdown();
+			while (!threads.awaitTermination(10, TimeUnit.SECONDS))
+				logger.info(progress);
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while geoparsing", e);
+		} finally {
+			threads.shutdownNow();
+		}
+		
+		Throwable t = failure.get();
+		if (t != null)
+			throw new IOException("Geoparsing pipeline failed", t);
+		
+		long elapsedMillis = Math.max(1, System.currentTimeMillis() - start);
+		long documents = progress.documentsWritten.get();
+		logger.info(progress + "; " + (documents * 1000 / elapsedMillis) + " docs/sec.");
+		return documents;
+	}
+	
+	/**
+	 * Takes the next item off a queue, passing the end marker along to
+	 * the next stage once the last thread of this stage sees it.
+	 * 
+	 * @return		next item, or null if there's nothing left
+	 */
+	private static WorkItem take(BlockingQueue<WorkItem> in, BlockingQueue<WorkItem> out,
+			AtomicInteger liveThreads) throws InterruptedException {
+		WorkItem item = in.take();
+		if (item != END)
+			return item;
+		
+		// leave the marker for the other threads in this stage
+		in.put(END);
+		if (liveThreads.decrementAndGet() == 0)
+			out.put(END);
+		return null;
+	}
+	
+	/**
+	 * Throws away whatever's left on a queue once a stage thread has
+	 * failed, so the stages upstream aren't left blocked on a full
+	 * queue, and passes the end marker along as usual.
+	 */
+	private static void drain(BlockingQueue<WorkItem> in, BlockingQueue<WorkItem> out,
+			AtomicInteger liveThreads) {
+		try {
+			while (take(in, out, liveThreads) != null) {
+				// the pipeline has failed; nothing more to do with it
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Supplies the documents to be geoparsed, one at a time.
+	 */
+	private interface DocumentSource {
+		
+		/**
+		 * @return		next document, or null if there are no more
+		 * @throws IOException
+		 */
+		public WorkItem next() throws IOException;
+	}
+	
+	/**
+	 * A document on its way through the pipeline.
+	 */
+	private static class WorkItem {
+		
+		final String id;
+		
+		// dropped once the location names have been extracted
+		String text;
+		File file;
+		
+		List<String> locationNames;
+		List<ResolvedLocation> locations;
+		Throwable error;
+		
+		WorkItem(String id, String text) {
+			this.id = id;
+			this.text = text;
+		}
+	}
+	
+	/**
+	 * Extracts the location names from each document.
+	 */
+	private class ExtractionStage implements Runnable {
+		
+		private final BlockingQueue<WorkItem> in;
+		private final BlockingQueue<WorkItem> out;
+		private final AtomicInteger liveThreads;
+		private final AtomicReference<Throwable> failure;
+		
+		ExtractionStage(BlockingQueue<WorkItem> in, BlockingQueue<WorkItem> out, AtomicInteger liveThreads,
+				AtomicReference<Throwable> failure) {
+			this.in = in;
+			this.out = out;
+			this.liveThreads = liveThreads;
+			this.failure = failure;
+		}
+		
+		public void run() {
+			boolean finished = false;
+			try {
+				WorkItem item;
+				while ((item = take(in, out, liveThreads)) != null) {
+					if (item.error == null) {
+						try {
+							item.locationNames = extractLocationNames(item);
+						} catch (IOException e) {
+							// just this one document's problem
+							logger.error("Error reading " + item.file, e);
+							item.error = e;
+						} catch (RuntimeException e) {
+							logger.error("Error extracting location names from " + item.id, e);
+							item.error = e;
+						}
+					}
+					item.text = null;
+					item.file = null;
+					out.put(item);
+				}
+				finished = true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable t) {
+				// e.g., an Error on some pathological document, which
+				// stops the whole pipeline
+				logger.error("Extraction failed", t);
+				failure.compareAndSet(null, t);
+			} finally {
+				if (!finished && !Thread.currentThread().isInterrupted())
+					drain(in, out, liveThreads);
+			}
+		}
+	}
+	
+	/**
+	 * Extracts the location names from a document. Files are streamed
+	 * through the {@link ApacheExtractor} rather than read into memory
+	 * all at once.
+	 */
+	private List<String> extractLocationNames(WorkItem item) throws IOException {
+		if (item.file == null)
+			return extractor.extractLocationNames(item.text);
+		
+		// other extractors only take Strings
+		if (!(extractor instanceof ApacheExtractor))
+			return extractor.extractLocationNames(TextUtils.fileToString(item.file));
+		
+		// same charset as TextUtils.fileToString()
+		BufferedReader reader = new BufferedReader(new FileReader(item.file));
+		try {
+			return ((ApacheExtractor)extractor).extractLocationNames(reader);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Resolves the location names of whatever documents are waiting, a
+	 * batch at a time.
+	 */
+	private class ResolutionStage implements Runnable {
+		
+		private final BlockingQueue<WorkItem> in;
+		private final BlockingQueue<WorkItem> out;
+		private final AtomicInteger liveThreads;
+		private final AtomicReference<Throwable> failure;
+		
+		ResolutionStage(BlockingQueue<WorkItem> in, BlockingQueue<WorkItem> out, AtomicInteger liveThreads,
+				AtomicReference<Throwable> failure) {
+			this.in = in;
+			this.out = out;
+			this.liveThreads = liveThreads;
+			this.failure = failure;
+		}
+		
+		public void run() {
+			boolean finished = false;
+			try {
+				List<WorkItem> batch = new ArrayList<WorkItem>(resolutionBatchSize);
+				List<List<String>> locationNames = new ArrayList<List<String>>(resolutionBatchSize);
+				
+				WorkItem item;
+				while ((item = take(in, out, liveThreads)) != null) {
+					
+					// grab whatever else is ready, without waiting
+					batch.clear();
+					batch.add(item);
+					while (batch.size() < resolutionBatchSize && (item = in.peek()) != null && item != END) {
+						item = in.poll();
+						if (item == null)
+							break;
+						if (item == END) {
+							// raced with another thread; put it back
+							in.put(END);
+							break;
+						}
+						batch.add(item);
+					}
+					
+					locationNames.clear();
+					for (WorkItem each : batch) {
+						if (each.error == null)
+							locationNames.add(each.locationNames);
+					}
+					
+					try {
+						List<List<ResolvedLocation>> resolved = resolver.resolveLocationsBatch(locationNames, fuzzy);
+						int i = 0;
+						for (WorkItem each : batch) {
+							if (each.error == null)
+								each.locations = resolved.get(i++);
+						}
+					} catch (Exception e) {
+						logger.error("Error resolving location names", e);
+						for (WorkItem each : batch) {
+							if (each.error == null)
+								each.error = e;
+						}
+					}
+					
+					for (WorkItem each : batch) {
+						each.locationNames = null;
+						out.put(each);
+					}
+				}
+				finished = true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable t) {
+				// e.g., an Error while resolving, which stops the whole
+				// pipeline
+				logger.error("Resolution failed", t);
+				failure.compareAndSet(null, t);
+			} finally {
+				if (!finished && !Thread.currentThread().isInterrupted())
+					drain(in, out, liveThreads);
+			}
+		}
+	}
+	
+	/**
+	 * Writes out the results for each document as it comes through.
+	 */
+	private static class WritingStage implements Runnable {
+		
+		private final BlockingQueue<WorkItem> in;
+		private final JsonLinesWriter writer;
+		private final Progress progress;
+		private final AtomicReference<Throwable> failure;
+		
+		WritingStage(BlockingQueue<WorkItem> in, JsonLinesWriter writer, Progress progress, AtomicReference<Throwable> failure) {
+			this.in = in;
+			this.writer = writer;
+			this.progress = progress;
+			this.failure = failure;
+		}
+		
+		public void run() {
+			boolean finished = false;
+			try {
+				WorkItem item;
+				while ((item = in.take()) != END) {
+					// once writing has failed, just keep the queue
+					// moving so the other stages can finish up
+					if (failure.get() != null)
+						continue;
+					try {
+						if (item.error != null) {
+							writer.writeError(item.id, item.error);
+							progress.documentsFailed.incrementAndGet();
+						} else {
+							writer.write(item.id, item.locations);
+							progress.locationsWritten.addAndGet(item.locations.size());
+						}
+						progress.documentsWritten.incrementAndGet();
+					} catch (IOException e) {
+						logger.error("Error writing results", e);
+						failure.compareAndSet(null, e);
+					}
+				}
+				finished = true;
+				writer.flush();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable t) {
+				logger.error("Error writing results", t);
+				failure.compareAndSet(null, t);
+			} finally {
+				// keep the queue moving so the other stages can finish up
+				if (!finished && !Thread.currentThread().isInterrupted()) {
+					try {
+						while (in.take() != END) {
+							// the pipeline has failed; nothing more to do with it
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Thread-safe counters tracking how the pipeline is going.
+	 */
+	private static class Progress {
+		
+		final AtomicLong documentsRead = new AtomicLong();
+		final AtomicLong documentsWritten = new AtomicLong();
+		final AtomicLong documentsFailed = new AtomicLong();
+		final AtomicLong locationsWritten = new AtomicLong();
+		
+		@Override
+		public String toString() {
+			return documentsRead.get() + " documents read, " + documentsWritten.get() + " written ("
+					+ documentsFailed.get() + " failed), " + locationsWritten.get() + " locations resolved";
+		}
+	}
+	
+	/**
+	 * Geoparses a corpus from the command line, using the default
+	 * {@link ApacheExtractor} and the Lucene index in ./IndexDirectory.
+	 * 
+	 * @param args				input (a directory of documents, a file
+	 * 							with one document per line, or "-" for
+	 * 							stdin), and optionally an output file
+	 * 							(stdout if missing)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: GeoParsingPipeline <directory | file | -> [output file]");
+			System.exit(1);
+		}
+		
+		GeoParsingPipeline pipeline = new GeoParsingPipeline(new ApacheExtractor(),
+				new LocationResolver(new File(GeoParser.DEFAULT_INDEX_PATH), 1, 1), false);
+		
+		Writer out = new BufferedWriter(new OutputStreamWriter(args.length > 1
+				? new FileOutputStream(args[1]) : System.out, "UTF-8"));
+		try {
+			File input = new File(args[0]);
+			if (input.isDirectory())
+				pipeline.run(input, out);
+			else pipeline.run(new BufferedReader(new InputStreamReader(
+					args[0].equals("-") ? System.in : new FileInputStream(input), "UTF-8")), out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.berico.clavin.pipeline;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.berico.clavin.gazetteer.GeoName;
+import com.berico.clavin.resolver.ResolvedLocation;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * JsonLinesWriter.java
+ * 
+ *###################################################################*/
+
+/**
+ * Writes geoparsing results as JSON Lines, i.e., one JSON object per
+ * document, each on a line of its own.
+ * 
+ * For example:
+ * 
+ * {"id":"doc1","locations":[{"inputName":"Boston","matchedName":"boston",
+ * "geonameID":4930956,"name":"Boston","countryCode":"US","admin1Code":"MA",
+ * "latitude":42.35843,"longitude":-71.05977,"population":617594,
+ * "confidence":1.0,"fuzzy":false}]}
+ * 
+ * (all on one line), or {"id":"doc2","error":"..."} for a document
+ * that couldn't be processed.
+ * 
+ */
+public class JsonLinesWriter {
+	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	// where the JSON goes
+	private final Writer out;
+	
+	// reused for building each line
+	private final StringBuilder line = new StringBuilder(1024);
+	
+	/**
+	 * Builds a {@link JsonLinesWriter} writing to the given Writer.
+	 * 
+	 * @param out		destination for the JSON Lines
+	 */
+	public JsonLinesWriter(Writer out) {
+		this.out = out;
+	}
+	
+	/**
+	 * Writes the locations resolved for a single document.
+	 * 
+	 * @param id			identifies the document (e.g., file name)
+	 * @param locations		locations resolved from the document
+	 * @throws IOException
+	 */
+	public void write(String id, List<ResolvedLocation> locations) throws IOException {
+		line.setLength(0);
+		line.append("{\"id\":");
+		appendString(id);
+		line.append(",\"locations\":[");
+		for (int i = 0; i < locations.size(); i++) {
+			if (i > 0)
+				line.append(',');
+			appendLocation(locations.get(i));
+		}
+		line.append("]}\n");
+		out.write(line.toString());
+	}
+	
+	/**
+	 * Writes the reason a single document couldn't be processed.
+	 * 
+	 * @param id			identifies the document (e.g., file name)
+	 * @param error			what went wrong
+	 * @throws IOException
+	 */
+	public void writeError(String id, Throwable error) throws IOException {
+		line.setLength(0);
+		line.append("{\"id\":");
+		appendString(id);
+		line.append(",\"error\":");
+		appendString(error.toString());
+		line.append("}\n");
+		out.write(line.toString());
+	}
+	
+	/**
+	 * Flushes the underlying Writer.
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	private void appendLocation(ResolvedLocation location) {
+		GeoName geoname = location.geoname;
+		line.append("{\"inputName\":");
+		appendString(location.inputName);
+		line.append(",\"matchedName\":");
+		appendString(location.matchedName);
+		line.append(",\"geonameID\":").append(geoname.geonameID);
+		line.append(",\"name\":");
+		appendString(geoname.name);
+		line.append(",\"countryCode\":");
+		appendString(geoname.primaryCountryCode.name());
+		line.append(",\"admin1Code\":");
+		appendString(geoname.admin1Code);
+		line.append(",\"latitude\":").append(geoname.latitude);
+		line.append(",\"longitude\":").append(geoname.longitude);
+		line.append(",\"population\":").append(geoname.population);
+		line.append(",\"confidence\":").append(location.confidence);
+		line.append(",\"fuzzy\":").append(location.fuzzy);
+		line.append('}');
+	}
+	
+	// quoted & escaped, or null
+	private void appendString(String s) {
+		if (s == null) {
+			line.append("null");
+			return;
+		}
+		line.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': line.append("\\\""); break;
+				case '\\': line.append("\\\\"); break;
+				case '\n': line.append("\\n"); break;
+				case '\r': line.append("\\r"); break;
+				case '\t': line.append("\\t"); break;
+				default:
+					// other control chars, plus the line & paragraph
+					// separators some JSON readers trip over
+					if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+						line.append("\\u");
+						for (int shift = 12; shift >= 0; shift -= 4)
+							line.append(HEX_DIGITS[(c >> shift) & 0xF]);
+					} else line.append(c);
+			}
+		}
+		line.append('"');
+	}
+}
@@ -0,0 +1,279 @@
+package com.berico.clavin.resolver;
+
+import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * CandidateCache.java
+ * 
+ *###################################################################*/
+
+/**
+ * Bounded, thread-safe cache of candidate matches for location names,
+ * sitting in front of the Lucene index in {@link LocationResolver}.
+ * 
+ * News feeds tend to mention the same handful of places over and
+ * over, so there's no sense in going back to the index every time.
+ * Entries are keyed on the normalized (i.e., analyzed) location name,
+ * whether fuzzy matching was allowed, and the max hit depth, so a
+ * single cache may safely be shared by several resolvers, as long as
+ * they all use the same index.
+ * 
+ * The cache is split into independently locked segments, each of
+ * which evicts its least-recently-used entry once full.
+ * 
+ */
+public class CandidateCache {
+	
+	// reasonable default for the total number of cached names
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	
+	// reasonable default for the number of independently locked segments
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+	
+	// independently locked LRU maps, selected by key hash
+	private final Segment[] segments;
+	
+	// usage statistics
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	
+	/**
+	 * Builds a {@link CandidateCache} holding up to
+	 * {@link CandidateCache#DEFAULT_MAX_SIZE} location names.
+	 */
+	public CandidateCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * Builds a {@link CandidateCache} holding up to the given number
+	 * of location names.
+	 * 
+	 * @param maxSize		max number of location names to cache
+	 */
+	public CandidateCache(int maxSize) {
+		this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+	}
+	
+	/**
+	 * Builds a {@link CandidateCache} holding up to the given number
+	 * of location names, spread across the given number of segments.
+	 * 
+	 * @param maxSize				max number of location names to cache
+	 * @param concurrencyLevel		number of independently locked segments
+	 */
+	public CandidateCache(int maxSize, int concurrencyLevel) {
+		
+		// sanity-check input params
+		if (maxSize < 1)
+			throw new InvalidParameterException("maxSize must be greater than zero");
+		if (concurrencyLevel < 1)
+			throw new InvalidParameterException("concurrencyLevel must be greater than zero");
+		
+		// don't bother with more segments than entries
+		int segmentCount = Math.min(concurrencyLevel, maxSize);
+		int segmentSize = (maxSize + segmentCount - 1) / segmentCount;
+		
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+			segments[i] = new Segment(segmentSize);
+	}
+	
+	/**
+	 * Looks up the cached candidate matches for a location name.
+	 * 
+	 * @param normalizedName	analyzed form of the location name
+	 * @param fuzzy				whether fuzzy matching was allowed
+	 * @param maxHitDepth		max number of candidates fetched from the index
+	 * @return					cached (read-only) candidates, or null if not cached
+	 */
+	public List<ResolvedLocation> get(String normalizedName, boolean fuzzy, int maxHitDepth) {
+		Key key = new Key(normalizedName, fuzzy, maxHitDepth);
+		List<ResolvedLocation> candidates = segmentFor(key).getEntry(key);
+		
+		if (candidates == null)
+			missCount.incrementAndGet();
+		else hitCount.incrementAndGet();
+		
+		return candidates;
+	}
+	
+	/**
+	 * Caches the candidate matches for a location name.
+	 * 
+	 * The cached list is shared between every caller asking for the
+	 * same name, so it must not be modified once it's been cached.
+	 * 
+	 * @param normalizedName	analyzed form of the location name
+	 * @param fuzzy				whether fuzzy matching was allowed
+	 * @param maxHitDepth		max number of candidates fetched from the index
+	 * @param candidates		candidate matches for the location name
+	 */
+	public void put(String normalizedName, boolean fuzzy, int maxHitDepth, List<ResolvedLocation> candidates) {
+		Key key = new Key(normalizedName, fuzzy, maxHitDepth);
+		segmentFor(key).putEntry(key, Collections.unmodifiableList(candidates));
+	}
+	
+	/**
+	 * Empties the cache. Usage statistics are left alone.
+	 */
+	public void clear() {
+		for (Segment segment : segments)
+			segment.clearEntries();
+	}
+	
+	/**
+	 * @return	number of location names currently cached
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments)
+			size += segment.entryCount();
+		return size;
+	}
+	
+	/**
+	 * @return	number of lookups that found a cached entry
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	
+	/**
+	 * @return	number of lookups that didn't find a cached entry
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+	
+	/**
+	 * @return	number of entries evicted to make room for new ones
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+	
+	/**
+	 * For pretty-printing.
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return "CandidateCache [size: " + size() + ", hits: " + getHitCount() + ", misses: "
+				+ getMissCount() + ", evictions: " + getEvictionCount() + "]";
+	}
+	
+	/**
+	 * Picks the segment responsible for a given key.
+	 */
+	private Segment segmentFor(Key key) {
+		// spread the bits around a bit, since String hashes of short
+		// names don't vary much in the low bits
+		int hash = key.hashCode();
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return segments[(hash & 0x7fffffff) % segments.length];
+	}
+	
+	/**
+	 * Cache key combining everything that affects the candidates
+	 * returned for a location name.
+	 */
+	private static class Key {
+		
+		private final String normalizedName;
+		private final boolean fuzzy;
+		private final int maxHitDepth;
+		private final int hash;
+		
+		Key(String normalizedName, boolean fuzzy, int maxHitDepth) {
+			this.normalizedName = normalizedName;
+			this.fuzzy = fuzzy;
+			this.maxHitDepth = maxHitDepth;
+			this.hash = (normalizedName.hashCode() * 31 + maxHitDepth) * 2 + (fuzzy ? 1 : 0);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key)obj;
+			return fuzzy == other.fuzzy && maxHitDepth == other.maxHitDepth
+					&& normalizedName.equals(other.normalizedName);
+		}
+	}
+	
+	/**
+	 * A single LRU map guarded by its own lock.
+	 */
+	@SuppressWarnings("serial")
+	private class Segment extends LinkedHashMap<Key, List<ResolvedLocation>> {
+		
+		private final int maxSize;
+		
+		Segment(int maxSize) {
+			// access-order, so iteration starts at the least recently used
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+		
+		synchronized List<ResolvedLocation> getEntry(Key key) {
+			return get(key);
+		}
+		
+		synchronized void putEntry(Key key, List<ResolvedLocation> candidates) {
+			put(key, candidates);
+		}
+		
+		synchronized void clearEntries() {
+			clear();
+		}
+		
+		synchronized int entryCount() {
+			return size();
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, List<ResolvedLocation>> eldest) {
+			if (size() > maxSize) {
+				evictionCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package com.berico.clavin.resolver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.berico.clavin.gazetteer.CountryCode;
+import com.berico.clavin.gazetteer.GeoName;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * CandidateComboSearch.java
+ * 
+ *###################################################################*/
+
+/**
+ * Branch-and-bound search for the best-scoring combination of
+ * candidate matches, used by
+ * {@link LocationResolver#pickBestCandidates(List<List<ResolvedLocation>>, int[])}.
+ * 
+ * A combination is scored by the number of distinct country codes and
+ * admin1 codes it contains (fewer is better). Since adding a candidate
+ * to a partial combination can never reduce that number, any partial
+ * combination that is already no better than the best one found so
+ * far can be abandoned along with every combination that extends it.
+ * This gives exactly the same answer as enumerating the full cross
+ * product of candidates, without ever building it.
+ * 
+ * Distinct codes are tracked with primitive counters, keyed by
+ * country code ordinal and by admin1 codes interned once up front,
+ * which are updated as each candidate is swapped in and out. No
+ * objects are allocated while evaluating a combination.
+ * 
+ * Combinations are explored in the same order the exhaustive
+ * enumeration used to produce them, and only strict improvements are
+ * accepted, so ties are broken the same way as well.
+ * 
+ * A location name mentioned several times in a document is searched
+ * as a single entry, weighted by its number of mentions, which scores
+ * combinations exactly as if each mention had been an entry of its
+ * own but keeps the number of entries down to distinct names.
+ * 
+ */
+class CandidateComboSearch {
+	
+	// list of lists of candidate matches for each location name
+	private final List<List<ResolvedLocation>> allCandidates;
+	
+	// number of location names being resolved together
+	private final int size;
+	
+	// total number of mentions of those location names
+	private final float mentions;
+	
+	// number of possible country codes, so we can count them by ordinal
+	private static final int countryCodeCount = CountryCode.values().length;
+	
+	// country code ordinal & interned admin1 id for each candidate,
+	// indexed the same way as allCandidates
+	private final int[][] countryIds;
+	private final int[][] admin1Ids;
+	
+	// running counts of each country code & admin1 code in the
+	// partial combination currently being explored
+	private final int[] countryCounts = new int[countryCodeCount];
+	private final int[] admin1Counts;
+	
+	// number of distinct country codes + admin1 codes in the partial
+	// combination currently being explored
+	private int distinct;
+	
+	// index of the candidate chosen for each location name in the
+	// partial combination currently being explored
+	private final int[] currentIndices;
+	
+	// best combination found during the current pass
+	private final int[] passBestIndices;
+	private int passBestDistinct;
+	
+	// parameters for the current pass
+	private int depth;
+	private float scoreToBeat;
+	
+	// number of (partial) combinations scored so far
+	private long combosEvaluated;
+	
+	// best combination found across all passes
+	private List<ResolvedLocation> bestCombo = new ArrayList<ResolvedLocation>();
+	private int[] bestIndices = new int[0];
+	
+	/**
+	 * Builds a search in which each location name is mentioned once.
+	 * 
+	 * @param allCandidates	list of lists of candidate matches for location names
+	 */
+	CandidateComboSearch(List<List<ResolvedLocation>> allCandidates) {
+		this(allCandidates, null);
+	}
+	
+	/**
+	 * Builds a search in which each location name may be mentioned
+	 * several times.
+	 * 
+	 * @param allCandidates	list of lists of candidate matches for location names
+	 * @param mentionCounts	number of mentions of each location name, or
+	 * 						<code>null</code> if each is mentioned once
+	 */
+	CandidateComboSearch(List<List<ResolvedLocation>> allCandidates, int[] mentionCounts) {
+		this.allCandidates = allCandidates;
+		this.size = allCandidates.size();
+		
+		int totalMentions = size;
+		if (mentionCounts != null) {
+			totalMentions = 0;
+			for (int i = 0; i < size; i++)
+				totalMentions += mentionCounts[i];
+		}
+		this.mentions = totalMentions;
+		this.currentIndices = new int[size];
+		this.passBestIndices = new int[size];
+		
+		// look up the codes for every candidate once, up front, so
+		// that scoring a combination is nothing but array arithmetic
+		Map<String, Integer> admin1Interned = new HashMap<String, Integer>();
+		countryIds = new int[size][];
+		admin1Ids = new int[size][];
+		for (int i = 0; i < size; i++) {
+			List<ResolvedLocation> candidates = allCandidates.get(i);
+			countryIds[i] = new int[candidates.size()];
+			admin1Ids[i] = new int[candidates.size()];
+			for (int j = 0; j < candidates.size(); j++) {
+				GeoName geoname = candidates.get(j).geoname;
+				countryIds[i][j] = geoname.primaryCountryCode.ordinal();
+				Integer admin1Id = admin1Interned.get(geoname.admin1Code);
+				if (admin1Id == null) {
+					admin1Id = admin1Interned.size();
+					admin1Interned.put(geoname.admin1Code, admin1Id);
+				}
+				admin1Ids[i][j] = admin1Id;
+			}
+		}
+		admin1Counts = new int[admin1Interned.size()];
+	}
+	
+	/**
+	 * Searches all combinations of candidates, taking no more than the
+	 * first <code>depth</code> candidates for each location name, for
+	 * one that scores strictly higher than <code>scoreToBeat</code>.
+	 * 
+	 * @param depth			max depth into each list of candidates
+	 * @param scoreToBeat	best score seen so far
+	 * @return				score of the best combination found, or
+	 * 						<code>scoreToBeat</code> if none beat it
+	 */
+	float search(int depth, float scoreToBeat) {
+		
+		// nothing to choose from
+		if (size == 0)
+			return scoreToBeat;
+		
+		this.depth = depth;
+		this.scoreToBeat = scoreToBeat;
+		this.passBestDistinct = Integer.MAX_VALUE;
+		
+		// first recursive call starts at the first location name
+		explore(0);
+		
+		// nothing found during this pass beat the previous best
+		if (passBestDistinct == Integer.MAX_VALUE)
+			return scoreToBeat;
+		
+		// materialize the winning combination, once per pass
+		bestCombo = new ArrayList<ResolvedLocation>(size);
+		for (int i = 0; i < size; i++)
+			bestCombo.add(allCandidates.get(i).get(passBestIndices[i]));
+		bestIndices = passBestIndices.clone();
+		
+		return score(passBestDistinct);
+	}
+	
+	/**
+	 * Best combination of candidates found by any call to
+	 * {@link CandidateComboSearch#search(int, float)} so far.
+	 * 
+	 * @return	one candidate for each location name, or an empty list
+	 * 			if no combination has been accepted yet
+	 */
+	List<ResolvedLocation> getBestCombo() {
+		return bestCombo;
+	}
+	
+	/**
+	 * Positions of the candidates in the best combination found so
+	 * far, within their lists of candidates.
+	 * 
+	 * @return	index of the chosen candidate for each location name, or
+	 * 			an empty array if no combination has been accepted yet
+	 */
+	int[] getBestIndices() {
+		return bestIndices;
+	}
+	
+	/**
+	 * Number of combinations of candidates, partial or complete,
+	 * scored by all calls to {@link CandidateComboSearch#search(int, float)}
+	 * so far. Gives an idea of how much work the search has done.
+	 * 
+	 * @return	number of combinations scored
+	 */
+	long getCombosEvaluated() {
+		return combosEvaluated;
+	}
+	
+	/**
+	 * Calculates the score for a combination based on commonality of
+	 * country codes & admin1 codes, and the cost of searching this
+	 * deep.
+	 * 
+	 * TODO: tune this score calculation!
+	 * 
+	 * @param distinctCodes		number of distinct country codes + admin1 codes
+	 * @return					heuristic score for the combination
+	 */
+	private float score(int distinctCodes) {
+		return (mentions / distinctCodes) / depth;
+	}
+	
+	/**
+	 * Recursive helper choosing a candidate for the location name at
+	 * the given index, then moving on to the next one.
+	 * 
+	 * @param index		location name we're choosing a candidate for
+	 */
+	private void explore(int index) {
+		
+		// stopping condition: a full combination has been chosen, and
+		// it must be better than anything seen so far or it would
+		// have been pruned already
+		if (index == size) {
+			passBestDistinct = distinct;
+			System.arraycopy(currentIndices, 0, passBestIndices, 0, size);
+			return;
+		}
+		
+		int limit = Math.min(countryIds[index].length, depth);
+		for (int j = 0; j < limit; j++) {
+			push(index, j);
+			combosEvaluated++;
+			
+			// only go deeper if some extension of this partial
+			// combination could still be an improvement
+			if (distinct < passBestDistinct && score(distinct) > scoreToBeat) {
+				currentIndices[index] = j;
+				explore(index + 1);
+			}
+			
+			pop(index, j);
+		}
+	}
+	
+	/**
+	 * Adds a candidate to the partial combination, updating the
+	 * running counts.
+	 * 
+	 * @param index		location name the candidate belongs to
+	 * @param j			position of the candidate in its list
+	 */
+	private void push(int index, int j) {
+		if (countryCounts[countryIds[index][j]]++ == 0)
+			distinct++;
+		if (admin1Counts[admin1Ids[index][j]]++ == 0)
+			distinct++;
+	}
+	
+	/**
+	 * Removes a candidate from the partial combination, updating the
+	 * running counts.
+	 * 
+	 * @param index		location name the candidate belongs to
+	 * @param j			position of the candidate in its list
+	 */
+	private void pop(int index, int j) {
+		if (--countryCounts[countryIds[index][j]] == 0)
+			distinct--;
+		if (--admin1Counts[admin1Ids[index][j]] == 0)
+			distinct--;
+	}
+}
@@ -0,0 +1,305 @@
+package com.berico.clavin.resolver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import com.berico.clavin.index.DirectoryStrategy;
+import com.berico.clavin.metrics.GeoParserMetrics;
+import com.berico.clavin.metrics.LatencyHistogram;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * IndexWarmer.java
+ * 
+ *###################################################################*/
+
+/**
+ * Warms up a {@link LocationResolver} before it takes real traffic,
+ * by replaying location name lookups against it until their latency
+ * stops improving.
+ * 
+ * Right after startup, lookups pay for cold OS page cache and cold
+ * Lucene term dictionaries, which can take thousands of requests to
+ * wear off. The warmer replays a recorded query log, or a list of the
+ * most popular location names, in windows of
+ * {@link IndexWarmer#setWindowSize} lookups, and keeps going until the
+ * 99th percentile latency of successive windows is within
+ * {@link IndexWarmer#setTolerance} of each other. It can also read
+ * every index file through the index directory beforehand (for an
+ * MMapDirectory, touching every mapped page), so the page cache
+ * doesn't have to fill one random read at a time.
+ * 
+ * Once {@link IndexWarmer#warmUp} has finished, {@link IndexWarmer#isWarm}
+ * says so -- e.g., for a health check that keeps a load balancer from
+ * sending traffic until then.
+ * 
+ * Lookups are made with the resolver's candidate cache and metrics
+ * turned off, so it shouldn't be handling any other requests at the
+ * same time.
+ * 
+ */
+public class IndexWarmer {
+	
+	private final static Logger logger = Logger.getLogger(IndexWarmer.class);
+	
+	// reasonable default for the number of lookups per measurement
+	public static final int DEFAULT_WINDOW_SIZE = 200;
+	
+	// reasonable default for how close successive p99s must be
+	public static final double DEFAULT_TOLERANCE = 0.1;
+	
+	// reasonable default for when to give up on the p99 settling
+	public static final int DEFAULT_MAX_LOOKUPS = 100000;
+	
+	// number of windows in a row whose p99 must agree
+	private static final int settledWindows = 3;
+	
+	// resolver being warmed up
+	private final LocationResolver resolver;
+	
+	// whether lookups fall back to fuzzy matching, as in production
+	private boolean fuzzy;
+	
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private double tolerance = DEFAULT_TOLERANCE;
+	private int maxLookups = DEFAULT_MAX_LOOKUPS;
+	
+	// p99 latency of each window replayed so far, in nanoseconds
+	private final List<Long> windowLatencies = new ArrayList<Long>();
+	
+	// number of lookups replayed so far
+	private int lookups;
+	
+	private volatile boolean warm;
+	
+	/**
+	 * Builds an {@link IndexWarmer} for the given resolver.
+	 * 
+	 * @param resolver		resolver to be warmed up
+	 */
+	public IndexWarmer(LocationResolver resolver) {
+		this.resolver = resolver;
+	}
+	
+	/**
+	 * Sets whether lookups fall back to fuzzy matching, which should
+	 * match how the resolver is used in production. Off by default.
+	 * 
+	 * @param fuzzy		switch for turning on/off fuzzy matching
+	 */
+	public void setFuzzy(boolean fuzzy) {
+		this.fuzzy = fuzzy;
+	}
+	
+	/**
+	 * Sets the number of lookups whose p99 latency is measured at a
+	 * time.
+	 * 
+	 * @param windowSize	number of lookups per window
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize < 1)
+			throw new IllegalArgumentException("windowSize must be greater than zero");
+		this.windowSize = windowSize;
+	}
+	
+	/**
+	 * Sets how close the p99 latencies of successive windows must be
+	 * for them to have settled, as a fraction of the previous window's.
+	 * 
+	 * @param tolerance		allowed relative change in p99
+	 */
+	public void setTolerance(double tolerance) {
+		if (tolerance < 0)
+			throw new IllegalArgumentException("tolerance must not be negative");
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Sets the number of lookups after which the warmer gives up on
+	 * the p99 latency settling.
+	 * 
+	 * @param maxLookups	max number of lookups to replay
+	 */
+	public void setMaxLookups(int maxLookups) {
+		if (maxLookups < 1)
+			throw new IllegalArgumentException("maxLookups must be greater than zero");
+		this.maxLookups = maxLookups;
+	}
+	
+	/**
+	 * Reads a query log to be replayed: one request per line, holding
+	 * the location names looked up by that request separated by tabs.
+	 * A list of popular location names, one per line, will do too.
+	 * 
+	 * @param file		UTF-8 encoded query log
+	 * @return			location names of each request, skipping blank lines
+	 * @throws IOException
+	 */
+	public static List<List<String>> readQueryLog(File file) throws IOException {
+		List<List<String>> queries = new ArrayList<List<String>>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().length() > 0)
+					queries.add(Arrays.asList(line.split("\t")));
+			}
+		} finally {
+			in.close();
+		}
+		return queries;
+	}
+	
+	/**
+	 * Reads every file in the resolver's index directory from start to
+	 * finish, pulling it into the OS page cache.
+	 * 
+	 * @return		number of bytes read
+	 * @throws IOException
+	 */
+	public long preloadIndex() throws IOException {
+		long started = System.nanoTime();
+		long bytesRead = DirectoryStrategy.preload(resolver.getIndexDirectory());
+		
+		logger.info("Preloaded " + bytesRead + " bytes of index in "
+				+ (System.nanoTime() - started) / 1000000 + " ms.");
+		return bytesRead;
+	}
+	
+	/**
+	 * Replays the given requests against the resolver, over and over
+	 * if need be, until the p99 latency has settled or
+	 * {@link IndexWarmer#setMaxLookups} lookups have been made. Either
+	 * way, the resolver is considered warm afterwards.
+	 * 
+	 * @param queries		location names of each request to be replayed
+	 * @return				true if the p99 latency settled
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public boolean warmUp(List<List<String>> queries) throws IOException, ParseException {
+		if (queries == null || queries.isEmpty())
+			throw new IllegalArgumentException("nothing to warm up with");
+		
+		// measure the index, not the cache, and keep warm-up lookups
+		// out of the production metrics
+		CandidateCache candidateCache = resolver.getCandidateCache();
+		GeoParserMetrics metrics = resolver.getMetrics();
+		resolver.setCandidateCache(null);
+		resolver.setMetrics(null);
+		
+		boolean settled = false;
+		try {
+			LatencyHistogram window = new LatencyHistogram();
+			int next = 0;
+			while (!settled && lookups < maxLookups) {
+				window.reset();
+				for (int i = 0; i < windowSize && lookups < maxLookups; i++, lookups++) {
+					List<String> query = queries.get(next);
+					next = (next + 1) % queries.size();
+					
+					long started = System.nanoTime();
+					resolver.resolveLocations(query, fuzzy);
+					window.record(System.nanoTime() - started);
+				}
+				
+				windowLatencies.add(window.getValueAtPercentile(99));
+				logger.debug("Warm-up window " + windowLatencies.size() + ": p99 "
+						+ window.getValueAtPercentile(99) / 1000 + " us");
+				settled = hasSettled();
+			}
+		} finally {
+			resolver.setCandidateCache(candidateCache);
+			resolver.setMetrics(metrics);
+		}
+		
+		if (settled)
+			logger.info("Warm after " + lookups + " lookups; p99 settled at "
+					+ getSettledLatency() / 1000 + " us.");
+		else logger.warn("p99 still unsettled after " + lookups + " lookups; calling it warm anyway.");
+		
+		warm = true;
+		return settled;
+	}
+	
+	/**
+	 * Whether {@link IndexWarmer#warmUp} has finished, e.g., for a
+	 * health check.
+	 * 
+	 * @return	true if the resolver is ready for traffic
+	 */
+	public boolean isWarm() {
+		return warm;
+	}
+	
+	/**
+	 * @return	number of lookups replayed so far
+	 */
+	public int getLookupCount() {
+		return lookups;
+	}
+	
+	/**
+	 * @return	p99 latency of each window replayed so far, in nanoseconds
+	 */
+	public List<Long> getWindowLatencies() {
+		return new ArrayList<Long>(windowLatencies);
+	}
+	
+	/**
+	 * @return	p99 latency of the last window replayed, in
+	 * 			nanoseconds, or zero if none have been
+	 */
+	public long getSettledLatency() {
+		return windowLatencies.isEmpty() ? 0 : windowLatencies.get(windowLatencies.size() - 1);
+	}
+	
+	/**
+	 * Checks whether the last few windows' p99 latencies are all
+	 * within tolerance of the window before them.
+	 */
+	private boolean hasSettled() {
+		int count = windowLatencies.size();
+		if (count <= settledWindows)
+			return false;
+		
+		for (int i = count - settledWindows; i < count; i++) {
+			long previous = windowLatencies.get(i - 1);
+			if (Math.abs(windowLatencies.get(i) - previous) > tolerance * previous)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,192 @@
+package com.berico.clavin.resolver;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import com.berico.clavin.index.NameKeys;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * LocationQueryBuilder.java
+ * 
+ *###################################################################*/
+
+/**
+ * Builds the Lucene queries used to look up location names in the
+ * gazetteer index.
+ * 
+ * Exact matches are looked up by a single term against the normalized
+ * key stored with each name (see {@link NameKeys}). Other queries are
+ * assembled directly from the tokens produced by the index analyzer,
+ * rather than by escaping the location name and running it through
+ * the classic query parser grammar. The resulting queries are the
+ * same ones
+ * {@link org.apache.lucene.queryparser.analyzing.AnalyzingQueryParser}
+ * would produce for <code>"location name"</code> (exact) and
+ * <code>location name~</code> (fuzzy).
+ * 
+ */
+public class LocationQueryBuilder {
+	
+	// edit distance used for fuzzy matching, same as the query
+	// parser's default for the "~" operator
+	public static final int FUZZY_MAX_EDITS = 2;
+	
+	// name of the index field location names are matched against
+	private final String field;
+	
+	// analyzer used when building the index
+	private final Analyzer analyzer;
+	
+	/**
+	 * Sole constructor.
+	 * 
+	 * @param field			name of the index field to query
+	 * @param analyzer		analyzer used when building the index
+	 */
+	public LocationQueryBuilder(String field, Analyzer analyzer) {
+		this.field = field;
+		this.analyzer = analyzer;
+	}
+	
+	/**
+	 * Runs a location name through the index analyzer.
+	 * 
+	 * Do this once per location name, and pass the result to
+	 * {@link LocationQueryBuilder#buildExactQuery(List<String>)} and
+	 * {@link LocationQueryBuilder#buildFuzzyQuery(List<String>)}.
+	 * 
+	 * @param locationName	name of the geographic location
+	 * @return				analyzed tokens for the name
+	 * @throws IOException
+	 */
+	public List<String> analyze(String locationName) throws IOException {
+		List<String> tokens = new ArrayList<String>();
+		TokenStream stream = analyzer.tokenStream(field, new StringReader(locationName));
+		CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+		try {
+			stream.reset();
+			while (stream.incrementToken())
+				tokens.add(termAttribute.toString());
+			stream.end();
+		} finally {
+			stream.close();
+		}
+		return tokens;
+	}
+	
+	/**
+	 * Normalized form of a location name, i.e., its analyzed tokens
+	 * joined by single spaces.
+	 * 
+	 * @param tokens	analyzed tokens for a location name
+	 * @return			normalized location name
+	 */
+	public String normalize(List<String> tokens) {
+		if (tokens.size() == 1)
+			return tokens.get(0);
+		
+		StringBuilder normalized = new StringBuilder();
+		for (String token : tokens) {
+			if (normalized.length() > 0)
+				normalized.append(' ');
+			normalized.append(token);
+		}
+		return normalized.toString();
+	}
+	
+	/**
+	 * Builds a query matching names whose normalized key is exactly the
+	 * given one, i.e., names that differ from the location name only
+	 * in case, whitespace or accents.
+	 * 
+	 * @param normalizedName	normalized location name, as from
+	 * 							{@link LocationQueryBuilder#normalize(List<String>)}
+	 * @return					a {@link TermQuery} on the key field
+	 */
+	public Query buildKeyQuery(String normalizedName) {
+		return new TermQuery(new Term(NameKeys.FIELD, NameKeys.fold(normalizedName)));
+	}
+	
+	/**
+	 * Builds a query matching the analyzed tokens exactly, in order,
+	 * anywhere within a name (e.g., "Boston" within "East Boston").
+	 * 
+	 * @param tokens	analyzed tokens for a location name
+	 * @return			a {@link TermQuery} for single-token names, a
+	 * 					{@link PhraseQuery} otherwise, or null if
+	 * 					there are no tokens at all
+	 */
+	public Query buildExactQuery(List<String> tokens) {
+		if (tokens.isEmpty())
+			return null;
+		
+		if (tokens.size() == 1)
+			return new TermQuery(new Term(field, tokens.get(0)));
+		
+		PhraseQuery query = new PhraseQuery();
+		for (String token : tokens)
+			query.add(new Term(field, token));
+		return query;
+	}
+	
+	/**
+	 * Builds a query allowing fuzzy matches on the last token, and
+	 * loose (OR'ed) matches on any preceding tokens.
+	 * 
+	 * @param tokens	analyzed tokens for a location name
+	 * @return			a {@link FuzzyQuery} for single-token names, a
+	 * 					{@link BooleanQuery} otherwise, or null if
+	 * 					there are no tokens at all
+	 */
+	public Query buildFuzzyQuery(List<String> tokens) {
+		if (tokens.isEmpty())
+			return null;
+		
+		int last = tokens.size() - 1;
+		FuzzyQuery fuzzyQuery = new FuzzyQuery(new Term(field, tokens.get(last)), FUZZY_MAX_EDITS, 0);
+		if (last == 0)
+			return fuzzyQuery;
+		
+		BooleanQuery query = new BooleanQuery();
+		for (int i = 0; i < last; i++)
+			query.add(new TermQuery(new Term(field, tokens.get(i))), Occur.SHOULD);
+		query.add(fuzzyQuery, Occur.SHOULD);
+		return query;
+	}
+}
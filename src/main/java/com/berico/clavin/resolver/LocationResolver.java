@@ -1,30 +1,45 @@
 package com.berico.clavin.resolver;
 
-import static org.apache.lucene.queryparser.classic.QueryParserBase.escape;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.queryparser.analyzing.AnalyzingQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RAMDirectory;
 
-import com.berico.clavin.gazetteer.CountryCode;
+import com.berico.clavin.gazetteer.GeoName;
 import com.berico.clavin.index.BinarySimilarity;
+import com.berico.clavin.index.DirectoryStrategy;
+import com.berico.clavin.index.GeoNameRecords;
+import com.berico.clavin.index.IndexDirectoryBuilder;
 import com.berico.clavin.index.WhitespaceLowerCaseAnalyzer;
-import com.berico.clavin.util.ListUtils;
+import com.berico.clavin.metrics.GeoParserMetrics;
+import com.berico.clavin.metrics.GeoParserMetrics.Counter;
+import com.berico.clavin.metrics.GeoParserMetrics.Stage;
 
 /*#####################################################################
  * 
@@ -68,10 +83,31 @@ public class LocationResolver {
 	public final static Logger logger = Logger.getLogger(LocationResolver.class);
 	
 	// Lucene index built from GeoNames gazetteer
-	private FSDirectory index;
+	private Directory index;
 	private IndexSearcher indexSearcher;
 	private static Analyzer indexAnalyzer;
 	
+	// how the index was opened, and how much memory it takes up
+	private final DirectoryStrategy directoryStrategy;
+	private final long indexSizeOnDisk;
+	private final long indexSizeMapped;
+	private final long indexSizeOnHeap;
+	
+	// finds the stored GeoName for each matched name
+	private GeoNameRecords geonameRecords;
+	
+	// builds Lucene queries straight from analyzed location names
+	private LocationQueryBuilder queryBuilder;
+	
+	// candidate matches for recently seen location names (may be null)
+	private CandidateCache candidateCache = new CandidateCache();
+	
+	// threads for looking up location names in parallel (may be null)
+	private ExecutorService executor;
+	
+	// where search, loading & heuristic latencies are recorded
+	private GeoParserMetrics metrics = GeoParserMetrics.NONE;
+	
 	// maximum number of matches to be fetched from Lucene index
 	// (i.e., search depth) -- use a value of 1 to simply retrieve the
 	// matching geo entity having the highest population
@@ -88,11 +124,19 @@ public class LocationResolver {
 	private static final Sort populationSort = new Sort(new SortField[]
 			{SortField.FIELD_SCORE, new SortField("population", SortField.Type.LONG, true)});
 	
+	// whether the index's documents are in order of descending
+	// population, in which case hits needn't be sorted by it (see
+	// IndexDirectoryBuilder#indexRecordsByPopulation)
+	private final boolean sortedByPopulation;
+	
 	/**
 	 * Builds a {@link LocationResolver} by loading a pre-built Lucene
 	 * index from disk and setting configuration parameters for
 	 * resolving location names to GeoName objects.
 	 * 
+	 * Lets Lucene pick how to open the index
+	 * (see {@link DirectoryStrategy#DEFAULT}).
+	 * 
 	 * @param indexDir				Lucene index directory to be loaded
 	 * @param maxHitDepth			number of candidate matches to consider
 	 * @param maxContextWindow		how much context to consider when resolving
@@ -100,111 +144,552 @@ public class LocationResolver {
 	 * @throws ParseException
 	 */
 	public LocationResolver(File indexDir, int maxHitDepth, int maxContextWindow) throws IOException, ParseException {
+		this(indexDir, DirectoryStrategy.DEFAULT, maxHitDepth, maxContextWindow);
+	}
+	
+	/**
+	 * Builds a {@link LocationResolver} by loading a pre-built Lucene
+	 * index from disk the given way, and setting configuration
+	 * parameters for resolving location names to GeoName objects.
+	 * 
+	 * @param indexDir				Lucene index directory to be loaded
+	 * @param directoryStrategy		how to open the index (e.g., memory-mapped or on the heap)
+	 * @param maxHitDepth			number of candidate matches to consider
+	 * @param maxContextWindow		how much context to consider when resolving
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public LocationResolver(File indexDir, DirectoryStrategy directoryStrategy, int maxHitDepth,
+			int maxContextWindow) throws IOException, ParseException {
 		
 		// load the Lucene index directory from disk
-		index = FSDirectory.open(indexDir);
+		this.directoryStrategy = directoryStrategy;
+		index = directoryStrategy.open(indexDir);
 		
 		// index employs simple lower-casing & tokenizing on whitespace
 		indexAnalyzer = new WhitespaceLowerCaseAnalyzer();
-		indexSearcher = new IndexSearcher(DirectoryReader.open(index));
+		DirectoryReader indexReader = DirectoryReader.open(index);
+		indexSearcher = new IndexSearcher(indexReader);
+		sortedByPopulation = IndexDirectoryBuilder.isSortedByPopulation(indexReader);
+		
+		// size up the index: all of it is on disk, and the files in use
+		// are either mapped or copied onto the heap, depending on how
+		// the index was opened
+		long sizeOnDisk = 0;
+		File[] indexFiles = indexDir.listFiles();
+		if (indexFiles != null) {
+			for (File file : indexFiles)
+				sizeOnDisk += file.length();
+		}
+		long sizeInUse = 0;
+		for (String fileName : indexReader.getIndexCommit().getFileNames())
+			sizeInUse += index.fileLength(fileName);
+		indexSizeOnDisk = sizeOnDisk;
+		indexSizeMapped = (index instanceof MMapDirectory) ? sizeInUse : 0;
+		indexSizeOnHeap = (index instanceof RAMDirectory) ? ((RAMDirectory)index).sizeInBytes() : 0;
+		logger.info("Opened index " + indexDir + " (" + directoryStrategy + "): " + indexSizeOnDisk
+				+ " bytes on disk, " + indexSizeMapped + " mapped, " + indexSizeOnHeap + " on heap"
+				+ (sortedByPopulation ? ", sorted by population." : "."));
 		
 		// override default TF/IDF score to ignore multiple appearances
 		indexSearcher.setSimilarity(new BinarySimilarity());
 		
+		geonameRecords = new GeoNameRecords(indexSearcher.getIndexReader());
+		
+		queryBuilder = new LocationQueryBuilder("indexName", indexAnalyzer);
+		
 		this.maxHitDepth = maxHitDepth;
 		this.maxContextWindow = maxContextWindow;
 		
-		// run an initial throw-away query just to "prime the pump" for
-		// the cache, so we can accurately measure performance speed
+		// unless the index is already in population order, run an
+		// initial throw-away query just to load the population values
+		// sorted on, which every search needs; use an IndexWarmer to
+		// warm up the rest of the index
 		// per: http://wiki.apache.org/lucene-java/ImproveSearchingSpeed
-		indexSearcher.search(new AnalyzingQueryParser(Version.LUCENE_40,
-				"indexName", indexAnalyzer).parse("Reston"), null, maxHitDepth, populationSort);
+		if (!sortedByPopulation)
+			indexSearcher.search(queryBuilder.buildExactQuery(queryBuilder.analyze("Reston")),
+					null, maxHitDepth, populationSort);
+	}
+	
+	/**
+	 * Replaces the cache of candidate matches used by this resolver.
+	 * 
+	 * A single {@link CandidateCache} may be shared by several
+	 * resolvers (and threads) using the same index. Pass null to turn
+	 * off caching altogether.
+	 * 
+	 * @param candidateCache	cache of candidate matches, or null
+	 */
+	public void setCandidateCache(CandidateCache candidateCache) {
+		this.candidateCache = candidateCache;
+	}
+	
+	/**
+	 * Gets the cache of candidate matches used by this resolver, e.g.,
+	 * to check its hit/miss/eviction counters.
+	 * 
+	 * @return	cache of candidate matches, or null if caching is off
+	 */
+	public CandidateCache getCandidateCache() {
+		return candidateCache;
+	}
+	
+	/**
+	 * Gives this resolver threads to look up the location names in a
+	 * document in parallel, rather than one after another. Results
+	 * come out exactly the same (and in the same order) either way.
+	 * 
+	 * The executor isn't shut down by the resolver, and may be shared
+	 * with others. Pass null to go back to looking up names serially.
+	 * 
+	 * @param executor		threads for looking up location names, or null
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Gets the threads used to look up location names in parallel.
+	 * 
+	 * @return	threads for looking up location names, or null if serial
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Sets where the time spent searching the index, loading & decoding
+	 * matches, and picking the best ones is recorded, along with counts
+	 * of fuzzy fallbacks, unmatched names and combinations evaluated.
+	 * 
+	 * @param metrics	metrics to record to, or null to stop recording
+	 */
+	public void setMetrics(GeoParserMetrics metrics) {
+		this.metrics = (metrics == null) ? GeoParserMetrics.NONE : metrics;
+	}
+	
+	/**
+	 * Gets where the resolver's latencies and counts are recorded.
+	 * 
+	 * @return	metrics recorded to
+	 */
+	public GeoParserMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return	how the index was opened
+	 */
+	public DirectoryStrategy getDirectoryStrategy() {
+		return directoryStrategy;
+	}
+	
+	/**
+	 * @return	size of the index directory on disk, in bytes
+	 */
+	public long getIndexSizeOnDisk() {
+		return indexSizeOnDisk;
+	}
+	
+	/**
+	 * Gets the size of the index files memory-mapped by this resolver,
+	 * which take up address space and page cache, but not heap.
+	 * 
+	 * @return	bytes mapped, or zero if the index isn't memory-mapped
+	 */
+	public long getIndexSizeMapped() {
+		return indexSizeMapped;
+	}
+	
+	/**
+	 * Gets the size of the copy of the index held on the Java heap by
+	 * this resolver.
+	 * 
+	 * @return	bytes on the heap, or zero if the index isn't RAM-resident
+	 */
+	public long getIndexSizeOnHeap() {
+		return indexSizeOnHeap;
+	}
+	
+	/**
+	 * Checks whether the index was built with its documents in order of
+	 * descending population, letting searches skip sorting their hits.
+	 * 
+	 * @return	true if the index is sorted by population
+	 */
+	public boolean isSortedByPopulation() {
+		return sortedByPopulation;
+	}
+	
+	/**
+	 * Gets the Lucene index directory this resolver searches, e.g., so
+	 * an {@link IndexWarmer} can preload its files.
+	 * 
+	 * @return	Lucene index directory
+	 */
+	Directory getIndexDirectory() {
+		return index;
 	}
 	
 	/**
 	 * Finds all matches (capped at {@link LocationResolver#maxHitDepth})
-	 * in the Lucene index for a given location name.
+	 * in the Lucene index for each of the given location names.
+	 * 
+	 * Each distinct name (after analysis) is only looked up once, no
+	 * matter how many times it appears, and the matching documents are
+	 * loaded from the index in docID order, so stored fields are read
+	 * more or less sequentially.
 	 * 
-	 * @param locationName		name of the geographic location to be resolved
+	 * @param locationNames		names of the geographic locations to be resolved
 	 * @param fuzzy				switch for turning on/off fuzzy matching
-	 * @return					list of ResolvedLocation objects as potential matches
+	 * @param normalizedNames	filled in with the analyzed form of each location
+	 * 							name, or <code>null</code> if it has none
+	 * @return					list of potential matches for each location name, in the same order
 	 * @throws IOException
-	 * @throws ParseException
 	 */
-	private List<ResolvedLocation> getCandidateMatches(String locationName, boolean fuzzy)
-			throws IOException, ParseException{
+	List<List<ResolvedLocation>> getCandidateMatches(List<String> locationNames, boolean fuzzy,
+			String[] normalizedNames) throws IOException {
 		
-		// santize the query input
-		String sanitizedLocationName = escape(locationName.toLowerCase());
+		// candidate matches for each distinct (analyzed) name
+		Map<String, List<ResolvedLocation>> candidatesByName = new HashMap<String, List<ResolvedLocation>>();
 		
-		try{
-	  		// Lucene query used to look for matches based on the
-			// "indexName" field
-	  		Query q = new AnalyzingQueryParser(Version.LUCENE_40,
-	  				"indexName", indexAnalyzer).parse("\"" + sanitizedLocationName + "\"");
-	  		
-	  		// collect all the hits up to maxHits, and sort them based
-	  		// on Lucene match score and population for the associated
-	  		// GeoNames record
-	  		TopDocs results = indexSearcher.search(q, null, maxHitDepth, populationSort);
-	  	    
-	  		// initialize the return object
-	  	    List<ResolvedLocation> candidateMatches = new ArrayList<ResolvedLocation>();
-	  	    
-	  	    // see if anything was found
-	  	    if (results.scoreDocs.length > 0) {
-	  	    	// one or more exact String matches found for this location name
-	  	    	for (int i = 0; i < results.scoreDocs.length; i++) {
-	  	    		// add each matching location to the list of candidates
-	  	    		ResolvedLocation location = new ResolvedLocation(indexSearcher.doc(results.scoreDocs[i].doc), locationName, false);
-			  	    logger.debug(location);
-			  	    candidateMatches.add(location);
-	  	    	}
-	  	    } else if (fuzzy) { // only if fuzzy matching is turned on
-	  	    	// no exact String matches found -- fallback to fuzzy search
-	  	    	
-	  	    	// Using the tilde "~" makes this a fuzzy search. I compared this to FuzzyQuery
-	  	  		// with TopTermsBoostOnlyBooleanQueryRewrite, I like the output better this way.
-	  	  		// With the other method, we failed to match things like "Straßenhaus Airport"
-	  	  		// as <Straßenhaus>, and the match scores didn't make as much sense.
-	  	    	q = new AnalyzingQueryParser(Version.LUCENE_40, "indexName", indexAnalyzer).parse(sanitizedLocationName + "~");
-	  	    	
-	  	  		// collect all the fuzzy matches up to maxHits, and sort
-	  	  		// them based on Lucene match score and population for the
-	  	  		// associated GeoNames record
-	  	    	results = indexSearcher.search(q, null, maxHitDepth, populationSort);
-	  	    	
-	  	    	// see if anything was found with fuzzy matching
-	  	    	if (results.scoreDocs.length > 0) {
-	  	    		// one or more fuzzy matches found for this location name
-	  	    		for (int i = 0; i < results.scoreDocs.length; i++) {
-	  	    			// add each matching location to the list of candidates
-	  	    			ResolvedLocation location = new ResolvedLocation(indexSearcher.doc(results.scoreDocs[i].doc), locationName, true);
-		  		  	    logger.debug(location + "{fuzzy}");
-		  		  	    candidateMatches.add(location);
-	  	    		}
-	  	    	} else {
-	  	    		// drats, foiled again! no fuzzy matches found either!
-	  	    		// in this case, we'll return an empty list of
-	  	    		// candidate matches
-		  	    	logger.debug("No match found for: \"" + locationName + "\"");
-	  	    	}
-	  	    } else {
-  	    		// no matches found and fuzzy matching is turned off
-	  	    	logger.debug("No match found for: \"" + locationName + "\"");
-  	    	}
-	  	    
-	  	    return candidateMatches;
-	  	    
-		} catch (ParseException e) {
-			logger.error("Error resolving location for : '" + locationName + "'" , e);
-			throw e;
-		} catch (IOException e) {
-			logger.error("Error resolving location for : '" + locationName + "'" , e);
-			throw e;
+		// names we'll have to look up in the index
+		List<NameSearch> searches = new ArrayList<NameSearch>();
+		
+		// names are matched in their analyzed form, so "Baghdad" and
+		// "BAGHDAD" share the same lookup (and cache entry)
+		for (int i = 0; i < locationNames.size(); i++) {
+			String locationName = locationNames.get(i);
+			
+			try {
+				// analyze the location name just once, and build both the
+				// exact and fuzzy queries from the same tokens
+				List<String> tokens = queryBuilder.analyze(locationName);
+				
+				// nothing left to search for once whitespace is stripped
+				if (tokens.isEmpty()) {
+					logger.debug("No match found for: \"" + locationName + "\"");
+					continue;
+				}
+				
+				String normalizedName = queryBuilder.normalize(tokens);
+				normalizedNames[i] = normalizedName;
+				
+				// already seen this one?
+				if (candidatesByName.containsKey(normalizedName))
+					continue;
+				
+				if (candidateCache != null) {
+					List<ResolvedLocation> cachedMatches = candidateCache.get(normalizedName, fuzzy, maxHitDepth);
+					if (cachedMatches != null) {
+						candidatesByName.put(normalizedName, cachedMatches);
+						continue;
+					}
+				}
+				
+				// hold its place until it's been looked up
+				candidatesByName.put(normalizedName, null);
+				searches.add(new NameSearch(locationName, normalizedName, tokens, fuzzy));
+				
+			} catch (IOException e) {
+				logger.error("Error resolving location for : '" + locationName + "'" , e);
+				throw e;
+			}
 		}
-  	}
-  	
+		
+		// look up the new names, in parallel if we've been given
+		// threads to do so
+		runSearches(searches);
+		
+		// matches found in the index, still to be loaded
+		List<CandidateHit> hits = new ArrayList<CandidateHit>();
+		
+		for (NameSearch search : searches) {
+			// hold a place for each match, to be filled in once the
+			// matching documents are loaded
+			ResolvedLocation[] candidates = new ResolvedLocation[search.results.scoreDocs.length];
+			for (int rank = 0; rank < candidates.length; rank++)
+				hits.add(new CandidateHit(search.results.scoreDocs[rank].doc, candidates, rank, search.locationName, search.fuzzyMatch));
+			candidatesByName.put(search.normalizedName, Arrays.asList(candidates));
+			search.candidates = candidates;
+		}
+		
+		// load the matches in index order, decoding each gazetteer
+		// record just once even if several of its names matched
+		Collections.sort(hits);
+		Map<Integer, GeoName> geonames = new HashMap<Integer, GeoName>();
+		for (CandidateHit hit : hits) {
+			long started = System.nanoTime();
+			Document nameDoc = indexSearcher.doc(hit.docID);
+			metrics.recordLatency(Stage.STORED_DOC_LOAD, System.nanoTime() - started);
+			int recordDocID = geonameRecords.recordDocFor(hit.docID);
+			GeoName geoname = geonames.get(recordDocID);
+			if (geoname == null) {
+				started = System.nanoTime();
+				Document recordDoc = indexSearcher.doc(recordDocID);
+				long loaded = System.nanoTime();
+				metrics.recordLatency(Stage.STORED_DOC_LOAD, loaded - started);
+				geoname = GeoNameRecords.decodeGeoName(recordDoc);
+				metrics.recordLatency(Stage.GEONAME_DECODE, System.nanoTime() - loaded);
+				geonames.put(recordDocID, geoname);
+			}
+			ResolvedLocation location = new ResolvedLocation(geoname, hit.locationName, nameDoc.get("indexName"), hit.fuzzy);
+			logger.debug(hit.fuzzy ? location + "{fuzzy}" : location);
+			hit.candidates[hit.rank] = location;
+		}
+		
+		// remember these for the next time we see these names
+		if (candidateCache != null) {
+			for (NameSearch search : searches)
+				candidateCache.put(search.normalizedName, fuzzy, maxHitDepth, Arrays.asList(search.candidates));
+		}
+		
+		// hand each location name its own copy of the candidates,
+		// resolved against its particular spelling of the name
+		List<List<ResolvedLocation>> allCandidates = new ArrayList<List<ResolvedLocation>>(locationNames.size());
+		for (int i = 0; i < locationNames.size(); i++) {
+			List<ResolvedLocation> candidateMatches = new ArrayList<ResolvedLocation>();
+			if (normalizedNames[i] != null) {
+				for (ResolvedLocation candidate : candidatesByName.get(normalizedNames[i]))
+					candidateMatches.add(new ResolvedLocation(candidate.geoname, locationNames.get(i), candidate.matchedName, candidate.fuzzy));
+			}
+			allCandidates.add(candidateMatches);
+		}
+		
+		return allCandidates;
+	}
+	
+	/**
+	 * Runs the given searches, using {@link LocationResolver#executor}
+	 * to run them side by side if there's more than one.
+	 * 
+	 * @param searches		index lookups to be run
+	 * @throws IOException
+	 */
+	private void runSearches(List<NameSearch> searches) throws IOException {
+		if (executor == null || searches.size() < 2) {
+			for (NameSearch search : searches)
+				search.call();
+			return;
+		}
+		
+		try {
+			// wait for all of them, so the results are ready (in order)
+			for (Future<NameSearch> result : executor.invokeAll(searches))
+				result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching for candidate matches", e);
+		} catch (ExecutionException e) {
+			// pass along whatever went wrong in the search itself
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+	
+	/**
+	 * Finds the top hits (up to {@link LocationResolver#maxHitDepth})
+	 * for a query, by Lucene match score and then population.
+	 * 
+	 * If the index is in population order, docID order already breaks
+	 * ties in score the right way, so there's no need to sort on the
+	 * population field; and if every hit scores the same, the first
+	 * hits found are the top ones, so the search stops right there.
+	 * 
+	 * @param q				Lucene query
+	 * @param tiedScores	true if every hit scores the same (e.g., a
+	 * 						single term on a field without norms)
+	 * @return				top hits, best first
+	 * @throws IOException
+	 */
+	private TopDocs search(Query q, boolean tiedScores) throws IOException {
+		if (!sortedByPopulation)
+			return indexSearcher.search(q, null, maxHitDepth, populationSort);
+		
+		if (!tiedScores)
+			return indexSearcher.search(q, maxHitDepth);
+		
+		FirstHitsCollector collector = new FirstHitsCollector(maxHitDepth);
+		try {
+			indexSearcher.search(q, collector);
+		} catch (FirstHitsCollector.Done done) {
+			// got all the hits we need
+		}
+		return collector.getTopDocs();
+	}
+	
+	/**
+	 * Collects the first hits of a search, in docID order, and then
+	 * stops the search by throwing {@link FirstHitsCollector.Done}.
+	 * Hits aren't scored.
+	 */
+	private static class FirstHitsCollector extends Collector {
+		
+		// thrown to stop the search; carries no stack trace, so a
+		// single instance does for everyone
+		@SuppressWarnings("serial")
+		static class Done extends RuntimeException {
+			@Override
+			public Throwable fillInStackTrace() {
+				return this;
+			}
+		}
+		private static final Done DONE = new Done();
+		
+		private final ScoreDoc[] hits;
+		private int hitCount;
+		private int docBase;
+		
+		FirstHitsCollector(int maxHits) {
+			hits = new ScoreDoc[maxHits];
+		}
+		
+		@Override
+		public void setScorer(Scorer scorer) {}
+		
+		@Override
+		public void setNextReader(AtomicReaderContext context) {
+			docBase = context.docBase;
+		}
+		
+		@Override
+		public void collect(int doc) {
+			hits[hitCount++] = new ScoreDoc(docBase + doc, Float.NaN);
+			if (hitCount == hits.length)
+				throw DONE;
+		}
+		
+		@Override
+		public boolean acceptsDocsOutOfOrder() {
+			return false;
+		}
+		
+		/**
+		 * @return	hits collected, with only those counted in the total
+		 */
+		TopDocs getTopDocs() {
+			return new TopDocs(hitCount, Arrays.copyOf(hits, hitCount), Float.NaN);
+		}
+	}
+	
+	/**
+	 * Looks up a single (distinct) location name in the Lucene index,
+	 * matching its normalized key exactly first, then falling back to
+	 * names containing it, and then to fuzzy matching if allowed and
+	 * need be.
+	 */
+	private class NameSearch implements Callable<NameSearch> {
+		
+		final String locationName;
+		final String normalizedName;
+		final List<String> tokens;
+		final boolean fuzzy;
+		
+		// filled in once the search has run
+		TopDocs results;
+		boolean fuzzyMatch;
+		
+		// filled in once the matches have been loaded
+		ResolvedLocation[] candidates;
+		
+		NameSearch(String locationName, String normalizedName, List<String> tokens, boolean fuzzy) {
+			this.locationName = locationName;
+			this.normalizedName = normalizedName;
+			this.tokens = tokens;
+			this.fuzzy = fuzzy;
+		}
+		
+		public NameSearch call() throws IOException {
+			try {
+				long started = System.nanoTime();
+				
+				// Lucene query used to look for names matching this one
+				// exactly, based on the "indexKey" field
+				Query q = queryBuilder.buildKeyQuery(normalizedName);
+				
+				// collect all the hits up to maxHits, and sort them based
+				// on Lucene match score and population for the associated
+				// GeoNames record (every hit scores the same here)
+				results = search(q, true);
+				
+				if (results.scoreDocs.length == 0) {
+					// no exact matches found -- fallback to names that
+					// contain this one, based on the "indexName" field
+					// (this is also all that indexes built before the
+					// "indexKey" field was added can offer)
+					q = queryBuilder.buildExactQuery(tokens);
+					results = search(q, false);
+				}
+				
+				metrics.recordLatency(Stage.EXACT_SEARCH, System.nanoTime() - started);
+				
+				if (results.scoreDocs.length == 0 && fuzzy) { // only if fuzzy matching is turned on
+					// no exact String matches found -- fallback to fuzzy search
+					
+					// This is the same query the parser used to build from a trailing tilde "~".
+					// I compared this to FuzzyQuery with TopTermsBoostOnlyBooleanQueryRewrite,
+					// I like the output better this way. With the other method, we failed to
+					// match things like "Straßenhaus Airport" as <Straßenhaus>, and the match
+					// scores didn't make as much sense.
+					started = System.nanoTime();
+					q = queryBuilder.buildFuzzyQuery(tokens);
+					fuzzyMatch = true;
+					
+					// collect all the fuzzy matches up to maxHits, and sort
+					// them based on Lucene match score and population for the
+					// associated GeoNames record
+					results = search(q, false);
+					metrics.recordLatency(Stage.FUZZY_SEARCH, System.nanoTime() - started);
+					metrics.increment(Counter.FUZZY_FALLBACKS, 1);
+				}
+				
+				// drats, foiled again! in this case, we'll return an
+				// empty list of candidate matches
+				if (results.scoreDocs.length == 0) {
+					logger.debug("No match found for: \"" + locationName + "\"");
+					metrics.increment(Counter.EMPTY_RESULTS, 1);
+				}
+				
+				return this;
+				
+			} catch (IOException e) {
+				logger.error("Error resolving location for : '" + locationName + "'" , e);
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * A match found in the Lucene index, waiting to be loaded into its
+	 * place in the list of candidates for a location name.
+	 */
+	private static class CandidateHit implements Comparable<CandidateHit> {
+		
+		final int docID;
+		final ResolvedLocation[] candidates;
+		final int rank;
+		final String locationName;
+		final boolean fuzzy;
+		
+		CandidateHit(int docID, ResolvedLocation[] candidates, int rank, String locationName, boolean fuzzy) {
+			this.docID = docID;
+			this.candidates = candidates;
+			this.rank = rank;
+			this.locationName = locationName;
+			this.fuzzy = fuzzy;
+		}
+		
+		public int compareTo(CandidateHit other) {
+			return docID < other.docID ? -1 : (docID == other.docID ? 0 : 1);
+		}
+	}
+	
   	/**
   	 * Uses heuristics to select the best match for each location name
   	 * extracted from a document, choosing from among a list of lists
@@ -224,18 +709,20 @@ public class LocationResolver {
   	 * TODO: consider lat/lon distance in addition to shared
   	 * 		 CountryCodes and Admin1Codes.
   	 * 
+  	 * Each location name is weighted by the number of times it was
+  	 * mentioned in the document.
+  	 * 
   	 * @param allCandidates	list of lists of candidate matches for locations names
-  	 * @return				list of best matches for each location name
+  	 * @param mentionCounts	number of mentions of each location name
+  	 * @return				position of the best match in each list of candidates
   	 */
-  	private List<ResolvedLocation> pickBestCandidates(List<List<ResolvedLocation>> allCandidates) {
+  	int[] pickBestCandidates(List<List<ResolvedLocation>> allCandidates, int[] mentionCounts) {
   		
-  		// initialize return object
-  		List<ResolvedLocation> bestCandidates = new ArrayList<ResolvedLocation>();
+  		long started = System.nanoTime();
   		
-  		// variables used in heuristic matching
-  		List<CountryCode> countries;
-  		List<String> states;
-  		float score;
+  		// branch-and-bound search over combinations of candidates,
+  		// which never materializes the full cross product
+  		CandidateComboSearch comboSearch = new CandidateComboSearch(allCandidates, mentionCounts);
   		
   		// initial values for variables controlling recursion
   		float newMaxScore = 0;
@@ -252,113 +739,47 @@ public class LocationResolver {
   			// reset the threshold for recursion
   			oldMaxScore = newMaxScore;
   			
-  			// loop through all combinations up to the specified depth.
-  			// first recursive call for each depth starts at index 0
-	  		for (List<ResolvedLocation> combo : generateAllCombos(allCandidates, 0, candidateDepth)) {
-	  			// these lists store the country codes & admin1 codes for each candidate
-	  			countries = new ArrayList<CountryCode>();
-	  			states = new ArrayList<String>();
-	  			for (ResolvedLocation location: combo) {
-	  				countries.add(location.geoname.primaryCountryCode);
-	  				states.add(location.geoname.admin1Code);
-	  			}
-	  			
-	  			// unique-ify the lists to look for common country codes & admin1 codes
-	  			countries = new ArrayList<CountryCode>(new HashSet<CountryCode>(countries));
-	  			states = new ArrayList<String>(new HashSet<String>(states));
-	  			
-	  			// calculate a score for this particular combination based on commonality
-	  			// of country codes & admin1 codes, and the cost of searching this deep
-	  			// TODO: tune this score calculation!
-	  			score = ((float)allCandidates.size() / (countries.size() + states.size())) / candidateDepth;
-	  			
-	  			/* *********************************************************** 
-	  			 * "So, at last we meet for the first time for the last time."
-	  			 * 
-	  			 * The fact that you're interested enough in CLAVIN to be
-	  			 * reading this means we're interested in talking with you.
-	  			 * 
-	  			 * Are you looking for a job, or are you in need of a
-	  			 * customized solution built around CLAVIN?
-	  			 * 
-	  			 * Drop me a line at charlie@bericotechnologies.com
-	  			 * 
-	  			 * "What's the matter, Colonel Sandurz? CHICKEN?"
-	  			 * **********************************************************/
-	  			
-	  			// if this is the best we've seen during this loop, update the return value
-	  			if (score > newMaxScore) {
-	  				newMaxScore = score;
-	  				bestCandidates = combo;
-	  			}
-	  		}
-	  		
+  			// find the best combination up to the specified depth,
+  			// keeping the previous best unless it's strictly beaten
+  			newMaxScore = comboSearch.search(candidateDepth, newMaxScore);
+  			
+  			/* *********************************************************** 
+  			 * "So, at last we meet for the first time for the last time."
+  			 * 
+  			 * The fact that you're interested enough in CLAVIN to be
+  			 * reading this means we're interested in talking with you.
+  			 * 
+  			 * Are you looking for a job, or are you in need of a
+  			 * customized solution built around CLAVIN?
+  			 * 
+  			 * Drop me a line at charlie@bericotechnologies.com
+  			 * 
+  			 * "What's the matter, Colonel Sandurz? CHICKEN?"
+  			 * **********************************************************/
+  			
 	  		// search one level deeper in the next loop
 	  		candidateDepth++;
 	  		
   		} while (newMaxScore > oldMaxScore);
   		// keep searching while the scores are monotonically increasing
   		
-  		return bestCandidates;
-  	}
-  	
-  	/**
-  	 * Recursive helper function for
-  	 * {@link LocationResolver#pickBestCandidates(List<List<ResolvedLocation>>)}.
-  	 * 
-  	 * Generates all combinations of candidate matches from each
-  	 * location, down to the specified depth through the lists.
-  	 * 
-  	 * Adapted from:
-  	 * http://www.daniweb.com/software-development/java/threads/177956/generating-all-possible-combinations-from-list-of-sublists#post882553
-  	 * 
-  	 * @param allCandidates	list of lists of candidate matches for all location names
-  	 * @param index			keeps track of which location we're working on for recursive calls
-  	 * @param depth			max depth into list we're searching during this recursion
-  	 * @return				all combinations of candidate matches for each location, down to the specified depth
-  	 */
-  	private List<List<ResolvedLocation>> generateAllCombos(List<List<ResolvedLocation>> allCandidates, int index, int depth) {
+  		metrics.recordLatency(Stage.HEURISTIC_SELECTION, System.nanoTime() - started);
+  		metrics.increment(Counter.COMBOS_EVALUATED, comboSearch.getCombosEvaluated());
   		
-		// stopping condition
-		if(index == allCandidates.size()) {
-			// return a list with an empty list
-			List<List<ResolvedLocation>> result = new ArrayList<List<ResolvedLocation>>();
-			result.add(new ArrayList<ResolvedLocation>());
-			return result;
-		}
-		
-		// initialize return object
-		List<List<ResolvedLocation>> result = new ArrayList<List<ResolvedLocation>>();
-		
-		// recursive call
-		List<List<ResolvedLocation>> recursive = generateAllCombos(allCandidates, index+1, depth);
-		
-		// for each element of the first list of input, up to depth or list size
-		for(int j = 0; j < Math.min(allCandidates.get(index).size(), depth); j++) {
-			// add the element to all combinations obtained for the rest of the lists
-			for(int k = 0; k < recursive.size(); k++) {
-				List<ResolvedLocation> newList = new ArrayList<ResolvedLocation>();
-				// add element of the first list
-				newList.add(allCandidates.get(index).get(j));
-				// copy a combination from recursive
-				for(ResolvedLocation listItem : recursive.get(k))
-					newList.add(listItem);
-	            // add new combination to result
-				result.add(newList);
-			}
-		}
-		
-		return result;
-	}
+  		return comboSearch.getBestIndices();
+  	}
   	
     /**
      * Resolves the supplied list of location names into
      * {@link ResolvedLocation}s containing {@link GeoName{ objects.
      * 
-     * Calls {@link LocationResolver#getCandidateMatches(String)} on
-     * each location name to find all possible matches, then uses
+     * Calls {@link LocationResolver#getCandidateMatches(List, boolean, String[])}
+     * to find all possible matches for each location name, then uses
      * heuristics to select the best match for each by calling
-     * {@link LocationResolver#pickBestCandidates(List<List<ResolvedLocation>>)}.
+     * {@link LocationResolver#pickBestCandidates(List<List<ResolvedLocation>>, int[])}.
+     * 
+     * A name mentioned several times is looked up and resolved just
+     * once, and every mention of it gets the same match.
      * 
      * @param locations 		list of location names to be resolved
      * @param fuzzy				switch for turning on/off fuzzy matching
@@ -372,31 +793,131 @@ public class LocationResolver {
     	if (locations == null)
     		return new ArrayList<ResolvedLocation>();
     	
+    	// get all possible matches for each location name
+    	String[] normalizedNames = new String[locations.size()];
+    	List<List<ResolvedLocation>> allCandidates = getCandidateMatches(locations, fuzzy, normalizedNames);
+    	return chooseLocations(allCandidates, Arrays.asList(normalizedNames));
+    }
+    
+    /**
+     * Resolves the location names extracted from each of a batch of
+     * documents, just as {@link LocationResolver#resolveLocations}
+     * would for each document on its own.
+     * 
+     * Names are looked up in the index just once for the whole batch,
+     * however many documents mention them, and the best matches are
+     * then chosen for each document separately.
+     * 
+     * @param documents			list of location names to be resolved, for each document
+     * @param fuzzy				switch for turning on/off fuzzy matching
+     * @return					list of {@link ResolvedLocation} objects, for each document
+     * @throws ParseException
+     * @throws IOException
+     */
+    public List<List<ResolvedLocation>> resolveLocationsBatch(List<List<String>> documents, boolean fuzzy) throws IOException, ParseException {
+    	
+    	// initialize return object
+    	List<List<ResolvedLocation>> resolvedDocuments = new ArrayList<List<ResolvedLocation>>();
+    	
+    	// forgetting something?
+    	if (documents == null)
+    		return resolvedDocuments;
+    	
+    	// gather up the location names from every document...
+    	List<String> allLocations = new ArrayList<String>();
+    	for (List<String> locations : documents) {
+    		if (locations != null)
+    			allLocations.addAll(locations);
+    	}
+    	
+    	// ...find all possible matches for all of them in one go...
+    	String[] normalizedNames = new String[allLocations.size()];
+    	List<List<ResolvedLocation>> allCandidates = getCandidateMatches(allLocations, fuzzy, normalizedNames);
+    	
+    	// ...and then pick the best ones for each document
+    	int offset = 0;
+    	for (List<String> locations : documents) {
+    		int count = locations == null ? 0 : locations.size();
+    		resolvedDocuments.add(chooseLocations(allCandidates.subList(offset, offset + count),
+    				Arrays.asList(normalizedNames).subList(offset, offset + count)));
+    		offset += count;
+    	}
+    	
+    	return resolvedDocuments;
+    }
+    
+    /**
+     * Selects the best match for each location name in a document,
+     * given all the possible matches for each.
+     * 
+     * When using heuristics, repeated mentions of the same (analyzed)
+     * name are collapsed into a single entry, weighted by its number
+     * of mentions, so each context window holds distinct names. The
+     * match chosen for that entry is then handed back to every mention,
+     * resolved against its own spelling of the name.
+     * 
+     * @param allCandidates		list of candidate matches for each location name
+     * @param normalizedNames	analyzed form of each location name
+     * @return					list of best matches, for those names having any
+     */
+    private List<ResolvedLocation> chooseLocations(List<List<ResolvedLocation>> allCandidates, List<String> normalizedNames) {
+    	
 		if (maxHitDepth > 1) { // perform context-based heuristic matching
 			
-			// stores all possible matches for each location name
-			List<List<ResolvedLocation>> allCandidates = new ArrayList<List<ResolvedLocation>>();
+			// stores all possible matches for each distinct location
+			// name that has any, along with its number of mentions
+			List<List<ResolvedLocation>> foundCandidates = new ArrayList<List<ResolvedLocation>>();
+			List<Integer> mentionCounts = new ArrayList<Integer>();
+			Map<String, Integer> entries = new HashMap<String, Integer>();
 			
-			// loop through all the location names
-			for (String location : locations) {
-				// get all possible matches
-				List<ResolvedLocation> candidates = getCandidateMatches(location, fuzzy);
+			// entry in foundCandidates for each mention, if it has any
+			// possible matches
+			int[] entryOfMention = new int[allCandidates.size()];
+			
+			for (int i = 0; i < allCandidates.size(); i++) {
+				entryOfMention[i] = -1;
 				
 				// if we found some possible matches, save them
-				if (candidates.size() > 0)
-					allCandidates.add(candidates);
+				if (allCandidates.get(i).isEmpty())
+					continue;
+				
+				Integer entry = entries.get(normalizedNames.get(i));
+				if (entry == null) {
+					entry = foundCandidates.size();
+					entries.put(normalizedNames.get(i), entry);
+					foundCandidates.add(allCandidates.get(i));
+					mentionCounts.add(0);
+				}
+				mentionCounts.set(entry, mentionCounts.get(entry) + 1);
+				entryOfMention[i] = entry;
 			}
 			
-			// initialize return object
-			List<ResolvedLocation> bestCandidates = new ArrayList<ResolvedLocation>();
+			// position of the best match for each distinct name
+			int[] bestIndices = new int[foundCandidates.size()];
 			
-			// split-up allCandidates into reasonably-sized chunks to
+			// split-up foundCandidates into reasonably-sized chunks to
 			// limit computational load when heuristically selecting
 			// the best matches
-			for (List<List<ResolvedLocation>> theseCandidates : ListUtils.chunkifyList(allCandidates, maxContextWindow)) {
+			for (int start = 0; start < foundCandidates.size(); start += maxContextWindow) {
+				int end = Math.min(start + maxContextWindow, foundCandidates.size());
+				int[] theseCounts = new int[end - start];
+				for (int i = start; i < end; i++)
+					theseCounts[i - start] = mentionCounts.get(i);
+				
 				// select the best match for each location name based
 				// based on heuristics
-				bestCandidates.addAll(pickBestCandidates(theseCandidates));
+				int[] theseIndices = pickBestCandidates(foundCandidates.subList(start, end), theseCounts);
+				System.arraycopy(theseIndices, 0, bestIndices, start, theseIndices.length);
+			}
+			
+			// initialize return object
+			List<ResolvedLocation> bestCandidates = new ArrayList<ResolvedLocation>();
+			
+			// hand the best match back to every mention; each mention's
+			// candidates are in the same order as its entry's
+			for (int i = 0; i < allCandidates.size(); i++) {
+				if (entryOfMention[i] >= 0)
+					bestCandidates.add(allCandidates.get(i).get(bestIndices[entryOfMention[i]]));
 			}
 			
 			return bestCandidates;
@@ -406,16 +927,10 @@ public class LocationResolver {
 			// initialize return object
 			List<ResolvedLocation> resolvedLocations = new ArrayList<ResolvedLocation>();
 			
-			// stores possible matches for each location name
-			List<ResolvedLocation> candidateLocations;
-			
-			// loop through all the location names
-			for (String location : locations) {
+			// loop through the possible matches for each location name
+			for (List<ResolvedLocation> candidateLocations : allCandidates) {
 				// choose the top-sorted candidate for each individual
-				// location name
-				candidateLocations = getCandidateMatches(location, fuzzy);
-				
-				// if a match was found, add it to the return list
+				// location name, if a match was found
 				if (candidateLocations.size() > 0)
 					resolvedLocations.add(candidateLocations.get(0));
 			}
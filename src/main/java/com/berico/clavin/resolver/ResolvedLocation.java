@@ -3,8 +3,10 @@ package com.berico.clavin.resolver;
 import org.apache.lucene.document.Document;
 
 import com.berico.clavin.gazetteer.GeoName;
+import com.berico.clavin.index.GeoNameRecords;
 
-import static com.berico.clavin.util.DamerauLevenshtein.damerauLevenshteinDistanceCaseInsensitive;
+import static com.berico.clavin.util.DamerauLevenshtein.damerauLevenshteinDistance;
+import static com.berico.clavin.util.DamerauLevenshtein.isEditDistance1;
 
 /*#####################################################################
  * 
@@ -61,33 +63,74 @@ public class ResolvedLocation {
 	public float confidence;
 	
 	/**
-	 * Builds a {@link ResolvedLocation} from a document retrieved from
-	 * the Lucene index representing the geographic entity resolved
-	 * from a location name.
+	 * Builds a {@link ResolvedLocation} from a Lucene document holding
+	 * both the matched name and the gazetteer record it belongs to, as
+	 * in indexes built before names and records were stored separately.
 	 * 
-	 * @param luceneDoc		document from Lucene index representing a gazetteer record
+	 * In current indexes, a search hit is a name-only document, and its
+	 * gazetteer record is stored in another document (see
+	 * {@link GeoNameRecords#recordDocFor(int)}), so use
+	 * {@link ResolvedLocation#ResolvedLocation(GeoName, String, String, boolean)}
+	 * instead.
+	 * 
+	 * @param luceneDoc		document from Lucene index holding a matched name & its gazetteer record
+	 * @param inputName		location name extracted from text
+	 * @param fuzzy			whether fuzzy matching was used
+	 * @throws IllegalArgumentException	if the document holds no gazetteer record
+	 * @deprecated			only works for documents from older indexes
 	 */
+	@Deprecated
 	public ResolvedLocation(Document luceneDoc, String inputName, boolean fuzzy) {
 		
-		// instantiate a GeoName object from the gazetteer record
-		this.geoname = GeoName.parseFromGeoNamesRecord(luceneDoc.get("geoname"));
-		
-		this.inputName = inputName;
-		
+		// instantiate a GeoName object from the gazetteer record, and
 		// get the name in the Lucene document matched to the given
 		// location name extracted from the text
-		this.matchedName = luceneDoc.get("indexName");
-		
+		this(GeoNameRecords.decodeGeoName(luceneDoc), inputName, luceneDoc.get("indexName"), fuzzy);
+	}
+	
+	/**
+	 * Builds a {@link ResolvedLocation} from a {@link GeoName} that
+	 * has already been looked up, e.g., by re-using the result of an
+	 * earlier match against the same location name.
+	 * 
+	 * @param geoname		geographic entity resolved from location name
+	 * @param inputName		location name extracted from text
+	 * @param matchedName	name from the gazetteer record that was matched
+	 * @param fuzzy			whether fuzzy matching was used
+	 */
+	public ResolvedLocation(GeoName geoname, String inputName, String matchedName, boolean fuzzy) {
+		this.geoname = geoname;
+		this.inputName = inputName;
+		this.matchedName = matchedName;
 		this.fuzzy = fuzzy;
 		
 		// for fuzzy matches, confidence is based on the edit distance
 		// between the given location name and the matched name
 		if (fuzzy)
-			this.confidence = 1 / (damerauLevenshteinDistanceCaseInsensitive(inputName, matchedName) + (float)0.5);
+			this.confidence = 1 / (fuzzyDistance(inputName, matchedName) + (float)0.5);
 		else this.confidence = 1; // exact String match
 		/// TODO: fix this confidence score... it doesn't fully make sense
 	}
 	
+	/**
+	 * Case-insensitive edit distance between a location name and the
+	 * name it was fuzzy-matched against.
+	 * 
+	 * Fuzzy matches are mostly no more than one edit away, which can
+	 * be checked for cheaply before working out the exact distance.
+	 * 
+	 * @param inputName		location name extracted from text
+	 * @param matchedName	name from the gazetteer record that was matched
+	 * @return				Damerau-Levenshtein edit distance between them
+	 */
+	private static int fuzzyDistance(String inputName, String matchedName) {
+		String name1 = inputName.toLowerCase();
+		String name2 = matchedName.toLowerCase();
+		if (isEditDistance1(name1, name2))
+			return name1.equals(name2) ? 0 : 1;
+		return damerauLevenshteinDistance(name1, name2);
+	}
+	
 	/**
 	 * Tests equivalence between {@link ResolvedLocation} objects.
 	 * 
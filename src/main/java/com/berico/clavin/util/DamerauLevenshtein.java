@@ -1,8 +1,6 @@
 package com.berico.clavin.util;
 
-import java.util.Arrays;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.List;
 
 /*#####################################################################
  * 
@@ -42,9 +40,6 @@ import java.util.TreeMap;
  * alignment distance" where no substring may be edited more than once.
  */
 public class DamerauLevenshtein {
-	
-	// sentinel value for the end of contents in an "infinite" array
-	final static Null endMarker = new Null();
 
 	/**
 	 * Computes the true Damerau–Levenshtein edit distance
@@ -57,63 +52,154 @@ public class DamerauLevenshtein {
 	 * @return		Edit distance between strings
 	 */
 	public static int damerauLevenshteinDistance(String str1, String str2) {
+		int maxDistance = Math.max(str1 == null ? 0 : str1.length(), str2 == null ? 0 : str2.length());
+		return damerauLevenshteinDistance(str1, str2, maxDistance);
+	}
+	
+	/**
+	 * Computes the true Damerau–Levenshtein edit distance between two
+	 * given strings, as long as it's no more than
+	 * <code>maxDistance</code>.
+	 * 
+	 * Only the band of the edit matrix within <code>maxDistance</code>
+	 * of its diagonal is filled in, keeping just the rows that a
+	 * transposition within the bound can reach back to, and it gives
+	 * up as soon as every entry in a row exceeds the bound. The cost
+	 * is therefore O(maxDistance * length) rather than
+	 * O(length * length).
+	 * 
+	 * @param str1			First string being compared
+	 * @param str2			Second string being compared
+	 * @param maxDistance	greatest edit distance we care about
+	 * @return				Edit distance between strings, or
+	 * 						<code>maxDistance + 1</code> if it's greater
+	 * 						than <code>maxDistance</code>
+	 */
+	public static int damerauLevenshteinDistance(String str1, String str2, int maxDistance) {
+		if (maxDistance < 0)
+			throw new IllegalArgumentException("Max distance must not be negative: " + maxDistance);
 		
-		// return fast if one or both strings is empty or null
-		if ((str1 == null) || str1.isEmpty()) {
-			if ((str2 == null) || str2.isEmpty()) {
-				return 0;
-			} else {
-				return str2.length();
-			}
-		} else if ((str2 == null) || str2.isEmpty()) {
-			return str1.length();
-		}
+		int length1 = (str1 == null) ? 0 : str1.length();
+		int length2 = (str2 == null) ? 0 : str2.length();
 		
-		// split strings into string arrays
-		String[] stringArray1 = str1.split("");
-		String[] stringArray2 = str2.split("");
+		// the distance can't be greater than the longer string's length
+		maxDistance = Math.min(maxDistance, Math.max(length1, length2));
 		
-		// initialize matrix values
-		int[][] matrix = new int[stringArray1.length + 2][stringArray2.length + 2];
-		int bound = stringArray1.length + stringArray2.length;
-		matrix[0][0] = bound;
-		for (int i = 0; i <= stringArray1.length; i++) {
-			matrix[i + 1][1] = i;
-			matrix[i + 1][0] = bound;
-		}
-		for (int j = 0; j <= stringArray2.length; j++) {
-			matrix[1][j + 1] = j;
-			matrix[0][j + 1] = bound;
-		}
+		// stands in for any distance greater than maxDistance
+		int bound = maxDistance + 1;
 		
-		// initialize dictionary
-		SortedMap<String, Integer> dictionary = new TreeMap<String, Integer>();
-		for (String letter : (str1 + str2).split("")) {
-			if (!dictionary.containsKey(letter)) {
-				dictionary.put(letter, 0);
-			}
-		}
+		// difference between string lengths ensures edit distance > bound
+		if (Math.abs(length1 - length2) > maxDistance)
+			return bound;
+		
+		// return fast if one or both strings is empty or null
+		if (length1 == 0 || length2 == 0)
+			return Math.max(length1, length2);
+		
+		// number each distinct letter of str1, so the last row each
+		// letter was seen in can be kept in a plain array (letters
+		// only found in str2 are all numbered 0, and never seen)
+		int[] letters1 = new int[length1];
+		int[] letters2 = new int[length2];
+		int[] lastRow = new int[numberLetters(str1, str2, letters1, letters2) + 1];
+		
+		// rolling rows of the edit matrix, where row r column c holds
+		// the distance between the first r chars of str1 and the
+		// first c chars of str2 (beyond maxDistance rows back, a
+		// transposition would cost too much to matter)
+		int rowCount = Math.min(maxDistance, length1) + 2;
+		int[][] rows = new int[rowCount][length2 + 1];
+		for (int c = 0; c <= Math.min(length2, maxDistance); c++)
+			rows[0][c] = c;
 		
-		// compute edit distance between strings
-		for (int i = 1; i <= stringArray1.length; i++) {
-			int index = 0;
-			for (int j = 1; j <= stringArray2.length; j++) {
-				int i1 = dictionary.get(stringArray2[j - 1]);
-				int j1 = index;
-				if (stringArray1[i - 1].equals(stringArray2[j - 1])) {
-					matrix[i + 1][j + 1] = matrix[i][j];
-					index = j;
+		for (int r = 1; r <= length1; r++) {
+			int[] row = rows[r % rowCount];
+			int[] previous = rows[(r - 1) % rowCount];
+			
+			// band of columns within maxDistance of the diagonal
+			int lo = Math.max(1, r - maxDistance);
+			int hi = Math.min(length2, r + maxDistance);
+			
+			// entries just outside the band are out of bounds
+			if (r + maxDistance <= length2)
+				previous[r + maxDistance] = bound;
+			row[lo - 1] = (lo == 1) ? Math.min(r, bound) : bound;
+			
+			int letter = letters1[r - 1];
+			int lastMatchColumn = 0;
+			int rowMin = row[lo - 1];
+			
+			for (int c = lo; c <= hi; c++) {
+				int i1 = lastRow[letters2[c - 1]];
+				int j1 = lastMatchColumn;
+				
+				int distance;
+				if (letter == letters2[c - 1]) {
+					distance = previous[c - 1];
+					lastMatchColumn = c;
 				} else {
-					matrix[i + 1][j + 1] = Math.min(matrix[i][j], Math.min(matrix[i + 1][j], matrix[i][j + 1])) + 1;
+					distance = Math.min(previous[c - 1], Math.min(row[c - 1], previous[c])) + 1;
 				}
 				
-				matrix[i + 1][j + 1] = Math.min(matrix[i + 1][j + 1], matrix[i1][j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+				// transposition, if one could possibly be in bounds
+				if (i1 > 0 && j1 > 0 && r - i1 <= maxDistance && Math.abs(i1 - j1) <= maxDistance)
+					distance = Math.min(distance, rows[(i1 - 1) % rowCount][j1 - 1] + (r - i1 - 1) + 1 + (c - j1 - 1));
+				
+				row[c] = Math.min(distance, bound);
+				rowMin = Math.min(rowMin, row[c]);
 			}
 			
-			dictionary.put(stringArray1[i - 1], i);
+			lastRow[letter] = r;
+			
+			// distances never shrink from one row to the next
+			if (rowMin > maxDistance)
+				return bound;
+		}
+		
+		return rows[length1 % rowCount][length2];
+	}
+	
+	/**
+	 * Numbers the distinct letters of the first string from 1 upwards,
+	 * and gives each letter of the second string the same number, or
+	 * 0 if it's not found in the first string.
+	 * 
+	 * @param str1		first string, of at least one char
+	 * @param str2		second string
+	 * @param letters1	filled in with the number of each letter of str1
+	 * @param letters2	filled in with the number of each letter of str2
+	 * @return			number of distinct letters in str1
+	 */
+	private static int numberLetters(String str1, String str2, int[] letters1, int[] letters2) {
+		// small open-addressing hash table from letter to number,
+		// where a number of 0 marks an empty slot
+		int capacity = Integer.highestOneBit(str1.length() * 2 - 1) << 1;
+		int mask = capacity - 1;
+		char[] keys = new char[capacity];
+		int[] numbers = new int[capacity];
+		int count = 0;
+		
+		for (int i = 0; i < str1.length(); i++) {
+			char letter = str1.charAt(i);
+			int slot = (letter ^ (letter >>> 7)) & mask;
+			while (numbers[slot] != 0 && keys[slot] != letter)
+				slot = (slot + 1) & mask;
+			if (numbers[slot] == 0) {
+				keys[slot] = letter;
+				numbers[slot] = ++count;
+			}
+			letters1[i] = numbers[slot];
 		}
 		
-		return matrix[stringArray1.length + 1][stringArray2.length + 1];
+		for (int i = 0; i < str2.length(); i++) {
+			char letter = str2.charAt(i);
+			int slot = (letter ^ (letter >>> 7)) & mask;
+			while (numbers[slot] != 0 && keys[slot] != letter)
+				slot = (slot + 1) & mask;
+			letters2[i] = numbers[slot];
+		}
+		
+		return count;
 	}
 	
 	/**
@@ -128,12 +214,28 @@ public class DamerauLevenshtein {
 		return damerauLevenshteinDistance(str1.toLowerCase(), str2.toLowerCase());
 	}
 	
+	/**
+	 * Convenience method for calling {@link damerauLevenshteinDistance(String str1, String str2, int maxDistance)}
+	 * when you don't care about case sensitivity.
+	 * 
+	 * @param str1			First string being compared
+	 * @param str2			Second string being compared
+	 * @param maxDistance	greatest edit distance we care about
+	 * @return				Case-insensitive edit distance between strings,
+	 * 						or <code>maxDistance + 1</code> if it's greater
+	 * 						than <code>maxDistance</code>
+	 */
+	public static int damerauLevenshteinDistanceCaseInsensitive(String str1, String str2, int maxDistance) {
+		return damerauLevenshteinDistance(str1.toLowerCase(), str2.toLowerCase(), maxDistance);
+	}
+	
 	/**
 	 * Fast method for determining whether the Damerau-Levenshtein edit
 	 * distance between two strings is less than 2.
 	 * 
-	 * Returns as quick as possibly by stopping once multiple edits are
-	 * found. Significantly faster than {@link damerauLevenshteinDistance(String str1, String str2)}
+	 * Makes a single pass over the strings' chars, without allocating
+	 * anything, stopping at the first mismatch once it's clear whether
+	 * a single edit accounts for it. Significantly faster than {@link damerauLevenshteinDistance(String str1, String str2)}
 	 * which explores every path between every string to get the exact
 	 * edit distance. Despite the speed boost, we maintain consistency
 	 * with {@link damerauLevenshteinDistance(String str1, String str2)}.
@@ -155,124 +257,62 @@ public class DamerauLevenshtein {
 		}
 		
 		// difference between string lengths ensures edit distance > bound
-		if (Math.abs(str1.length() - str2.length()) > 1) return false;
+		int length1 = str1.length();
+		int length2 = str2.length();
+		if (Math.abs(length1 - length2) > 1) return false;
 		
-		// initialize counters
-		int editDistance = 0;
-		int offset1 = 0;
-		int offset2 = 0;
+		// skip past the common prefix, up to the first mismatch
 		int i = 0;
+		int shorter = Math.min(length1, length2);
+		while (i < shorter && str1.charAt(i) == str2.charAt(i))
+			i++;
 		
-		InfiniteCharArray chars1 = new InfiniteCharArray(str1.toCharArray());
-		InfiniteCharArray chars2 = new InfiniteCharArray(str2.toCharArray());
+		// nothing left but (at most) one extra char on the end
+		if (i == shorter)
+			return true;
 		
-		while (!chars1.get(i + offset1).equals(endMarker) || !chars2.get(i + offset2).equals(endMarker)) {
-			if (!chars1.get(i + offset1).equals(chars2.get(i + offset2))) { // character mismatch
-				if ((chars1.get(i + offset1).equals(chars2.get(i + offset2 + 1))) &&
-						(chars1.get(i + offset1 + 1).equals(chars2.get(i + offset2))) &&
-						(chars1.remainder(i + offset1 + 2).equals(chars2.remainder(i + offset2 + 2)))) { // transposition
-					editDistance++;
-					i = i + 2; // move past the transposition
-				} else if (chars1.remainder(i + offset1).equals(chars2.remainder(i + offset2 + 1))) { // insertion
-					editDistance++;
-					offset2++; // realign
-				} else if (chars1.remainder(i + offset1 + 1).equals(chars2.remainder(i + offset2))) { // deletion
-					editDistance++;
-					offset1++; // realign
-				} else if (chars1.remainder(i + offset1 + 1).equals(chars2.remainder(i + offset2 + 1))) { // substitution
-					editDistance++;
-					i++; // 
-				} else return false; // multiple edits
-			}
+		if (length1 == length2) {
+			// substitution: everything after the mismatch lines up
+			if (str1.regionMatches(i + 1, str2, i + 1, length1 - i - 1))
+				return true;
 			
-			if (editDistance > 1) return false;
-			i++;
-		}
-		
-		return true;
-	}
-}
-
-/**
- * Convenience class allowing us to avoid running into
- * ArrayIndexOutOfBoundsExceptions (thanks, Java!)
- *
- */
-class InfiniteCharArray {
-	
-	// the array being encapsulated
-	private char[] array;
-	
-	/**
-	 * Sole constructor.
-	 * 
-	 * @param array		the array to be encapsulated
-	 */
-	protected InfiniteCharArray(char[] array) {
-		this.array = array;
-	}
-	
-	/**
-	 * If we try to retrieve what lies beyond the end of values, return
-	 * a {@link Null} object instead of throwing an
-	 * ArrayIndexOutOfBoundsException. Otherwise, return the value at
-	 * at the given index.
-	 * 
-	 * @param index		the position in the array for which we seek a value
-	 * @return			the value at that index or a Null object if we're "out of bounds"
-	 */
-	protected Object get(int index) {
-		if (index < this.array.length) {
-			return this.array[index];
+			// transposition: the mismatched pair is swapped, and
+			// everything after it lines up
+			return i + 1 < length1
+					&& str1.charAt(i) == str2.charAt(i + 1)
+					&& str1.charAt(i + 1) == str2.charAt(i)
+					&& str1.regionMatches(i + 2, str2, i + 2, length1 - i - 2);
+		} else if (length1 > length2) {
+			// deletion from str1
+			return str1.regionMatches(i + 1, str2, i, length2 - i);
 		} else {
-			return new Null();
+			// insertion into str1
+			return str1.regionMatches(i, str2, i + 1, length1 - i);
 		}
 	}
 	
 	/**
-	 * Get the contents of the char array to the right of the given
-	 * index, and return it as a String.
+	 * Batch version of {@link isEditDistance1(String str1, String str2)},
+	 * comparing one string against many others, e.g., to cheaply weed
+	 * out names that can't be within one edit of a query before
+	 * working out exact edit distances for the rest.
 	 * 
-	 * @param index		left bound of the string we're pulling from the char array
-	 * @return			a string representing everything to the right of the index
-	 */
-	protected String remainder(int index) {
-		if (index > this.array.length)
-			return "";
-		else return new String(Arrays.copyOfRange(this.array, index, this.array.length));
-	}
-}
-
-/**
- * This is what gets returned instead of an ArrayIndexOutOfBoundsException
- * when we use an {@link InfiniteCharArray}.
- *
- */
-class Null {
-	
-	/**
-	 * Call the "super" constructor.
-	 */
-	protected Null() {
-		super();
-	}
-	
-	/**
-	 * For pretty printing.
-	 */
-	@Override
-	public String toString() {
-		return "Null";
-	}
-	
-	/**
-	 * All instances of this class are effectively the same, so treat
-	 * them as equal.
+	 * @param str1			string being compared against every candidate
+	 * @param candidates	strings being compared against str1
+	 * @return				for each candidate, in the same order, true if
+	 * 						DL edit distance < 2, false otherwise
 	 */
-	@Override
-	public boolean equals(Object anObject) {
-		if (anObject.getClass().equals(this.getClass())) {
-			return true;
-		} else return false;
+	public static boolean[] isEditDistance1(String str1, List<String> candidates) {
+		boolean[] results = new boolean[candidates.size()];
+		int length1 = (str1 == null) ? 0 : str1.length();
+		
+		int i = 0;
+		for (String str2 : candidates) {
+			// lengths alone rule most candidates out
+			int length2 = (str2 == null) ? 0 : str2.length();
+			results[i++] = (Math.abs(length1 - length2) <= 1) && isEditDistance1(str1, str2);
+		}
+		
+		return results;
 	}
 }
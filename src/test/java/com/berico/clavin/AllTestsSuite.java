@@ -40,7 +40,22 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
 	com.berico.clavin.extractor.ApacheExtractorTest.class,
 	com.berico.clavin.gazetteer.GeoNameTest.class,
+	com.berico.clavin.gazetteer.GeoNameSerializerTest.class,
+	com.berico.clavin.gazetteer.GeoNamesRecordParserTest.class,
 	com.berico.clavin.index.BinarySimilarityTest.class,
+	com.berico.clavin.index.DirectoryStrategyTest.class,
+	com.berico.clavin.index.GeoNameRecordsTest.class,
+	com.berico.clavin.index.IndexDirectoryBuilderTest.class,
+	com.berico.clavin.index.MappedGazetteerReaderTest.class,
+	com.berico.clavin.index.NameKeysTest.class,
+	com.berico.clavin.metrics.LatencyHistogramTest.class,
+	com.berico.clavin.pipeline.GeoParsingPipelineTest.class,
+	com.berico.clavin.resolver.CandidateCacheTest.class,
+	com.berico.clavin.resolver.CandidateComboSearchTest.class,
+	com.berico.clavin.resolver.IndexWarmerTest.class,
+	com.berico.clavin.resolver.LocationQueryBuilderTest.class,
+	com.berico.clavin.resolver.LocationResolverBatchTest.class,
+	com.berico.clavin.resolver.LocationResolverSortedIndexTest.class,
 	com.berico.clavin.resolver.LocationResolverTest.class,
 	com.berico.clavin.resolver.LocationResolverHeuristicsTest.class,
 	com.berico.clavin.util.DamerauLevenshteinTest.class,
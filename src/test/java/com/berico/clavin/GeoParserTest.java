@@ -1,13 +1,22 @@
 package com.berico.clavin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.junit.Test;
 
+import com.berico.clavin.extractor.LocationExtractor;
+import com.berico.clavin.index.SampleIndex;
+import com.berico.clavin.metrics.HistogramMetrics;
+import com.berico.clavin.resolver.LocationResolver;
 import com.berico.clavin.resolver.ResolvedLocation;
 
 /*#####################################################################
@@ -76,4 +85,57 @@ public class GeoParserTest {
 		assertEquals("Incorrect ResolvedLocation", MASSACHUSETTS, resolvedLocations.get(2).geoname.geonameID);
 	}
 
+	/**
+	 * A GeoParser built around a resolver that's already recording
+	 * metrics for another GeoParser shouldn't take them over.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSharedResolverMetrics() throws Exception {
+		LocationExtractor extractor = new LocationExtractor() {
+			public List<String> extractLocationNames(String plainText) {
+				return Arrays.asList(plainText.split(","));
+			}
+		};
+		File indexDir = SampleIndex.build();
+		try {
+			LocationResolver resolver = new LocationResolver(indexDir, 1, 1);
+			GeoParser first = new GeoParser(extractor, resolver, false);
+			GeoParser second = new GeoParser(extractor, resolver, false);
+			assertSame("resolver's metrics replaced", first.getMetrics(), resolver.getMetrics());
+			assertSame("resolver's metrics not adopted", first.getMetrics(), second.getMetrics());
+			
+			// metrics set explicitly still go everywhere
+			HistogramMetrics metrics = new HistogramMetrics();
+			second.setMetrics(metrics);
+			assertSame("explicit metrics not set on resolver", metrics, resolver.getMetrics());
+		} finally {
+			SampleIndex.delete(indexDir);
+		}
+	}
+	
+	/**
+	 * Ensures parseAsync() gives the same output as parse(), even with
+	 * more documents than it's allowed to have in flight.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testParseAsync() throws Exception {
+		GeoParser parser = new GeoParser();
+		parser.setMaxInFlight(2);
+		
+		String inputText = "Calvin Coolidge was the 30th president " +
+				"of the United States. He was born in Vermont and " +
+				"died in Massachusetts.";
+		List<ResolvedLocation> expected = parser.parse(inputText);
+		
+		List<Future<List<ResolvedLocation>>> results = new ArrayList<Future<List<ResolvedLocation>>>();
+		for (int i = 0; i < 10; i++)
+			results.add(parser.parseAsync(inputText));
+		for (Future<List<ResolvedLocation>> result : results)
+			assertEquals("Different output from parseAsync", expected, result.get());
+	}
+
 }
@@ -7,7 +7,13 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -69,4 +75,77 @@ public class ApacheExtractorTest {
 		assertEquals("Different extractor results for subsequent identical document.", locationNames1, locationNames2);
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Ensures a single {@link ApacheExtractor} gives the same results
+	 * when shared by several threads at once.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentExtraction() throws Exception {
+		final ApacheExtractor extractor = new ApacheExtractor();
+		final String inputString = TextUtils.fileToString(new File("src/test/resources/sample-docs/Somalia-doc.txt"));
+		List<String> expected = extractor.extractLocationNames(inputString);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+		for (int i = 0; i < 16; i++) {
+			results.add(executor.submit(new Callable<List<String>>() {
+				public List<String> call() {
+					return extractor.extractLocationNames(inputString);
+				}
+			}));
+		}
+		for (Future<List<String>> result : results)
+			assertEquals("Different extractor results when run concurrently.", expected, result.get());
+		executor.shutdown();
+	}
+	
+	/**
+	 * Ensures tagging a document a small window at a time finds the
+	 * same location names, in the same order, as tagging it whole,
+	 * including names straddling window boundaries.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testChunkedExtraction() throws IOException {
+		ApacheExtractor extractor = new ApacheExtractor();
+		String inputString = TextUtils.fileToString(new File("src/test/resources/sample-docs/Somalia-doc.txt"));
+		List<LocationOccurrence> expected = extractor.extractLocationOccurrences(inputString);
+		
+		ApacheExtractor chunkedExtractor = new ApacheExtractor();
+		for (int windowSize : new int[] {512, 1000, 4096}) {
+			chunkedExtractor.setWindowSize(windowSize);
+			assertEquals("Different extractor results when tagging in windows of " + windowSize + " chars.",
+					expected, chunkedExtractor.extractLocationOccurrences(new StringReader(inputString)));
+		}
+	}
+	
+	/**
+	 * Ensures each {@link LocationOccurrence} points at the part of the
+	 * text its name was found in.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testExtractLocationOccurrences() throws IOException {
+		ApacheExtractor extractor = new ApacheExtractor();
+		String inputString = TextUtils.fileToString(new File("src/test/resources/sample-docs/Somalia-doc.txt"));
+		List<LocationOccurrence> occurrences = extractor.extractLocationOccurrences(inputString);
+		List<String> locationNames = extractor.extractLocationNames(inputString);
+		
+		assertEquals("Occurrences don't match location names.", locationNames.size(), occurrences.size());
+		int lastEnd = 0;
+		for (int i = 0; i < occurrences.size(); i++) {
+			LocationOccurrence occurrence = occurrences.get(i);
+			assertEquals("Occurrence has the wrong name.", locationNames.get(i), occurrence.name);
+			assertTrue("Occurrences out of order.", occurrence.startOffset >= lastEnd);
+			assertTrue("Empty token span.", occurrence.endToken > occurrence.startToken);
+			assertEquals("Offsets don't point at the name in the text.", occurrence.name.replaceAll("\\s+", ""),
+					inputString.substring(occurrence.startOffset, occurrence.endOffset).replaceAll("\\s+", ""));
+			lastEnd = occurrence.endOffset;
+		}
+	}
+	
+}
@@ -0,0 +1,94 @@
+package com.berico.clavin.gazetteer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.junit.Test;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoNameSerializerTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Makes sure {@link GeoName} objects survive a round-trip through
+ * their compact binary form.
+ * 
+ */
+public class GeoNameSerializerTest {
+	
+	/**
+	 * Encode & decode every record in the sample gazetteer, and make
+	 * sure nothing changes along the way.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(
+				new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt")), "UTF-8"));
+		String line;
+		while ((line = r.readLine()) != null) {
+			GeoName expected = GeoName.parseFromGeoNamesRecord(line);
+			
+			GeoName actual = GeoNameSerializer.deserialize(GeoNameSerializer.serialize(expected, true));
+			assertSameGeoName(expected, actual);
+			assertEquals("incorrect alternateNames", expected.alternateNames, actual.alternateNames);
+			
+			actual = GeoNameSerializer.deserialize(GeoNameSerializer.serialize(expected, false));
+			assertSameGeoName(expected, actual);
+			assertTrue("alternateNames should have been dropped", actual.alternateNames.isEmpty());
+		}
+		r.close();
+	}
+	
+	static void assertSameGeoName(GeoName expected, GeoName actual) {
+		assertEquals("incorrect geonameID", expected.geonameID, actual.geonameID);
+		assertEquals("incorrect name", expected.name, actual.name);
+		assertEquals("incorrect asciiName", expected.asciiName, actual.asciiName);
+		assertEquals("incorrect latitude", expected.latitude, actual.latitude, 0);
+		assertEquals("incorrect longitude", expected.longitude, actual.longitude, 0);
+		assertEquals("incorrect featureClass", expected.featureClass, actual.featureClass);
+		assertEquals("incorrect featureCode", expected.featureCode, actual.featureCode);
+		assertEquals("incorrect primaryCountryCode", expected.primaryCountryCode, actual.primaryCountryCode);
+		assertEquals("incorrect alternateCountryCodes", expected.alternateCountryCodes, actual.alternateCountryCodes);
+		assertEquals("incorrect adminCode1", expected.admin1Code, actual.admin1Code);
+		assertEquals("incorrect adminCode2", expected.admin2Code, actual.admin2Code);
+		assertEquals("incorrect adminCode3", expected.admin3Code, actual.admin3Code);
+		assertEquals("incorrect adminCode4", expected.admin4Code, actual.admin4Code);
+		assertEquals("incorrect population", expected.population, actual.population);
+		assertEquals("incorrect elevation", expected.elevation, actual.elevation);
+		assertEquals("incorrect digitalElevationModel", expected.digitalElevationModel, actual.digitalElevationModel);
+		assertEquals("incorrect timezone", expected.timezone, actual.timezone);
+		assertEquals("incorrect modificationDate", expected.modificationDate, actual.modificationDate);
+	}
+}
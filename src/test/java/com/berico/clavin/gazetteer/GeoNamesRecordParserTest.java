@@ -0,0 +1,300 @@
+package com.berico.clavin.gazetteer;
+
+import static com.berico.clavin.gazetteer.GeoNameSerializerTest.assertSameGeoName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoNamesRecordParserTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that {@link GeoNamesRecordParser} builds the same
+ * {@link GeoName} objects as the original String.split()-based
+ * parsing code, including for dirty data.
+ * 
+ */
+public class GeoNamesRecordParserTest {
+	
+	GeoNamesRecordParser parser = new GeoNamesRecordParser();
+	
+	/**
+	 * Every record in the sample gazetteer should come out the same.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSampleGazetteer() throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(
+				new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt")), "UTF-8"));
+		String line;
+		while ((line = r.readLine()) != null)
+			assertSameParse(line);
+		r.close();
+	}
+	
+	/**
+	 * Missing, empty, malformed and out-of-range fields should be
+	 * handled just like they used to be.
+	 */
+	@Test
+	public void testDirtyRecords() {
+		String[] records = {
+			// missing trailing columns
+			"1\tA\tA\t\t1.5\t2.5\tP\tPPL\tUS\t\tVA\t059",
+			"2\tB\tB\tx,y\t1\t2\tP\tPPL\tUS\t\tVA\t059\t\t\t100\t5\t6\tAmerica/New_York\t",
+			// odd lists of names & country codes
+			"3\tC\tC\t,a,,b,,\t-0\t+7.25\tA\tADM1\tGB\t,US,,FR,\tENG\t\t\t\t0\t\t\tEurope/London\t2012-02-30",
+			"4\tD\tD\t,,\t.5\t5.\tH\tLK\t\tUS\t\t\t\t\t\t\t\t\t2011-13-01",
+			// malformed & out-of-range numbers
+			"5\tE\tE\t\tabc\t1e3\tP\tPPL\tUS\t\tVA\t\t\t\t99999999999999999999\t2147483648\t-2147483648\tUTC\tnot a date",
+			"6\tF\tF\t\t-\t\tP\tPPL\tUS\t\tVA\t\t\t\t-\t+\t--1\tBogus/Zone\t2011-05-14 extra",
+			"7\tG\tG\t\t12.3456789012345678\t-0.000000000000001\tP\tPPL\tUS\t\tVA\t\t\t\t-9223372036854775808\t-0\t+12\t\t0000-00-00",
+			// extra columns
+			"8\tH\tH\t\t1\t2\tP\tPPL\tUS\t\tVA\t\t\t\t1\t2\t3\tUTC\t2010-01-01\textra\tcolumns",
+			// carriage return left over from DOS line endings
+			"9\tI\tI\t\t1\t2\tP\tPPL\tUS\t\tVA\t\t\t\t1\t2\t3\tUTC\t2010-01-01\r"
+		};
+		for (String record : records)
+			assertSameParse(record);
+	}
+	
+	/**
+	 * Unknown enum values and bad geonameIDs should still be rejected.
+	 */
+	@Test
+	public void testInvalidRecords() {
+		String[] records = {
+			"x\tA\tA\t\t1\t2\tP\tPPL\tUS",
+			"\tA\tA\t\t1\t2\tP\tPPL\tUS",
+			"1\tA\tA\t\t1\t2\tQ\tPPL\tUS",
+			"1\tA\tA\t\t1\t2\tP\tXXXX\tUS",
+			"1\tA\tA\t\t1\t2\tP\tPPL\tZZ",
+			"1\tA\tA\t\t1\t2\tP\tPPL\tUS\tUS,ZZ"
+		};
+		for (String record : records) {
+			try {
+				parser.parse(record);
+				fail("should have rejected " + record);
+			} catch (IllegalArgumentException e) {
+				try {
+					parseWithSplit(record);
+					fail("original code accepted " + record);
+				} catch (IllegalArgumentException expected) {
+					assertEquals("wrong exception for " + record, expected.getClass(), e.getClass());
+					assertEquals("wrong message for " + record, expected.getMessage(), e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Random lat/lon values should be parsed to exactly the same
+	 * doubles as Double.parseDouble() gives.
+	 */
+	@Test
+	public void testCoordinates() {
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			String latitude = Long.toString(random.nextLong() % 1000000000000000L);
+			int point = random.nextInt(latitude.length() + 1);
+			latitude = latitude.substring(0, point) + "." + latitude.substring(point);
+			String longitude = String.valueOf((random.nextDouble() - 0.5) * 360);
+			String record = i + "\tA\tA\t\t" + latitude + "\t" + longitude + "\tP\tPPL\tUS";
+			assertSameParse(record);
+		}
+	}
+	
+	/**
+	 * Records may be parsed straight out of a larger buffer.
+	 */
+	@Test
+	public void testCharArrayWindow() {
+		String record = "4781530\tReston\tReston\tReston,Рестон\t38.96872\t-77.3411\tP\tPPL\tUS\t\tVA\t059\t\t\t58404\t100\t102\tAmerica/New_York\t2011-05-14";
+		String buffer = "junk\n" + record + "\nmore junk";
+		assertSameGeoName(parseWithSplit(record), parser.parse(buffer.toCharArray(), 5, record.length()));
+		assertSameGeoName(parseWithSplit(record), parser.parse(new StringBuilder(record)));
+	}
+	
+	/**
+	 * Parsing just the population should give the same value as
+	 * parsing the whole record, clean or dirty.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPopulation() throws IOException {
+		List<String> records = new ArrayList<String>(Arrays.asList(
+			"1\tA\tA\t\t1\t2\tP\tPPL\tUS",
+			"1\tA\tA\t\t1\t2\tP\tPPL\tUS\t\t\t\t\t\tmany\t\t\t\t",
+			"1\tA\tA\t\t1\t2\tP\tPPL\tUS\t\t\t\t\t\t-5\t\t\t\t",
+			"1\tA\tA\t\t1\t2\tP\tPPL\tUS\t\t\t\t\t\t6814400000\t\t\t\t"));
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(
+				new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt")), "UTF-8"));
+		String line;
+		while ((line = r.readLine()) != null)
+			records.add(line);
+		r.close();
+		
+		for (String record : records) {
+			char[] buffer = ("junk\n" + record + "\n").toCharArray();
+			assertEquals("wrong population for " + record, parser.parse(record).population,
+					parser.parsePopulation(buffer, 5, record.length()));
+		}
+	}
+	
+	private void assertSameParse(String record) {
+		GeoName expected = parseWithSplit(record);
+		GeoName actual = parser.parse(record);
+		assertSameGeoName(expected, actual);
+		assertEquals("incorrect alternateNames", expected.alternateNames, actual.alternateNames);
+		assertEquals("incorrect latitude bits", Double.doubleToLongBits(expected.latitude), Double.doubleToLongBits(actual.latitude));
+		assertEquals("incorrect longitude bits", Double.doubleToLongBits(expected.longitude), Double.doubleToLongBits(actual.longitude));
+	}
+	
+	/**
+	 * The original, String.split()-based parsing code.
+	 */
+	private static GeoName parseWithSplit(String inputLine) {
+		String[] tokens = inputLine.split("\t");
+		
+		int geonameID = Integer.parseInt(tokens[0]);
+		String name = tokens[1];
+		String asciiName = tokens[2];
+		
+		List<String> alternateNames;
+		if (tokens[3].length() > 0) {
+			alternateNames = Arrays.asList(tokens[3].split(","));
+		} else alternateNames = new ArrayList<String>();
+		
+		double latitude;
+		try {
+			latitude = Double.parseDouble(tokens[4]);
+		} catch (NumberFormatException e) {
+			latitude = GeoName.OUT_OF_BOUNDS;
+		}
+		
+		double longitude;
+		try {
+			longitude = Double.parseDouble(tokens[5]);
+		} catch (NumberFormatException e) {
+			longitude = GeoName.OUT_OF_BOUNDS;
+		}
+		
+		FeatureClass featureClass;
+		if (tokens[6].length() > 0) {
+			featureClass = FeatureClass.valueOf(tokens[6]);
+		} else featureClass = FeatureClass.NULL;
+		
+		FeatureCode featureCode;
+		if (tokens[7].length() > 0) {
+			featureCode = FeatureCode.valueOf(tokens[7]);
+		} else featureCode = FeatureCode.NULL;
+		
+		CountryCode primaryCountryCode;
+		if (tokens[8].length() > 0) {
+			primaryCountryCode = CountryCode.valueOf(tokens[8]);
+		} else primaryCountryCode = CountryCode.NULL;
+		
+		List<CountryCode> alternateCountryCodes = new ArrayList<CountryCode>();
+		if (tokens.length > 9 && tokens[9].length() > 0) {
+			for (String code : tokens[9].split(",")) {
+				if (code.length() > 0)
+					alternateCountryCodes.add(CountryCode.valueOf(code));
+			}
+		}
+		
+		// the original code didn't cope with records this short at all
+		String admin1Code = tokens.length > 10 ? tokens[10] : "";
+		String admin2Code = tokens.length > 11 ? tokens[11] : "";
+		
+		String admin3Code;
+		String admin4Code;
+		long population;
+		int elevation;
+		int digitalElevationModel;
+		TimeZone timezone;
+		Date modificationDate;
+		
+		if (tokens.length < 19) {
+			admin3Code = "";
+			admin4Code = "";
+			population = GeoName.OUT_OF_BOUNDS;
+			elevation = GeoName.OUT_OF_BOUNDS;
+			digitalElevationModel = GeoName.OUT_OF_BOUNDS;
+			timezone = null;
+			modificationDate = new Date(0);
+		} else {
+			admin3Code = tokens[12];
+			admin4Code = tokens[13];
+			try {
+				population = Long.parseLong(tokens[14]);
+			} catch (NumberFormatException e) {
+				population = GeoName.OUT_OF_BOUNDS;
+			}
+			try {
+				elevation = Integer.parseInt(tokens[15]);
+			} catch (NumberFormatException e) {
+				elevation = GeoName.OUT_OF_BOUNDS;
+			}
+			try {
+				digitalElevationModel = Integer.parseInt(tokens[16]);
+			} catch (NumberFormatException e) {
+				digitalElevationModel = GeoName.OUT_OF_BOUNDS;
+			}
+			timezone = TimeZone.getTimeZone(tokens[17]);
+			try {
+				modificationDate = new SimpleDateFormat("yyyy-MM-dd").parse(tokens[18]);
+			} catch (ParseException e) {
+				modificationDate = new Date(0);
+			}
+		}
+		
+		return new GeoName(geonameID, name, asciiName, alternateNames,
+				latitude, longitude, featureClass, featureCode,
+				primaryCountryCode, alternateCountryCodes, admin1Code,
+				admin2Code, admin3Code, admin4Code, population,
+				elevation, digitalElevationModel, timezone,
+				modificationDate);
+	}
+}
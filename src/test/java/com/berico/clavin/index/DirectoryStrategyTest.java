@@ -0,0 +1,139 @@
+package com.berico.clavin.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.berico.clavin.resolver.LocationResolver;
+import com.berico.clavin.resolver.ResolvedLocation;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * DirectoryStrategyTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that each {@link DirectoryStrategy} opens the index the way
+ * it says, with the same results, and that {@link LocationResolver}
+ * reports where the index ended up.
+ * 
+ */
+public class DirectoryStrategyTest {
+	
+	static File indexDir;
+	
+	@BeforeClass
+	public static void buildIndex() throws IOException {
+		indexDir = SampleIndex.build();
+	}
+	
+	@AfterClass
+	public static void deleteIndex() {
+		SampleIndex.delete(indexDir);
+	}
+	
+	/**
+	 * Ensures each strategy opens the expected kind of directory.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testOpen() throws IOException {
+		assertOpens(MMapDirectory.class, DirectoryStrategy.MMAP);
+		assertOpens(MMapDirectory.class, DirectoryStrategy.MMAP_PRELOAD);
+		assertOpens(NIOFSDirectory.class, DirectoryStrategy.NIO);
+		assertOpens(RAMDirectory.class, DirectoryStrategy.RAM);
+	}
+	
+	/**
+	 * Ensures every byte of the index is read when preloading.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPreload() throws IOException {
+		Directory directory = DirectoryStrategy.MMAP.open(indexDir);
+		try {
+			assertEquals("wrong number of bytes preloaded", sizeOnDisk(), DirectoryStrategy.preload(directory));
+		} finally {
+			directory.close();
+		}
+	}
+	
+	/**
+	 * Ensures the resolver gives the same results however the index is
+	 * opened, and reports how much of it is mapped or on the heap.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testResolverSizes() throws IOException, ParseException {
+		List<String> names = Arrays.asList("Boston", "Reston", "Gun Barrel City");
+		List<ResolvedLocation> expected = new LocationResolver(indexDir, 5, 5).resolveLocations(names, false);
+		
+		for (DirectoryStrategy strategy : DirectoryStrategy.values()) {
+			LocationResolver resolver = new LocationResolver(indexDir, strategy, 5, 5);
+			assertEquals("wrong strategy", strategy, resolver.getDirectoryStrategy());
+			assertEquals(strategy + ": wrong results", expected, resolver.resolveLocations(names, false));
+			assertEquals(strategy + ": wrong size on disk", sizeOnDisk(), resolver.getIndexSizeOnDisk());
+			
+			boolean mapped = strategy == DirectoryStrategy.MMAP || strategy == DirectoryStrategy.MMAP_PRELOAD;
+			assertEquals(strategy + ": wrong mapped size", mapped, resolver.getIndexSizeMapped() > 0);
+			assertTrue(strategy + ": mapped more than on disk", resolver.getIndexSizeMapped() <= sizeOnDisk());
+			assertEquals(strategy + ": wrong heap size", strategy == DirectoryStrategy.RAM, resolver.getIndexSizeOnHeap() > 0);
+		}
+	}
+	
+	private static void assertOpens(Class<?> expected, DirectoryStrategy strategy) throws IOException {
+		Directory directory = strategy.open(indexDir);
+		try {
+			assertEquals(strategy + ": wrong directory", expected, directory.getClass());
+		} finally {
+			directory.close();
+		}
+	}
+	
+	private static long sizeOnDisk() {
+		long size = 0;
+		for (File file : indexDir.listFiles())
+			size += file.length();
+		return size;
+	}
+}
@@ -0,0 +1,146 @@
+package com.berico.clavin.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import com.berico.clavin.gazetteer.GeoName;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoNameRecordsTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Makes sure every name indexed by {@link IndexDirectoryBuilder} leads
+ * back to the right gazetteer record.
+ * 
+ */
+public class GeoNameRecordsTest {
+	
+	/**
+	 * Index the sample gazetteer across several segments, and check
+	 * the record found for every name document.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRecordDocFor() throws IOException {
+		RAMDirectory index = new RAMDirectory();
+		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_40, new WhitespaceLowerCaseAnalyzer());
+		// flush often, so we wind up with more than one segment
+		config.setMaxBufferedDocs(10);
+		IndexWriter indexWriter = new IndexWriter(index, config);
+		
+		// which geonameIDs each name is expected to resolve to
+		Map<String, Set<Integer>> expectedIDs = new HashMap<String, Set<Integer>>();
+		
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(
+				new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt")), "UTF-8"));
+		String line;
+		while ((line = r.readLine()) != null) {
+			IndexDirectoryBuilder.addToIndex(indexWriter, GeoName.parseFromGeoNamesRecord(line));
+			GeoName geoname = GeoName.parseFromGeoNamesRecord(line);
+			expect(expectedIDs, geoname.name, geoname.geonameID);
+			expect(expectedIDs, geoname.asciiName, geoname.geonameID);
+			for (String altName : geoname.alternateNames)
+				expect(expectedIDs, altName, geoname.geonameID);
+		}
+		r.close();
+		indexWriter.close();
+		
+		DirectoryReader reader = DirectoryReader.open(index);
+		assertTrue("test should cover multiple segments", reader.leaves().size() > 1);
+		GeoNameRecords records = new GeoNameRecords(reader);
+		
+		int names = 0;
+		for (int docID = 0; docID < reader.maxDoc(); docID++) {
+			String indexName = reader.document(docID).get("indexName");
+			if (indexName == null)
+				continue; // record document
+			
+			GeoName geoname = GeoNameRecords.decodeGeoName(reader.document(records.recordDocFor(docID)));
+			assertTrue("wrong record for " + indexName, expectedIDs.get(indexName).contains(geoname.geonameID));
+			names++;
+		}
+		assertTrue("no names were indexed", names > 0);
+		reader.close();
+	}
+	
+	/**
+	 * Indexes built with one payload per document should still work.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testOlderIndexLayout() throws IOException {
+		String record = "4781530\tReston\tReston\tReston,Рестон\t38.96872\t-77.3411\tP\tPPL\tUS\t\tVA\t059\t\t\t58404\t100\t102\tAmerica/New_York\t2011-05-14";
+		
+		RAMDirectory index = new RAMDirectory();
+		IndexWriter indexWriter = new IndexWriter(index, new IndexWriterConfig(Version.LUCENE_40, new WhitespaceLowerCaseAnalyzer()));
+		Document doc = new Document();
+		doc.add(new TextField("indexName", "Reston", Field.Store.YES));
+		doc.add(new StoredField("geoname", record));
+		indexWriter.addDocument(doc);
+		indexWriter.close();
+		
+		DirectoryReader reader = DirectoryReader.open(index);
+		GeoNameRecords records = new GeoNameRecords(reader);
+		assertEquals("payload should be on the name document itself", 0, records.recordDocFor(0));
+		assertEquals("wrong record decoded", 4781530,
+				GeoNameRecords.decodeGeoName(reader.document(0)).geonameID);
+		reader.close();
+	}
+	
+	private static void expect(Map<String, Set<Integer>> expectedIDs, String name, int geonameID) {
+		Set<Integer> ids = expectedIDs.get(name);
+		if (ids == null) {
+			ids = new HashSet<Integer>();
+			expectedIDs.put(name, ids);
+		}
+		ids.add(geonameID);
+	}
+}
@@ -0,0 +1,68 @@
+package com.berico.clavin.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.junit.Test;
+
+import com.berico.clavin.gazetteer.GeoName;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * IndexDirectoryBuilderTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks the documents {@link IndexDirectoryBuilder} builds for each
+ * gazetteer record.
+ * 
+ */
+public class IndexDirectoryBuilderTest {
+	
+	/**
+	 * Names with the same key should only get one name entry, the
+	 * first one, followed by the record entry.
+	 */
+	@Test
+	public void testBuildBlock() {
+		GeoName geoname = GeoName.parseFromGeoNamesRecord("3448439\tS\u00e3o Paulo\tSao Paulo\t"
+				+ "SAO PAULO,S\u00e3o  Paulo,Sampa,sao paulo,,Sampa\t-23.5475\t-46.63611\tP\tPPLA\tBR\t\t27\t"
+				+ "3550308\t\t\t10021295\t\t767\tAmerica/Sao_Paulo\t2012-08-22");
+		
+		List<Document> block = IndexDirectoryBuilder.buildBlock(geoname);
+		List<String> names = new ArrayList<String>();
+		for (Document doc : block.subList(0, block.size() - 1))
+			names.add(doc.get("indexName"));
+		assertEquals("wrong name entries", Arrays.asList("S\u00e3o Paulo", "Sampa"), names);
+		assertEquals("record entry should come last", null, block.get(block.size() - 1).get("indexName"));
+		assertEquals("wrong record entry", GeoNameRecords.RECORD_TERM.text(),
+				block.get(block.size() - 1).get(GeoNameRecords.RECORD_TERM.field()));
+	}
+}
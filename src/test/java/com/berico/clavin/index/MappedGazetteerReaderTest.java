@@ -0,0 +1,170 @@
+package com.berico.clavin.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * MappedGazetteerReaderTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that {@link MappedGazetteerReader} reads the same lines a
+ * BufferedReader would, however the file is split into regions.
+ * 
+ */
+public class MappedGazetteerReaderTest {
+	
+	/**
+	 * Read the sample gazetteer in regions of all sorts of sizes.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSampleGazetteer() throws IOException {
+		File file = new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt");
+		List<String> expected = readWithBufferedReader(file);
+		for (int regionSize : new int[] {1, 7, 100, 1000, MappedGazetteerReader.DEFAULT_REGION_SIZE})
+			assertEquals("wrong lines for region size " + regionSize, expected, readMapped(file, regionSize));
+	}
+	
+	/**
+	 * Mixed line breaks, blank lines, multi-byte chars, malformed UTF-8
+	 * and a missing final line break should all come out the same.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testOddFile() throws IOException {
+		File file = File.createTempFile("gazetteer", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("first\r\nsecond\rthird\n\nStraßenhaus\tРестон\n".getBytes("UTF-8"));
+		out.write(new byte[] {'b', 'a', 'd', (byte)0xC3, '\n', (byte)0xE2, (byte)0x82, '\r', '\n'});
+		out.write("last, without line break".getBytes("UTF-8"));
+		out.close();
+		
+		List<String> expected = readWithBufferedReader(file);
+		for (int regionSize = 1; regionSize < 80; regionSize++)
+			assertEquals("wrong lines for region size " + regionSize, expected, readMapped(file, regionSize));
+	}
+	
+	/**
+	 * Regions should cover the whole file, and end on line breaks (so
+	 * tiny regions hold a single record each).
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRegions() throws IOException {
+		File file = new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt");
+		List<MappedGazetteerReader.Region> regions = MappedGazetteerReader.split(file, 1);
+		long position = 0;
+		for (MappedGazetteerReader.Region region : regions) {
+			assertEquals("gap between regions", position, region.getStart());
+			position = region.getEnd();
+		}
+		assertEquals("regions don't cover the file", file.length(), position);
+		assertEquals("should be one record per region", readWithBufferedReader(file).size(), regions.size());
+	}
+	
+	/**
+	 * Reading with positions should give the same lines, each found at
+	 * its position & length in bytes within the file.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPositions() throws IOException {
+		File file = File.createTempFile("gazetteer", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("first\r\nsecond\rthird\n\nStra\u00dfenhaus\t\u0420\u0435\u0441\u0442\u043e\u043d\nlast".getBytes("UTF-8"));
+		out.close();
+		
+		final byte[] bytes = readBytes(file);
+		List<String> expected = readWithBufferedReader(file);
+		for (int regionSize = 1; regionSize < 60; regionSize++) {
+			final List<String> lines = new ArrayList<String>();
+			for (MappedGazetteerReader.Region region : MappedGazetteerReader.split(file, regionSize)) {
+				region.readPositioned(new MappedGazetteerReader.PositionedLineHandler() {
+					public boolean line(char[] chars, int offset, int length, long position, int byteLength)
+							throws IOException {
+						String line = new String(chars, offset, length);
+						assertEquals("wrong position for " + line, line,
+								new String(bytes, (int)position, byteLength, "UTF-8"));
+						lines.add(line);
+						return true;
+					}
+				});
+			}
+			assertEquals("wrong lines for region size " + regionSize, expected, lines);
+		}
+	}
+	
+	private static byte[] readBytes(File file) throws IOException {
+		byte[] bytes = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		int read = 0;
+		while (read < bytes.length)
+			read += in.read(bytes, read, bytes.length - read);
+		in.close();
+		return bytes;
+	}
+	
+	private static List<String> readWithBufferedReader(File file) throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = r.readLine()) != null)
+			lines.add(line);
+		r.close();
+		return lines;
+	}
+	
+	private static List<String> readMapped(File file, int regionSize) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		for (MappedGazetteerReader.Region region : MappedGazetteerReader.split(file, regionSize)) {
+			region.read(new MappedGazetteerReader.LineHandler() {
+				public boolean line(char[] chars, int offset, int length) {
+					lines.add(new String(chars, offset, length));
+					return true;
+				}
+			});
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,74 @@
+package com.berico.clavin.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.berico.clavin.resolver.LocationQueryBuilder;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * NameKeysTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks the normalized keys stored for location names.
+ * 
+ */
+public class NameKeysTest {
+	
+	/**
+	 * Keys ignore case, extra whitespace and accents.
+	 */
+	@Test
+	public void testNormalize() {
+		assertEquals("reston", NameKeys.normalize("Reston"));
+		assertEquals("gun barrel city", NameKeys.normalize("  Gun\tBarrel\n City "));
+		assertEquals("strassenhaus", NameKeys.normalize("Stra\u00dfenhaus"));
+		assertEquals("cote d'ivoire", NameKeys.normalize("C\u00f4te d'Ivoire"));
+		assertEquals("", NameKeys.normalize("  "));
+	}
+	
+	/**
+	 * Keys built from a name at query time, via the analyzer, should be
+	 * the same as those stored in the index for it.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testFoldMatchesNormalize() throws IOException {
+		LocationQueryBuilder builder = new LocationQueryBuilder("indexName", new WhitespaceLowerCaseAnalyzer());
+		String[] names = {"Reston", "Kansas  City", "St. John's", "Stra\u00dfenhaus Airport",
+				"\u1e28owz-e \u1e28\u0101j\u012b B\u0113g", "Ra's S\u0101lim", "BOSTON"};
+		for (String name : names) {
+			List<String> tokens = builder.analyze(name);
+			assertEquals("different keys for " + name, NameKeys.normalize(name), NameKeys.fold(builder.normalize(tokens)));
+		}
+	}
+}
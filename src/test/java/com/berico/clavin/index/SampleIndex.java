@@ -0,0 +1,149 @@
+package com.berico.clavin.index;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+import com.berico.clavin.gazetteer.GeoName;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * SampleIndex.java
+ * 
+ *###################################################################*/
+
+/**
+ * Builds a small Lucene index from the sample gazetteer, for tests
+ * that need a real index on disk but not the whole of GeoNames.
+ * 
+ */
+public class SampleIndex {
+	
+	/**
+	 * Builds an index from the sample gazetteer and the supplementary
+	 * gazetteer, in a fresh temporary directory.
+	 * 
+	 * @return				directory holding the new index
+	 * @throws IOException
+	 */
+	public static File build() throws IOException {
+		File indexDir = createIndexDir();
+		
+		FSDirectory index = FSDirectory.open(indexDir);
+		IndexWriter indexWriter = new IndexWriter(index,
+				new IndexWriterConfig(Version.LUCENE_40, new WhitespaceLowerCaseAnalyzer()));
+		addGazetteer(indexWriter, new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt"));
+		addGazetteer(indexWriter, new File("./src/main/resources/SupplementaryGazetteer.txt"));
+		indexWriter.close();
+		index.close();
+		
+		return indexDir;
+	}
+	
+	/**
+	 * Builds an index from the same gazetteers as
+	 * {@link SampleIndex#build()}, but with the records in order of
+	 * descending population, the way {@link IndexDirectoryBuilder}
+	 * builds it by default.
+	 * 
+	 * @return				directory holding the new index
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static File buildSortedByPopulation() throws IOException, InterruptedException {
+		File indexDir = createIndexDir();
+		addSortedByPopulation(indexDir, OpenMode.CREATE);
+		return indexDir;
+	}
+	
+	/**
+	 * Adds the same records as {@link SampleIndex#buildSortedByPopulation()}
+	 * to the index in the given directory, in population order.
+	 * 
+	 * @param indexDir		directory holding the index
+	 * @param openMode		whether to replace or add to any index already there
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void addSortedByPopulation(File indexDir, OpenMode openMode) throws IOException, InterruptedException {
+		FSDirectory index = FSDirectory.open(indexDir);
+		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_40, new WhitespaceLowerCaseAnalyzer());
+		config.setOpenMode(openMode);
+		config.setMergePolicy(new LogByteSizeMergePolicy());
+		IndexWriter indexWriter = new IndexWriter(index, config);
+		ExecutorService workers = Executors.newFixedThreadPool(3);
+		try {
+			IndexDirectoryBuilder.indexRecordsByPopulation(Arrays.asList(
+					new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt"),
+					new File("./src/main/resources/SupplementaryGazetteer.txt")),
+					indexWriter, workers, new IndexDirectoryBuilder.IndexingProgress(System.currentTimeMillis()));
+		} finally {
+			workers.shutdown();
+		}
+		indexWriter.close();
+		index.close();
+	}
+	
+	/**
+	 * Deletes an index built by {@link SampleIndex}.
+	 * 
+	 * @param indexDir		directory holding the index
+	 */
+	public static void delete(File indexDir) {
+		File[] files = indexDir.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		indexDir.delete();
+	}
+	
+	private static File createIndexDir() throws IOException {
+		File indexDir = File.createTempFile("clavin-index", "");
+		if (!indexDir.delete() || !indexDir.mkdir())
+			throw new IOException("Unable to create " + indexDir);
+		return indexDir;
+	}
+	
+	private static void addGazetteer(IndexWriter indexWriter, File gazetteer) throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(gazetteer), "UTF-8"));
+		String line;
+		while ((line = r.readLine()) != null)
+			IndexDirectoryBuilder.addToIndex(indexWriter, GeoName.parseFromGeoNamesRecord(line));
+		r.close();
+	}
+}
@@ -0,0 +1,133 @@
+package com.berico.clavin.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.berico.clavin.metrics.GeoParserMetrics.Counter;
+import com.berico.clavin.metrics.GeoParserMetrics.Stage;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * LatencyHistogramTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks the bucketing and percentiles of {@link LatencyHistogram},
+ * and the totals kept by {@link HistogramMetrics}.
+ * 
+ */
+public class LatencyHistogramTest {
+	
+	/**
+	 * Ensures every value falls in a bucket covering it, no more than
+	 * 1/64 of the value wide, and that buckets are in value order.
+	 */
+	@Test
+	public void testBuckets() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			long value = (i < 1000) ? i : random.nextLong() >>> (1 + random.nextInt(63));
+			int bucket = LatencyHistogram.bucketFor(value);
+			long highest = LatencyHistogram.highestValueIn(bucket);
+			long lowest = (bucket == 0) ? 0 : LatencyHistogram.highestValueIn(bucket - 1) + 1;
+			assertTrue("bucket doesn't cover " + value, lowest <= value && value <= highest);
+			assertTrue("bucket too wide for " + value, highest - lowest <= Math.max(0, lowest / 64));
+		}
+		assertEquals("wrong bucket for max value", LatencyHistogram.bucketFor(Long.MAX_VALUE),
+				LatencyHistogram.bucketFor(Long.MAX_VALUE - Long.MAX_VALUE / 128));
+		assertEquals("wrong highest value", Long.MAX_VALUE,
+				LatencyHistogram.highestValueIn(LatencyHistogram.bucketFor(Long.MAX_VALUE)));
+	}
+	
+	/**
+	 * Ensures percentiles match those of the recorded values, to within
+	 * the histogram's precision.
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals("empty histogram", 0, histogram.getValueAtPercentile(99));
+		
+		Random random = new Random(42);
+		long[] values = new long[10000];
+		long total = 0;
+		for (int i = 0; i < values.length; i++) {
+			// roughly log-normal, like latencies tend to be
+			values[i] = (long)Math.exp(10 + 2 * random.nextGaussian());
+			histogram.record(values[i]);
+			total += values[i];
+		}
+		Arrays.sort(values);
+		
+		assertEquals("wrong count", values.length, histogram.getCount());
+		assertEquals("wrong total", total, histogram.getTotal());
+		assertEquals("wrong max", values[values.length - 1], histogram.getMax());
+		assertEquals("wrong max percentile", values[values.length - 1], histogram.getValueAtPercentile(100));
+		for (double percentile : new double[] {0, 50, 90, 99, 99.9}) {
+			long expected = values[Math.max(0, (int)Math.ceil(percentile / 100 * values.length) - 1)];
+			long actual = histogram.getValueAtPercentile(percentile);
+			assertTrue("wrong p" + percentile + ": " + actual + " for " + expected,
+					expected <= actual && actual <= expected + expected / 64);
+		}
+		
+		histogram.record(-5);
+		assertEquals("negative values should count as zero", 0, histogram.getValueAtPercentile(0));
+		
+		histogram.reset();
+		assertEquals("reset didn't clear count", 0, histogram.getCount());
+		assertEquals("reset didn't clear max", 0, histogram.getMax());
+		assertEquals("reset didn't clear buckets", 0, histogram.getValueAtPercentile(50));
+	}
+	
+	/**
+	 * Ensures each stage & counter is kept separately.
+	 */
+	@Test
+	public void testHistogramMetrics() {
+		HistogramMetrics metrics = new HistogramMetrics();
+		metrics.recordLatency(Stage.NER, 1000);
+		metrics.recordLatency(Stage.NER, 3000);
+		metrics.recordLatency(Stage.FUZZY_SEARCH, 50);
+		metrics.increment(Counter.NAMES_EXTRACTED, 7);
+		metrics.increment(Counter.NAMES_EXTRACTED, 2);
+		
+		assertEquals("wrong NER count", 2, metrics.getLatencies(Stage.NER).getCount());
+		assertEquals("wrong NER max", 3000, metrics.getLatencies(Stage.NER).getMax());
+		assertEquals("wrong fuzzy search count", 1, metrics.getLatencies(Stage.FUZZY_SEARCH).getCount());
+		assertEquals("wrong tokenize count", 0, metrics.getLatencies(Stage.TOKENIZE).getCount());
+		assertEquals("wrong names extracted", 9, metrics.getCount(Counter.NAMES_EXTRACTED));
+		assertEquals("wrong empty results", 0, metrics.getCount(Counter.EMPTY_RESULTS));
+		
+		metrics.reset();
+		assertEquals("reset didn't clear latencies", 0, metrics.getLatencies(Stage.NER).getCount());
+		assertEquals("reset didn't clear counters", 0, metrics.getCount(Counter.NAMES_EXTRACTED));
+	}
+}
@@ -0,0 +1,242 @@
+package com.berico.clavin.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.berico.clavin.extractor.LocationExtractor;
+import com.berico.clavin.index.SampleIndex;
+import com.berico.clavin.resolver.LocationResolver;
+import com.berico.clavin.resolver.ResolvedLocation;
+import com.berico.clavin.util.TextUtils;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoParsingPipelineTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Runs small corpora through the {@link GeoParsingPipeline} and checks
+ * each document comes out just as {@link LocationResolver} would
+ * resolve it on its own.
+ * 
+ */
+public class GeoParsingPipelineTest {
+	
+	static File indexDir;
+	
+	// stands in for the NER: location names are separated by commas,
+	// "boom" blows up, and "crash" takes its thread down with it
+	LocationExtractor extractor = new LocationExtractor() {
+		public List<String> extractLocationNames(String plainText) {
+			if (plainText.contains("boom"))
+				throw new IllegalStateException("boom");
+			if (plainText.contains("crash"))
+				throw new StackOverflowError("crash");
+			return Arrays.asList(plainText.split(","));
+		}
+	};
+	
+	String[] documents = {"Reston,Boston", "Gun Barrel City", "", "boom", "Nowhere,BOSTON,Reston", "Straßenhaus"};
+	
+	@BeforeClass
+	public static void buildIndex() throws IOException {
+		indexDir = SampleIndex.build();
+	}
+	
+	@AfterClass
+	public static void deleteIndex() {
+		SampleIndex.delete(indexDir);
+	}
+	
+	/**
+	 * One document per line, through a deliberately cramped pipeline.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testLines() throws IOException, ParseException {
+		LocationResolver resolver = new LocationResolver(indexDir, 5, 5);
+		GeoParsingPipeline pipeline = new GeoParsingPipeline(extractor, resolver, false);
+		pipeline.setQueueCapacity(1);
+		pipeline.setExtractionThreads(3);
+		pipeline.setResolutionThreads(2);
+		pipeline.setResolutionBatchSize(2);
+		
+		StringBuilder input = new StringBuilder();
+		for (String document : documents)
+			input.append(document).append('\n');
+		
+		StringWriter out = new StringWriter();
+		long count = pipeline.run(new BufferedReader(new StringReader(input.toString())), out);
+		assertEquals("wrong number of documents", documents.length, count);
+		
+		Map<String, String> expected = new HashMap<String, String>();
+		for (int i = 0; i < documents.length; i++)
+			expected.put(String.valueOf(i + 1), expectedLine(String.valueOf(i + 1), documents[i], resolver, false));
+		assertLines(expected, out.toString());
+	}
+	
+	/**
+	 * One document per file, in nested directories.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testDirectory() throws IOException, ParseException {
+		File corpus = File.createTempFile("corpus", "");
+		corpus.delete();
+		File nested = new File(corpus, "nested");
+		nested.mkdirs();
+		
+		LocationResolver resolver = new LocationResolver(indexDir, 1, 1);
+		Map<String, String> expected = new HashMap<String, String>();
+		try {
+			for (int i = 0; i < documents.length; i++) {
+				File file = new File(i % 2 == 0 ? corpus : nested, "doc" + i + ".txt");
+				FileWriter writer = new FileWriter(file);
+				writer.write(documents[i]);
+				writer.close();
+				// read it back, in case the platform charset mangled it
+				expected.put(file.getPath(), expectedLine(file.getPath(), TextUtils.fileToString(file), resolver, true));
+			}
+			
+			StringWriter out = new StringWriter();
+			new GeoParsingPipeline(extractor, resolver, true).run(corpus, out);
+			assertLines(expected, out.toString());
+		} finally {
+			for (File dir : new File[] {nested, corpus}) {
+				for (File file : dir.listFiles())
+					file.delete();
+				dir.delete();
+			}
+		}
+	}
+	
+	/**
+	 * An Error in a stage thread should fail the whole run, rather
+	 * than leave the other stages waiting forever.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test(timeout = 60000)
+	public void testStageError() throws IOException, ParseException {
+		LocationResolver resolver = new LocationResolver(indexDir, 1, 1);
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			input.append(i == 3 ? "crash" : "Reston,Boston").append('\n');
+		
+		GeoParsingPipeline pipeline = new GeoParsingPipeline(extractor, resolver, false);
+		pipeline.setQueueCapacity(1);
+		pipeline.setExtractionThreads(2);
+		try {
+			pipeline.run(new BufferedReader(new StringReader(input.toString())), new StringWriter());
+			fail("should have failed");
+		} catch (IOException e) {
+			assertTrue("wrong cause: " + e.getCause(), e.getCause() instanceof StackOverflowError);
+		}
+	}
+	
+	/**
+	 * A RuntimeException while writing results should fail the run
+	 * too.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test(timeout = 60000)
+	public void testWriterException() throws IOException, ParseException {
+		LocationResolver resolver = new LocationResolver(indexDir, 1, 1);
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			input.append("Reston,Boston").append('\n');
+		
+		Writer out = new StringWriter() {
+			@Override
+			public void write(String str) {
+				throw new IllegalStateException("full");
+			}
+		};
+		GeoParsingPipeline pipeline = new GeoParsingPipeline(extractor, resolver, false);
+		pipeline.setQueueCapacity(1);
+		try {
+			pipeline.run(new BufferedReader(new StringReader(input.toString())), out);
+			fail("should have failed");
+		} catch (IOException e) {
+			assertTrue("wrong cause: " + e.getCause(), e.getCause() instanceof IllegalStateException);
+		}
+	}
+	
+	/**
+	 * What the pipeline ought to write for a document.
+	 */
+	private String expectedLine(String id, String document, LocationResolver resolver, boolean fuzzy) throws IOException, ParseException {
+		StringWriter out = new StringWriter();
+		JsonLinesWriter writer = new JsonLinesWriter(out);
+		try {
+			List<ResolvedLocation> locations = resolver.resolveLocations(extractor.extractLocationNames(document), fuzzy);
+			writer.write(id, locations);
+		} catch (IllegalStateException e) {
+			writer.writeError(id, e);
+		}
+		return out.toString().trim();
+	}
+	
+	/**
+	 * Output may come in any order, but each document should appear
+	 * exactly once, as expected.
+	 */
+	private static void assertLines(Map<String, String> expected, String output) {
+		String[] lines = output.split("\n");
+		assertEquals("wrong number of lines", expected.size(), lines.length);
+		for (String line : lines) {
+			assertTrue("not a JSON object: " + line, line.startsWith("{\"id\":\"") && line.endsWith("}"));
+			String id = line.substring(7, line.indexOf('"', 7));
+			assertEquals("wrong output for document " + id, expected.remove(id), line);
+		}
+		assertTrue("missing documents: " + expected.keySet(), expected.isEmpty());
+	}
+}
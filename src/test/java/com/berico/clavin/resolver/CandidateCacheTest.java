@@ -0,0 +1,86 @@
+package com.berico.clavin.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * CandidateCacheTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks the eviction policy and usage counters of
+ * {@link CandidateCache}.
+ * 
+ */
+public class CandidateCacheTest {
+	
+	/**
+	 * Ensures lookups are keyed on name, fuzzy flag and hit depth, and
+	 * that hits & misses are counted.
+	 */
+	@Test
+	public void testGetAndPut() {
+		CandidateCache cache = new CandidateCache(10);
+		List<ResolvedLocation> candidates = new ArrayList<ResolvedLocation>();
+		candidates.add(CandidateComboSearchTest.buildLocation(4930956, "US", "MA"));
+		
+		assertNull("nothing cached yet", cache.get("boston", false, 5));
+		cache.put("boston", false, 5, candidates);
+		assertEquals("cached candidates not returned", candidates, cache.get("boston", false, 5));
+		assertNull("fuzzy flag should be part of the key", cache.get("boston", true, 5));
+		assertNull("hit depth should be part of the key", cache.get("boston", false, 1));
+		
+		assertEquals("wrong hit count", 1, cache.getHitCount());
+		assertEquals("wrong miss count", 3, cache.getMissCount());
+	}
+	
+	/**
+	 * Ensures the least-recently-used name is the one evicted.
+	 */
+	@Test
+	public void testEviction() {
+		// single segment, so the eviction order is predictable
+		CandidateCache cache = new CandidateCache(2, 1);
+		List<ResolvedLocation> candidates = new ArrayList<ResolvedLocation>();
+		
+		cache.put("baghdad", false, 5, candidates);
+		cache.put("europe", false, 5, candidates);
+		cache.get("baghdad", false, 5);
+		cache.put("washington", false, 5, candidates);
+		
+		assertEquals("cache grew past its max size", 2, cache.size());
+		assertEquals("wrong eviction count", 1, cache.getEvictionCount());
+		assertNotNull("recently used entry was evicted", cache.get("baghdad", false, 5));
+		assertNull("least recently used entry wasn't evicted", cache.get("europe", false, 5));
+	}
+}
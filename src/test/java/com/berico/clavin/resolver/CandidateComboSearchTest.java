@@ -0,0 +1,201 @@
+package com.berico.clavin.resolver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.berico.clavin.gazetteer.GeoName;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * CandidateComboSearchTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that {@link CandidateComboSearch} picks exactly the same
+ * combination of candidates as exhaustively scoring every combination
+ * would.
+ * 
+ */
+public class CandidateComboSearchTest {
+	
+	// a handful of country & admin1 codes, so there's lots of overlap
+	static final String[] countries = {"US", "GB", "CA", "DE"};
+	static final String[] admin1s = {"MA", "IL", "MO", "ENG", "08"};
+	
+	/**
+	 * Compares the branch-and-bound search against brute force on
+	 * randomly generated lists of candidates.
+	 */
+	@Test
+	public void testMatchesExhaustiveSearch() {
+		Random random = new Random(42);
+		int geonameID = 1;
+		
+		for (int trial = 0; trial < 200; trial++) {
+			List<List<ResolvedLocation>> allCandidates = new ArrayList<List<ResolvedLocation>>();
+			int names = 1 + random.nextInt(6);
+			for (int i = 0; i < names; i++) {
+				List<ResolvedLocation> candidates = new ArrayList<ResolvedLocation>();
+				int hits = 1 + random.nextInt(5);
+				for (int j = 0; j < hits; j++)
+					candidates.add(buildLocation(geonameID++,
+							countries[random.nextInt(countries.length)],
+							admin1s[random.nextInt(admin1s.length)]));
+				allCandidates.add(candidates);
+			}
+			
+			assertEquals("wrong combination picked in trial " + trial,
+					exhaustivePick(allCandidates), pick(allCandidates));
+		}
+	}
+	
+	/**
+	 * Weighting location names by their number of mentions scales the
+	 * scores, but picks the same combination.
+	 */
+	@Test
+	public void testMentionCounts() {
+		Random random = new Random(7);
+		int geonameID = 1;
+		
+		for (int trial = 0; trial < 100; trial++) {
+			List<List<ResolvedLocation>> allCandidates = new ArrayList<List<ResolvedLocation>>();
+			int names = 1 + random.nextInt(6);
+			int[] mentionCounts = new int[names];
+			int mentions = 0;
+			for (int i = 0; i < names; i++) {
+				List<ResolvedLocation> candidates = new ArrayList<ResolvedLocation>();
+				int hits = 1 + random.nextInt(5);
+				for (int j = 0; j < hits; j++)
+					candidates.add(buildLocation(geonameID++,
+							countries[random.nextInt(countries.length)],
+							admin1s[random.nextInt(admin1s.length)]));
+				allCandidates.add(candidates);
+				mentionCounts[i] = 1 + random.nextInt(40);
+				mentions += mentionCounts[i];
+			}
+			
+			CandidateComboSearch weighted = new CandidateComboSearch(allCandidates, mentionCounts);
+			CandidateComboSearch unweighted = new CandidateComboSearch(allCandidates);
+			assertEquals("wrong score in trial " + trial, unweighted.search(3, 0) * mentions / names,
+					weighted.search(3, 0), 1e-4);
+			assertEquals("wrong combination picked in trial " + trial, unweighted.getBestCombo(),
+					weighted.getBestCombo());
+			for (int i = 0; i < names; i++)
+				assertEquals("wrong index in trial " + trial, weighted.getBestCombo().get(i),
+						allCandidates.get(i).get(weighted.getBestIndices()[i]));
+		}
+	}
+	
+	/**
+	 * Nothing to resolve means nothing gets picked.
+	 */
+	@Test
+	public void testEmpty() {
+		assertEquals("empty input should produce empty output", 0,
+				pick(new ArrayList<List<ResolvedLocation>>()).size());
+	}
+	
+	/**
+	 * Same depth-deepening loop as
+	 * {@link LocationResolver#pickBestCandidates(List<List<ResolvedLocation>>, int[])}.
+	 */
+	private static List<ResolvedLocation> pick(List<List<ResolvedLocation>> allCandidates) {
+		CandidateComboSearch comboSearch = new CandidateComboSearch(allCandidates);
+		float newMaxScore = 0;
+		float oldMaxScore;
+		int candidateDepth = 3;
+		do {
+			oldMaxScore = newMaxScore;
+			newMaxScore = comboSearch.search(candidateDepth, newMaxScore);
+			candidateDepth++;
+		} while (newMaxScore > oldMaxScore);
+		return comboSearch.getBestCombo();
+	}
+	
+	/**
+	 * Reference implementation scoring every single combination.
+	 */
+	private static List<ResolvedLocation> exhaustivePick(List<List<ResolvedLocation>> allCandidates) {
+		List<ResolvedLocation> bestCandidates = new ArrayList<ResolvedLocation>();
+		float newMaxScore = 0;
+		float oldMaxScore;
+		int candidateDepth = 3;
+		do {
+			oldMaxScore = newMaxScore;
+			for (List<ResolvedLocation> combo : allCombos(allCandidates, 0, candidateDepth)) {
+				HashSet<Object> countryCodes = new HashSet<Object>();
+				HashSet<String> states = new HashSet<String>();
+				for (ResolvedLocation location : combo) {
+					countryCodes.add(location.geoname.primaryCountryCode);
+					states.add(location.geoname.admin1Code);
+				}
+				float score = ((float)allCandidates.size() / (countryCodes.size() + states.size())) / candidateDepth;
+				if (score > newMaxScore) {
+					newMaxScore = score;
+					bestCandidates = combo;
+				}
+			}
+			candidateDepth++;
+		} while (newMaxScore > oldMaxScore);
+		return bestCandidates;
+	}
+	
+	private static List<List<ResolvedLocation>> allCombos(List<List<ResolvedLocation>> allCandidates, int index, int depth) {
+		List<List<ResolvedLocation>> result = new ArrayList<List<ResolvedLocation>>();
+		if (index == allCandidates.size()) {
+			result.add(new ArrayList<ResolvedLocation>());
+			return result;
+		}
+		List<List<ResolvedLocation>> rest = allCombos(allCandidates, index + 1, depth);
+		for (int j = 0; j < Math.min(allCandidates.get(index).size(), depth); j++) {
+			for (List<ResolvedLocation> tail : rest) {
+				List<ResolvedLocation> combo = new ArrayList<ResolvedLocation>();
+				combo.add(allCandidates.get(index).get(j));
+				combo.addAll(tail);
+				result.add(combo);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Builds a {@link ResolvedLocation} the same way the resolver
+	 * does, from a minimal GeoNames record.
+	 */
+	static ResolvedLocation buildLocation(int geonameID, String countryCode, String admin1Code) {
+		String name = "Place" + geonameID;
+		String record = geonameID + "\t" + name + "\t" + name + "\t\t0.0\t0.0\tP\tPPL\t"
+				+ countryCode + "\t\t" + admin1Code + "\t\t\t\t1000\t\t0\tUTC\t2012-01-01";
+		return new ResolvedLocation(GeoName.parseFromGeoNamesRecord(record), name, name, false);
+	}
+}
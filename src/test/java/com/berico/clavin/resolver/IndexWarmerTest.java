@@ -0,0 +1,153 @@
+package com.berico.clavin.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.berico.clavin.index.SampleIndex;
+import com.berico.clavin.metrics.GeoParserMetrics.Stage;
+import com.berico.clavin.metrics.HistogramMetrics;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * IndexWarmerTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that {@link IndexWarmer} replays its queries until the p99
+ * latency settles, and leaves the resolver as it found it.
+ * 
+ */
+public class IndexWarmerTest {
+	
+	static File indexDir;
+	
+	@BeforeClass
+	public static void buildIndex() throws IOException {
+		indexDir = SampleIndex.build();
+	}
+	
+	@AfterClass
+	public static void deleteIndex() {
+		SampleIndex.delete(indexDir);
+	}
+	
+	/**
+	 * Ensures lookups are replayed in whole windows until successive
+	 * p99s agree, without touching the cache or metrics.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testWarmUp() throws IOException, ParseException {
+		LocationResolver resolver = new LocationResolver(indexDir, 5, 5);
+		CandidateCache cache = resolver.getCandidateCache();
+		HistogramMetrics metrics = new HistogramMetrics();
+		resolver.setMetrics(metrics);
+		
+		IndexWarmer warmer = new IndexWarmer(resolver);
+		warmer.setWindowSize(10);
+		assertFalse("not warmed up yet", warmer.isWarm());
+		
+		// anything goes, so it's settled as soon as there are enough windows
+		warmer.setTolerance(Double.MAX_VALUE);
+		List<List<String>> queries = Arrays.asList(Arrays.asList("Boston", "Reston"), Arrays.asList("Gun Barrel City"));
+		assertTrue("p99 should have settled", warmer.warmUp(queries));
+		assertTrue("should be warm", warmer.isWarm());
+		assertEquals("wrong number of windows", 4, warmer.getWindowLatencies().size());
+		assertEquals("wrong number of lookups", 40, warmer.getLookupCount());
+		assertTrue("no latency measured", warmer.getSettledLatency() > 0);
+		
+		assertSame("cache not restored", cache, resolver.getCandidateCache());
+		assertEquals("warm-up lookups were cached", 0, cache.size());
+		assertSame("metrics not restored", metrics, resolver.getMetrics());
+		assertEquals("warm-up lookups were recorded", 0, metrics.getLatencies(Stage.EXACT_SEARCH).getCount());
+		
+		// nothing goes, so it gives up after max lookups
+		warmer = new IndexWarmer(resolver);
+		warmer.setWindowSize(10);
+		warmer.setTolerance(0);
+		warmer.setMaxLookups(25);
+		warmer.warmUp(queries);
+		assertTrue("should be warm anyway", warmer.isWarm());
+		assertEquals("wrong number of lookups", 25, warmer.getLookupCount());
+	}
+	
+	/**
+	 * Ensures every byte of the index is read.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testPreloadIndex() throws IOException, ParseException {
+		long indexSize = 0;
+		for (File file : indexDir.listFiles())
+			indexSize += file.length();
+		
+		IndexWarmer warmer = new IndexWarmer(new LocationResolver(indexDir, 1, 1));
+		assertEquals("wrong number of bytes preloaded", indexSize, warmer.preloadIndex());
+	}
+	
+	/**
+	 * Ensures query log lines are split into location names, skipping
+	 * blank ones.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadQueryLog() throws IOException {
+		File queryLog = File.createTempFile("queries", ".txt");
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(queryLog), "UTF-8");
+			out.write("Boston\tReston\n\nGun Barrel City\n  \nStra\u00dfenhaus\n");
+			out.close();
+			
+			List<List<String>> queries = IndexWarmer.readQueryLog(queryLog);
+			assertEquals("wrong number of queries", 3, queries.size());
+			assertEquals("wrong names", Arrays.asList("Boston", "Reston"), queries.get(0));
+			assertEquals("wrong names", Arrays.asList("Gun Barrel City"), queries.get(1));
+			assertEquals("wrong names", Arrays.asList("Stra\u00dfenhaus"), queries.get(2));
+		} finally {
+			queryLog.delete();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.berico.clavin.resolver;
+
+import static org.apache.lucene.queryparser.classic.QueryParserBase.escape;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.analyzing.AnalyzingQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import com.berico.clavin.index.NameKeys;
+import com.berico.clavin.index.WhitespaceLowerCaseAnalyzer;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * LocationQueryBuilderTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that {@link LocationQueryBuilder} produces the same queries
+ * the {@link AnalyzingQueryParser} used to.
+ * 
+ */
+public class LocationQueryBuilderTest {
+	
+	Analyzer analyzer = new WhitespaceLowerCaseAnalyzer();
+	LocationQueryBuilder builder = new LocationQueryBuilder("indexName", analyzer);
+	
+	// some single-word, multi-word, and punctuation-laden names
+	String[] names = {"Reston", "Kansas City", "Gun Barrel City", "St. John's",
+			"Straßenhaus Airport", "Washington, D.C.", "Ain (Al-Qaeda)", "Côte d'Ivoire"};
+	
+	/**
+	 * Exact queries should match quoted phrase queries.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testExactQuery() throws IOException, ParseException {
+		for (String name : names) {
+			Query parsed = new AnalyzingQueryParser(Version.LUCENE_40, "indexName", analyzer)
+					.parse("\"" + escape(name.toLowerCase()) + "\"");
+			assertEquals("wrong exact query for " + name, parsed,
+					builder.buildExactQuery(builder.analyze(name)));
+		}
+	}
+	
+	/**
+	 * Fuzzy queries should match queries using the tilde operator.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testFuzzyQuery() throws IOException, ParseException {
+		for (String name : names) {
+			Query parsed = new AnalyzingQueryParser(Version.LUCENE_40, "indexName", analyzer)
+					.parse(escape(name.toLowerCase()) + "~");
+			assertEquals("wrong fuzzy query for " + name, parsed,
+					builder.buildFuzzyQuery(builder.analyze(name)));
+		}
+	}
+	
+	/**
+	 * Key queries should look up the normalized key stored in the
+	 * index for the name.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testKeyQuery() throws IOException {
+		for (String name : names) {
+			Query expected = new TermQuery(new Term(NameKeys.FIELD, NameKeys.normalize(name)));
+			assertEquals("wrong key query for " + name, expected,
+					builder.buildKeyQuery(builder.normalize(builder.analyze(name))));
+		}
+	}
+	
+	/**
+	 * Blank names produce no query at all.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBlankName() throws IOException {
+		assertNull("blank name should produce no query", builder.buildExactQuery(builder.analyze("  ")));
+		assertNull("blank name should produce no query", builder.buildFuzzyQuery(builder.analyze("")));
+	}
+}
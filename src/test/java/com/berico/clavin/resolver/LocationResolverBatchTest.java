@@ -0,0 +1,241 @@
+package com.berico.clavin.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.berico.clavin.index.SampleIndex;
+import com.berico.clavin.metrics.HistogramMetrics;
+import com.berico.clavin.metrics.GeoParserMetrics.Counter;
+import com.berico.clavin.metrics.GeoParserMetrics.Stage;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * LocationResolverBatchTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that resolving a batch of documents at once gives the same
+ * results as resolving each document on its own.
+ * 
+ */
+public class LocationResolverBatchTest {
+	
+	static File indexDir;
+	
+	// location names extracted from a handful of "documents"
+	List<List<String>> documents = Arrays.asList(
+			Arrays.asList("Reston", "Boston", "Reston"),
+			Arrays.asList("BOSTON", "Gun Barrel City", "Nowhere", "  "),
+			Collections.<String>emptyList(),
+			null,
+			Arrays.asList("Bostn", "Strassenhaus", "United States", "reston"));
+	
+	@BeforeClass
+	public static void buildIndex() throws IOException {
+		indexDir = SampleIndex.build();
+	}
+	
+	@AfterClass
+	public static void deleteIndex() {
+		SampleIndex.delete(indexDir);
+	}
+	
+	/**
+	 * Batch results should match one-at-a-time results, with & without
+	 * heuristics, fuzzy matching, and caching.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testResolveLocationsBatch() throws IOException, ParseException {
+		for (int maxHitDepth : new int[] {1, 5}) {
+			for (boolean fuzzy : new boolean[] {false, true}) {
+				for (boolean cached : new boolean[] {false, true}) {
+					LocationResolver resolver = new LocationResolver(indexDir, maxHitDepth, 5);
+					if (!cached)
+						resolver.setCandidateCache(null);
+					
+					List<List<ResolvedLocation>> expected = new ArrayList<List<ResolvedLocation>>();
+					for (List<String> locations : documents)
+						expected.add(resolver.resolveLocations(locations, fuzzy));
+					
+					List<List<ResolvedLocation>> actual = resolver.resolveLocationsBatch(documents, fuzzy);
+					assertEquals("wrong number of documents", documents.size(), actual.size());
+					for (int i = 0; i < documents.size(); i++)
+						assertSameLocations("document " + i, expected.get(i), actual.get(i));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Each result should be resolved against its own spelling of the
+	 * location name.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testInputNames() throws IOException, ParseException {
+		LocationResolver resolver = new LocationResolver(indexDir, 1, 1);
+		List<List<ResolvedLocation>> results = resolver.resolveLocationsBatch(Arrays.asList(
+				Arrays.asList("Boston"), Arrays.asList("BOSTON")), false);
+		assertEquals("wrong inputName", "Boston", results.get(0).get(0).inputName);
+		assertEquals("wrong inputName", "BOSTON", results.get(1).get(0).inputName);
+		assertEquals("should resolve to the same place", results.get(0).get(0), results.get(1).get(0));
+		assertTrue("empty batch should give no results", resolver.resolveLocationsBatch(null, false).isEmpty());
+	}
+	
+	/**
+	 * Every mention of a repeated name should get the same match, and
+	 * repeats shouldn't change how the other names are resolved.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testRepeatedMentions() throws IOException, ParseException {
+		for (int maxHitDepth : new int[] {1, 5}) {
+			LocationResolver resolver = new LocationResolver(indexDir, maxHitDepth, 2);
+			List<ResolvedLocation> distinct = resolver.resolveLocations(
+					Arrays.asList("Boston", "Reston", "Gun Barrel City"), false);
+			List<ResolvedLocation> repeated = resolver.resolveLocations(
+					Arrays.asList("Boston", "Reston", "BOSTON", "Boston", "Gun Barrel City", "Reston"), false);
+			
+			assertEquals("wrong number of locations", 6, repeated.size());
+			assertEquals("wrong location", distinct.get(0), repeated.get(0));
+			assertEquals("wrong location", distinct.get(1), repeated.get(1));
+			assertEquals("wrong location", distinct.get(0), repeated.get(2));
+			assertEquals("wrong location", distinct.get(0), repeated.get(3));
+			assertEquals("wrong location", distinct.get(2), repeated.get(4));
+			assertEquals("wrong location", distinct.get(1), repeated.get(5));
+			assertEquals("wrong inputName", "BOSTON", repeated.get(2).inputName);
+		}
+	}
+	
+	/**
+	 * Names should match exactly regardless of case, spacing and
+	 * accents, and otherwise fall back to names containing them.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testExactAndPartialMatches() throws IOException, ParseException {
+		LocationResolver resolver = new LocationResolver(indexDir, 5, 5);
+		List<ResolvedLocation> results = resolver.resolveLocations(Arrays.asList(
+				"gun  barrel CITY", "Stra\u00dfenhaus", "Gun Barrel"), false);
+		assertEquals("wrong number of locations", 3, results.size());
+		assertEquals("wrong location", "Gun Barrel City", results.get(0).geoname.name);
+		assertEquals("wrong location", "Stra\u00dfenhaus", results.get(1).geoname.name);
+		assertEquals("partial match not found", "Gun Barrel City", results.get(2).geoname.name);
+		assertTrue("unknown name should not match", resolver.resolveLocations(Arrays.asList("Barrel Gun"), false).isEmpty());
+	}
+	
+	/**
+	 * Each stage of resolution should be timed, and fuzzy fallbacks,
+	 * unmatched names and combinations evaluated counted.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testMetrics() throws IOException, ParseException {
+		LocationResolver resolver = new LocationResolver(indexDir, 5, 5);
+		resolver.setCandidateCache(null);
+		HistogramMetrics metrics = new HistogramMetrics();
+		resolver.setMetrics(metrics);
+		resolver.resolveLocations(Arrays.asList("Boston", "Bostn", "Reston", "Nowhere"), true);
+		
+		assertEquals("wrong number of exact searches", 4, metrics.getLatencies(Stage.EXACT_SEARCH).getCount());
+		assertEquals("wrong number of fuzzy searches", 2, metrics.getLatencies(Stage.FUZZY_SEARCH).getCount());
+		assertEquals("wrong number of fuzzy fallbacks", 2, metrics.getCount(Counter.FUZZY_FALLBACKS));
+		assertEquals("wrong number of empty results", 1, metrics.getCount(Counter.EMPTY_RESULTS));
+		assertTrue("stored docs not timed", metrics.getLatencies(Stage.STORED_DOC_LOAD).getCount() > 0);
+		assertTrue("decoding not timed", metrics.getLatencies(Stage.GEONAME_DECODE).getCount() > 0);
+		assertEquals("heuristic not timed", 1, metrics.getLatencies(Stage.HEURISTIC_SELECTION).getCount());
+		assertTrue("combos not counted", metrics.getCount(Counter.COMBOS_EVALUATED) > 0);
+		
+		resolver.setMetrics(null);
+		resolver.resolveLocations(Arrays.asList("Boston"), true);
+		assertEquals("metrics still recorded", 4, metrics.getLatencies(Stage.EXACT_SEARCH).getCount());
+	}
+	
+	/**
+	 * Looking up names in parallel should give exactly the same
+	 * results, in the same order, as looking them up serially.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testParallelRetrieval() throws IOException, ParseException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int maxHitDepth : new int[] {1, 5}) {
+				for (boolean fuzzy : new boolean[] {false, true}) {
+					LocationResolver serial = new LocationResolver(indexDir, maxHitDepth, 5);
+					serial.setCandidateCache(null);
+					LocationResolver parallel = new LocationResolver(indexDir, maxHitDepth, 5);
+					parallel.setCandidateCache(null);
+					parallel.setExecutor(executor);
+					
+					for (List<String> locations : documents)
+						assertSameLocations("parallel", serial.resolveLocations(locations, fuzzy),
+								parallel.resolveLocations(locations, fuzzy));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private static void assertSameLocations(String message, List<ResolvedLocation> expected, List<ResolvedLocation> actual) {
+		assertEquals(message + ": wrong number of locations", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(message + ": wrong location", expected.get(i), actual.get(i));
+			assertEquals(message + ": wrong inputName", expected.get(i).inputName, actual.get(i).inputName);
+			assertEquals(message + ": wrong matchedName", expected.get(i).matchedName, actual.get(i).matchedName);
+			assertEquals(message + ": wrong fuzzy", expected.get(i).fuzzy, actual.get(i).fuzzy);
+			assertEquals(message + ": wrong confidence", expected.get(i).confidence, actual.get(i).confidence, 0);
+		}
+	}
+}
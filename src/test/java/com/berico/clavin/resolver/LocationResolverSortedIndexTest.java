@@ -0,0 +1,218 @@
+package com.berico.clavin.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.berico.clavin.gazetteer.GeoName;
+import com.berico.clavin.index.IndexDirectoryBuilder;
+import com.berico.clavin.index.SampleIndex;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * LocationResolverSortedIndexTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Checks that an index built in population order finds exactly the
+ * same candidate matches as one that sorts its hits by population.
+ * 
+ */
+public class LocationResolverSortedIndexTest {
+	
+	static File unsortedIndexDir;
+	static File sortedIndexDir;
+	
+	@BeforeClass
+	public static void buildIndexes() throws IOException, InterruptedException {
+		unsortedIndexDir = SampleIndex.build();
+		sortedIndexDir = SampleIndex.buildSortedByPopulation();
+	}
+	
+	@AfterClass
+	public static void deleteIndexes() {
+		SampleIndex.delete(unsortedIndexDir);
+		SampleIndex.delete(sortedIndexDir);
+	}
+	
+	/**
+	 * Only the index built in population order should be marked so.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testSortOrderMarker() throws IOException, ParseException {
+		assertFalse("unsorted index marked as sorted", new LocationResolver(unsortedIndexDir, 1, 1).isSortedByPopulation());
+		assertTrue("sorted index not marked as sorted", new LocationResolver(sortedIndexDir, 1, 1).isSortedByPopulation());
+	}
+	
+	/**
+	 * Adding a sorted run to an index that already has documents in it
+	 * shouldn't leave it marked as sorted; replacing the index should.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testRebuild() throws IOException, InterruptedException {
+		File indexDir = SampleIndex.buildSortedByPopulation();
+		try {
+			int maxDoc = maxDoc(indexDir);
+			
+			SampleIndex.addSortedByPopulation(indexDir, OpenMode.CREATE_OR_APPEND);
+			assertEquals("records not appended", 2 * maxDoc, maxDoc(indexDir));
+			assertFalse("appended index marked as sorted", isSortedByPopulation(indexDir));
+			
+			SampleIndex.addSortedByPopulation(indexDir, OpenMode.CREATE);
+			assertEquals("index not replaced", maxDoc, maxDoc(indexDir));
+			assertTrue("replaced index not marked as sorted", isSortedByPopulation(indexDir));
+		} finally {
+			SampleIndex.delete(indexDir);
+		}
+	}
+	
+	/**
+	 * Names should appear in the sorted index in order of descending
+	 * population.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testDocumentOrder() throws IOException {
+		FSDirectory index = FSDirectory.open(sortedIndexDir);
+		DirectoryReader reader = DirectoryReader.open(index);
+		try {
+			assertTrue("sorted index not marked as sorted", IndexDirectoryBuilder.isSortedByPopulation(reader));
+			
+			long[] populations = FieldCache.DEFAULT.getLongs(SlowCompositeReaderWrapper.wrap(reader), "population", false);
+			long previous = Long.MAX_VALUE;
+			int nameCount = 0;
+			for (int doc = 0; doc < reader.maxDoc(); doc++) {
+				// only name entries have a population
+				if (reader.document(doc).get("indexName") == null)
+					continue;
+				assertTrue("population out of order at doc " + doc, populations[doc] <= previous);
+				previous = populations[doc];
+				nameCount++;
+			}
+			assertTrue("no names in index", nameCount > 0);
+		} finally {
+			reader.close();
+			index.close();
+		}
+	}
+	
+	/**
+	 * Every name in the gazetteers (and a few misspellings) should get
+	 * the same candidate matches, in the same order, from either index.
+	 * 
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@Test
+	public void testSameCandidates() throws IOException, ParseException {
+		List<String> names = new ArrayList<String>(gazetteerNames());
+		names.addAll(Arrays.asList("Bostn", "Strassenhaus", "Restn", "Nowhere", "  "));
+		
+		for (int maxHitDepth : new int[] {1, 5, 20}) {
+			LocationResolver unsorted = new LocationResolver(unsortedIndexDir, maxHitDepth, 1);
+			LocationResolver sorted = new LocationResolver(sortedIndexDir, maxHitDepth, 1);
+			for (boolean fuzzy : new boolean[] {false, true}) {
+				List<List<ResolvedLocation>> expected = unsorted.getCandidateMatches(names, fuzzy, new String[names.size()]);
+				List<List<ResolvedLocation>> actual = sorted.getCandidateMatches(names, fuzzy, new String[names.size()]);
+				for (int i = 0; i < names.size(); i++) {
+					String message = names.get(i) + " (maxHitDepth " + maxHitDepth + ", fuzzy " + fuzzy + ")";
+					assertEquals(message + ": wrong candidates", expected.get(i), actual.get(i));
+					for (int j = 0; j < expected.get(i).size(); j++) {
+						assertEquals(message + ": wrong matchedName",
+								expected.get(i).get(j).matchedName, actual.get(i).get(j).matchedName);
+					}
+				}
+			}
+		}
+	}
+	
+	private static int maxDoc(File indexDir) throws IOException {
+		FSDirectory index = FSDirectory.open(indexDir);
+		DirectoryReader reader = DirectoryReader.open(index);
+		try {
+			return reader.maxDoc();
+		} finally {
+			reader.close();
+			index.close();
+		}
+	}
+	
+	private static boolean isSortedByPopulation(File indexDir) throws IOException {
+		FSDirectory index = FSDirectory.open(indexDir);
+		DirectoryReader reader = DirectoryReader.open(index);
+		try {
+			return IndexDirectoryBuilder.isSortedByPopulation(reader);
+		} finally {
+			reader.close();
+			index.close();
+		}
+	}
+	
+	private static Set<String> gazetteerNames() throws IOException {
+		Set<String> names = new LinkedHashSet<String>();
+		for (String gazetteer : new String[] {"./src/test/resources/gazetteers/GeoNamesSampleSet.txt",
+				"./src/main/resources/SupplementaryGazetteer.txt"}) {
+			BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(gazetteer), "UTF-8"));
+			String line;
+			while ((line = r.readLine()) != null) {
+				GeoName geoname = GeoName.parseFromGeoNamesRecord(line);
+				names.add(geoname.name);
+				names.add(geoname.asciiName);
+				names.addAll(geoname.alternateNames);
+			}
+			r.close();
+		}
+		return names;
+	}
+}
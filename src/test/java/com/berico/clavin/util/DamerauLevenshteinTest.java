@@ -6,6 +6,10 @@ import static com.berico.clavin.util.DamerauLevenshtein.isEditDistance1;
 import static org.junit.Assert.*;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.junit.Test;
@@ -100,6 +104,111 @@ public class DamerauLevenshteinTest {
 		}
 	}
 	
+	/**
+	 * Compares against the original matrix-based implementation on
+	 * random strings drawn from small alphabets, so there are plenty
+	 * of repeated letters and transpositions.
+	 */
+	@Test
+	public void testMatchesFullMatrix() {
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			String a = randomString(random, 1 + random.nextInt(4), random.nextInt(12));
+			String b = randomString(random, 1 + random.nextInt(4), random.nextInt(12));
+			int expected = fullMatrixDistance(a, b);
+			assertEquals(a + " vs " + b, expected, damerauLevenshteinDistance(a, b));
+			for (int maxDistance = 0; maxDistance <= 4; maxDistance++)
+				assertEquals(a + " vs " + b + " within " + maxDistance, Math.min(expected, maxDistance + 1),
+						damerauLevenshteinDistance(a, b, maxDistance));
+		}
+	}
+	
+	/**
+	 * Checks isEditDistance1() on short strings drawn from small
+	 * alphabets, where near misses are common, and its batch version
+	 * against the pairwise one.
+	 */
+	@Test
+	public void testIsEditDistance1SmallAlphabets() {
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			String a = randomString(random, 1 + random.nextInt(3), random.nextInt(7));
+			List<String> candidates = new ArrayList<String>();
+			for (int j = 0; j < 10; j++)
+				candidates.add(randomString(random, 1 + random.nextInt(3), random.nextInt(7)));
+			candidates.add(null);
+			
+			boolean[] batch = isEditDistance1(a, candidates);
+			assertEquals("wrong number of results", candidates.size(), batch.length);
+			for (int j = 0; j < candidates.size(); j++) {
+				String b = candidates.get(j);
+				assertEquals(a + " vs " + b, damerauLevenshteinDistance(a, b) < 2, isEditDistance1(a, b));
+				assertEquals(a + " vs " + b + " in batch", isEditDistance1(a, b), batch[j]);
+			}
+		}
+	}
+	
+	/**
+	 * Checks the bounded edit distance stops at the bound.
+	 */
+	@Test
+	public void testBoundedDistance() {
+		assertEquals("within bound", 2, damerauLevenshteinDistance("xyz", "yzx", 2));
+		assertEquals("beyond bound", 2, damerauLevenshteinDistance("xyz", "yzx", 1));
+		assertEquals("length difference", 3, damerauLevenshteinDistance("x", "xyzxyz", 2));
+		assertEquals("huge bound", 6, damerauLevenshteinDistance("", "xyzxyz", Integer.MAX_VALUE));
+		assertEquals("null", 0, damerauLevenshteinDistance(null, "", 0));
+		assertEquals("case-insensitive", 1, damerauLevenshteinDistanceCaseInsensitive("Baghdad", "BAGDAD", 1));
+	}
+	
+	private static String randomString(Random random, int alphabetSize, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = (char)('a' + random.nextInt(alphabetSize));
+		return new String(chars);
+	}
+	
+	/**
+	 * The original implementation, filling in the whole edit matrix.
+	 */
+	private static int fullMatrixDistance(String str1, String str2) {
+		if (str1.isEmpty() || str2.isEmpty())
+			return Math.max(str1.length(), str2.length());
+		
+		int[][] matrix = new int[str1.length() + 2][str2.length() + 2];
+		int bound = str1.length() + str2.length();
+		matrix[0][0] = bound;
+		for (int i = 0; i <= str1.length(); i++) {
+			matrix[i + 1][1] = i;
+			matrix[i + 1][0] = bound;
+		}
+		for (int j = 0; j <= str2.length(); j++) {
+			matrix[1][j + 1] = j;
+			matrix[0][j + 1] = bound;
+		}
+		
+		Map<Character, Integer> dictionary = new HashMap<Character, Integer>();
+		for (int i = 1; i <= str1.length(); i++) {
+			int index = 0;
+			for (int j = 1; j <= str2.length(); j++) {
+				Integer i1 = dictionary.get(str2.charAt(j - 1));
+				if (i1 == null)
+					i1 = 0;
+				int j1 = index;
+				if (str1.charAt(i - 1) == str2.charAt(j - 1)) {
+					matrix[i + 1][j + 1] = matrix[i][j];
+					index = j;
+				} else {
+					matrix[i + 1][j + 1] = Math.min(matrix[i][j], Math.min(matrix[i + 1][j], matrix[i][j + 1])) + 1;
+				}
+				matrix[i + 1][j + 1] = Math.min(matrix[i + 1][j + 1], matrix[i1][j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+			}
+			dictionary.put(str1.charAt(i - 1), i);
+		}
+		
+		return matrix[str1.length() + 1][str2.length() + 1];
+	}
+	
 	/**
 	 * Ensure the case-insensitive version of DamerauLevenshteinDistance() maintains
 	 * "triangle equality" between strings that are identical except for case.